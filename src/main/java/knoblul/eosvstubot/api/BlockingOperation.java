@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api;
+
+import java.io.IOException;
+
+/**
+ * Операция, которая выполняет блокирующие запросы через
+ * {@link BotContext#executeRequest(org.apache.http.client.methods.HttpUriRequest, Class)}
+ * (например, вход профиля). Выполняется через
+ * {@link BotContext#executeBlockingOperation(BlockingOperation, org.apache.http.concurrent.FutureCallback)}.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 21:40
+ * @author Knoblul
+ */
+@FunctionalInterface
+public interface BlockingOperation<T> {
+	/**
+	 * @return результат операции
+	 * @throws IOException если не удалось выполнить запрос или разобрать ответ
+	 */
+	T run() throws IOException;
+}
@@ -17,15 +17,22 @@ package knoblul.eosvstubot.api;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Queues;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 import knoblul.eosvstubot.api.chat.ChatSession;
+import knoblul.eosvstubot.api.network.CachingDnsResolver;
 import knoblul.eosvstubot.api.network.ConnectionProblemsDetector;
+import knoblul.eosvstubot.api.network.HttpResponseCache;
+import knoblul.eosvstubot.api.network.HttpStatusException;
+import knoblul.eosvstubot.api.network.HttpTrafficCounter;
+import knoblul.eosvstubot.api.network.RequestPriority;
+import knoblul.eosvstubot.api.network.RequestScheduler;
+import knoblul.eosvstubot.api.network.ResponseDecoder;
 import knoblul.eosvstubot.api.profile.ProfileManager;
 import knoblul.eosvstubot.api.schedule.LessonsManager;
+import knoblul.eosvstubot.api.timer.TimerWheel;
 import knoblul.eosvstubot.utils.Log;
 import org.apache.commons.lang3.reflect.ConstructorUtils;
 import org.apache.http.HttpResponse;
@@ -39,9 +46,12 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.DnsResolver;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -50,6 +60,9 @@ import org.apache.http.impl.client.LaxRedirectStrategy;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.apache.http.message.BasicNameValuePair;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -59,14 +72,19 @@ import org.jsoup.nodes.Document;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Простое асбтрагирование основных низкоуровневых действий бота.
@@ -82,6 +100,25 @@ public class BotContext {
 
 	private static final int MAX_HTTP_REDIRECTS = 10;
 
+	/**
+	 * Системное свойство с количеством циклов событий, между которыми распределяются
+	 * чат-сессии (см. {@link #getEventLoop(Object)}). По умолчанию 1 - все чат-сессии
+	 * обслуживаются основным потоком.
+	 */
+	public static final String EVENT_LOOPS_PROPERTY = "eosvstu.eventLoops";
+
+	/**
+	 * Системное свойство, включающее выполнение блокирующих операций
+	 * (см. {@link #executeBlockingOperation(BlockingOperation, FutureCallback)}) в отдельных потоках.
+	 * По умолчанию выключено - операции выполняются прямо в основном потоке.
+	 */
+	public static final String BLOCKING_OPERATIONS_PROPERTY = "eosvstu.blockingOperations";
+
+	/**
+	 * Максимальный размер кеша ответов, в байтах.
+	 */
+	private static final long MAX_RESPONSE_CACHE_BYTES = 16 * 1024 * 1024;
+
 	/**
 	 * Экземпляр основной потока. Нужен для проверок
 	 * корректности вызова методов контекста (и не только).
@@ -116,10 +153,45 @@ public class BotContext {
 	private CloseableHttpAsyncClient asyncClient;
 
 	/**
-	 * Очередь из команд, которые должны исполнится в
-	 * основном потоке
+	 * Кеш ответов на GET-запросы обоих клиентов.
 	 */
-	private Queue<Runnable> mainThreadCommands = Queues.newConcurrentLinkedQueue();
+	private HttpResponseCache responseCache;
+
+	/**
+	 * Распаковщик тел ответов и счетчики трафика.
+	 */
+	private HttpTrafficCounter trafficCounter;
+
+	/**
+	 * Планировщик асинхронных запросов. Все асинхронные запросы контекста
+	 * передаются клиенту через него в порядке приоритета.
+	 */
+	private RequestScheduler requestScheduler;
+
+	/**
+	 * Основной цикл событий, который работает в основном потоке.
+	 * Хранит очередь команд основного потока и колесо таймеров основного потока.
+	 */
+	private final EventLoop mainLoop;
+
+	/**
+	 * Все циклы событий контекста. Первый - {@link #mainLoop},
+	 * остальные работают в собственных потоках.
+	 */
+	private EventLoop[] eventLoops;
+
+	/**
+	 * Исполнитель блокирующих операций, либо <code>null</code>, если
+	 * операции выполняются в основном потоке (см. {@link #BLOCKING_OPERATIONS_PROPERTY}).
+	 */
+	private ExecutorService blockingOperationsExecutor;
+
+	/**
+	 * Хранилище куки блокирующей операции, которая выполняется в текущем потоке.
+	 * Каждая операция работает со своим хранилищем, поэтому операции разных
+	 * профилей не мешают друг другу и основному потоку.
+	 */
+	private final ThreadLocal<CookieStore> operationCookieStore = new ThreadLocal<>();
 
 	private ConnectionProblemsDetector connectionProblemsDetector;
 
@@ -141,6 +213,7 @@ public class BotContext {
 			throw new IllegalStateException("Context can be created only from the main thread.");
 		}
 
+		mainLoop = new EventLoop("main");
 		profileManager = registerHandler(ProfileManager.class);
 		lessonsManager = registerHandler(LessonsManager.class);
 	}
@@ -163,6 +236,28 @@ public class BotContext {
 		}
 	}
 
+	/**
+	 * Проверяет, что текущий поток - поток одного из циклов событий контекста
+	 * или поток блокирующей операции.
+	 */
+	private void requireRequestThread() {
+		if (operationCookieStore.get() == null) {
+			requireEventLoopThread();
+		}
+	}
+
+	/**
+	 * Проверяет, что текущий поток - поток одного из циклов событий контекста
+	 */
+	public void requireEventLoopThread() {
+		for (EventLoop eventLoop : eventLoops) {
+			if (eventLoop.inEventLoop()) {
+				return;
+			}
+		}
+		throw new IllegalStateException("This method must only be called from an event loop thread");
+	}
+
 	/**
 	 * Создает котекст. Далее все контекстные действия могут выполнятся
 	 * вплоть до вызова {@link #destroy()}.
@@ -178,19 +273,61 @@ public class BotContext {
 
 		cookieStore = new BasicCookieStore();
 
+		int eventLoopCount = Math.max(1, Integer.getInteger(EVENT_LOOPS_PROPERTY, 1));
+		eventLoops = new EventLoop[eventLoopCount];
+		eventLoops[0] = mainLoop;
+		for (int i = 1; i < eventLoopCount; i++) {
+			eventLoops[i] = new EventLoop("event-loop-" + i, true);
+			eventLoops[i].start();
+		}
+
+		if (Boolean.getBoolean(BLOCKING_OPERATIONS_PROPERTY)) {
+			AtomicInteger threadCounter = new AtomicInteger();
+			blockingOperationsExecutor = Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "Blocking Operation " + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		responseCache = new HttpResponseCache(MAX_RESPONSE_CACHE_BYTES);
+		trafficCounter = new HttpTrafficCounter();
+		requestScheduler = new RequestScheduler();
+
+		// общий кеш DNS для обоих клиентов
+		DnsResolver dnsResolver = new CachingDnsResolver();
+
 		client = HttpClientBuilder.create()
 				.setRedirectStrategy(new LaxRedirectStrategy())
 				.setDefaultCookieStore(cookieStore)
+				.setDnsResolver(dnsResolver)
+				.addInterceptorLast(HttpResponseCache.REDIRECT_INTERCEPTOR)
 				.build();
 
+		PoolingNHttpClientConnectionManager asyncConnectionManager;
+		try {
+			asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(),
+					null, dnsResolver);
+		} catch (IOReactorException e) {
+			throw new RuntimeException("Failed to create async connection manager", e);
+		}
+		// очередность запросов определяет планировщик, поэтому пул не должен держать запросы у себя.
+		// одно подключение сверху - для детектора проблем с подключением
+		asyncConnectionManager.setMaxTotal(RequestScheduler.MAX_CONCURRENT_REQUESTS + 1);
+		asyncConnectionManager.setDefaultMaxPerRoute(RequestScheduler.MAX_CONCURRENT_REQUESTS + 1);
+
 		asyncClient = HttpAsyncClientBuilder.create()
 				.setRedirectStrategy(new LaxRedirectStrategy())
 				.setDefaultCookieStore(cookieStore)
+				.setConnectionManager(asyncConnectionManager)
+				// асинхронный клиент сам не запрашивает сжатые ответы,
+				// тела распаковываются в HttpTrafficCounter
+				.addInterceptorLast(new RequestAcceptEncoding())
+				.addInterceptorLast(HttpResponseCache.REDIRECT_INTERCEPTOR)
 				.build();
 
 		asyncClient.start();
 
-		connectionProblemsDetector = new ConnectionProblemsDetector(BotConstants.SITE_DOMAIN,
+		connectionProblemsDetector = new ConnectionProblemsDetector(this, asyncClient, BotConstants.SITE_DOMAIN,
 				this::onInternetIssuesDetectorPingResult);
 	}
 
@@ -204,6 +341,20 @@ public class BotContext {
 		}
 	}
 
+	/**
+	 * Передает результат запроса детектору проблем с подключением.
+	 * @param requestStartTime время начала запроса (как {@link System#nanoTime()})
+	 * @param response ответ сервера или <code>null</code>, если запрос упал
+	 */
+	private void reportResponse(long requestStartTime, @Nullable HttpResponse response) {
+		ConnectionProblemsDetector detector = connectionProblemsDetector;
+		if (detector != null) {
+			long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStartTime);
+			detector.reportResponse(latency, response != null
+					&& response.getStatusLine().getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR);
+		}
+	}
+
 	/**
 	 * Отправляет команду на исполнение в основной поток, если текущий
 	 * поток не основной. Иначе исполняет команду немедленно.
@@ -212,15 +363,7 @@ public class BotContext {
 	 * @param command команда, которую нужно исполнить
 	 */
 	public void invokeMainThreadCommand(Runnable command) {
-		if (Thread.currentThread() == mainThread) {
-			try {
-				command.run();
-			} catch (Throwable t) {
-				Log.warn(t,"Failed to execute command");
-			}
-		} else {
-			mainThreadCommands.add(command);
-		}
+		mainLoop.execute(command);
 	}
 
 	/**
@@ -257,16 +400,17 @@ public class BotContext {
 		requireValidContext();
 		requireMainThread();
 
-		Runnable command;
-		while ((command = mainThreadCommands.poll()) != null) {
-			invokeMainThreadCommand(command);
-		}
+		// выполняем команды и сработавшие таймеры
+		mainLoop.runCommands();
 
 		// обновляем ханлдеры
 		handlers.forEach(BotHandler::update);
 
-		// обновляем чат-сессии, удаляем те, что недействительны
-		chatSessions.removeIf(ChatSession::update);
+		// обновляем чат-сессии основного цикла
+		mainLoop.runUpdateTasks();
+
+		// удаляем недействительные чат-сессии
+		chatSessions.removeIf(ChatSession::isDestroyed);
 	}
 
 	/**
@@ -324,6 +468,57 @@ public class BotContext {
 		return lessonsManager;
 	}
 
+	/**
+	 * Таймеры колеса регистрируются и срабатывают только в основном потоке.
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @return колесо таймеров основного цикла событий
+	 */
+	public TimerWheel getTimerWheel() {
+		requireValidContext();
+		return mainLoop.getTimerWheel();
+	}
+
+	/**
+	 * Возвращает цикл событий, за которым закреплен указанный ключ (например, ссылка на чат).
+	 * Один и тот же ключ всегда закрепляется за одним и тем же циклом.
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @param key ключ
+	 * @return цикл событий
+	 */
+	@NotNull
+	public EventLoop getEventLoop(@NotNull Object key) {
+		requireValidContext();
+		return eventLoops[Math.floorMod(key.hashCode(), eventLoops.length)];
+	}
+
+	/**
+	 * Возвращает планировщик асинхронных запросов (например, для метрик задержки в очередях).
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @return {@link #requestScheduler}
+	 */
+	@NotNull
+	public RequestScheduler getRequestScheduler() {
+		requireValidContext();
+		return requestScheduler;
+	}
+
+	/**
+	 * @return {@link #mainLoop}
+	 */
+	@NotNull
+	public EventLoop getMainEventLoop() {
+		return mainLoop;
+	}
+
+	/**
+	 * Счетчики показывают объем тел ответов до и после распаковки.
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()}.</p>
+	 * @return {@link #trafficCounter}
+	 */
+	public HttpTrafficCounter getTrafficCounter() {
+		return trafficCounter;
+	}
+
 	/**
 	 * Загружает все менеджеры, которые управляют какими-либо ресурсами.
 	 *
@@ -340,19 +535,18 @@ public class BotContext {
 	/**
 	 * Очищает все куки из данного контекста
 	 *
-	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция должна вызываться только из основного потока или из блокирующей операции.</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
 	 */
 	public void clearCookies() {
 		requireValidContext();
-		requireMainThread();
-		cookieStore.clear();
+		getCurrentCookieStore().clear();
 	}
 
 	/**
 	 * Получает куки по имени из тех, что хранит данный контекст
 	 *
-	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция должна вызываться только из основного потока или из блокирующей операции.</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
 	 * @param name имя куки
 	 * @return найденный куки или <code>null</code>
@@ -360,9 +554,8 @@ public class BotContext {
 	@Nullable
 	public Cookie getCookie(@NotNull String name) {
 		requireValidContext();
-		requireMainThread();
 
-		for (Cookie cookie: cookieStore.getCookies()) {
+		for (Cookie cookie: getCurrentCookieStore().getCookies()) {
 			if (cookie.getName().equals(name)) {
 				return cookie;
 			}
@@ -373,7 +566,7 @@ public class BotContext {
 	/**
 	 * Получает згачегие куки по имени из тех, что хранит данный контекст
 	 *
-	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция должна вызываться только из основного потока или из блокирующей операции.</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
 	 * @param name имя куки
 	 * @return значение куки или <code>null</code>
@@ -381,7 +574,6 @@ public class BotContext {
 	@Nullable
 	public String getCookieValue(@NotNull String name) {
 		requireValidContext();
-		requireMainThread();
 
 		Cookie cookie = getCookie(name);
 		return cookie != null ? cookie.getValue() : null;
@@ -391,7 +583,7 @@ public class BotContext {
 	 * Добавляет куки в хранение у контекста. Куки заменяется новым, если
 	 * уже присутсвует в списке куки.
 	 *
-	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция должна вызываться только из основного потока или из блокирующей операции.</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
 	 * @param name имя куки
 	 * @param value значение куки или <code>null</code>
@@ -400,21 +592,49 @@ public class BotContext {
 	 */
 	public void setCookie(@NotNull String name, @Nullable Object value, @NotNull String domain, @NotNull String path) {
 		requireValidContext();
+		getCurrentCookieStore().addCookie(createCookie(name, value, domain, path));
+	}
+
+	/**
+	 * @return хранилище куки блокирующей операции, которая выполняется в текущем потоке,
+	 * либо общее хранилище {@link #cookieStore}, если текущий поток - основной.
+	 */
+	@NotNull
+	private CookieStore getCurrentCookieStore() {
+		CookieStore store = operationCookieStore.get();
+		if (store != null) {
+			return store;
+		}
+
 		requireMainThread();
+		return cookieStore;
+	}
 
+	/**
+	 * Создает куки, которое можно положить в любое хранилище куки.
+	 * @param name имя куки
+	 * @param value значение куки или <code>null</code>
+	 * @param domain домен куки
+	 * @param path путь до куки
+	 * @return новое куки
+	 */
+	@NotNull
+	public static Cookie createCookie(@NotNull String name, @Nullable Object value, @NotNull String domain,
+									  @NotNull String path) {
 		BasicClientCookie cookie = new BasicClientCookie(name, value == null ? "" : value.toString());
 		cookie.setDomain(domain);
 		cookie.setPath(path);
 		cookie.setSecure(false);
 		cookie.setAttribute("SameSite", "None");
 		cookie.setAttribute("HttpOnly", "false");
-		cookieStore.addCookie(cookie);
+		return cookie;
 	}
 
 	/**
 	 * Создает новый GET-запрос, готовый для выполнения.
 	 *
-	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция должна вызываться только из потока цикла событий (см. {@link #getEventLoop(Object)})
+	 * или из блокирующей операции.</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
 	 * @param uri юрл запроса
 	 * @param params параметры запроса, которые добавляются к GET-параметрам юрл.
@@ -423,7 +643,7 @@ public class BotContext {
 	@NotNull
 	public HttpUriRequest buildGetRequest(@NotNull String uri, @Nullable Map<String, String> params) {
 		requireValidContext();
-		requireMainThread();
+		requireRequestThread();
 
 		RequestConfig config = RequestConfig.copy(RequestConfig.DEFAULT)
 				.setRedirectsEnabled(true)
@@ -451,7 +671,8 @@ public class BotContext {
 	/**
 	 * Создает новый POST-запрос, готовый для выполнения.
 	 *
-	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция должна вызываться только из потока цикла событий (см. {@link #getEventLoop(Object)})
+	 * или из блокирующей операции.</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
 	 * @param uri юрл запроса
 	 * @param postParams параметры запроса, которые передаются в теле POST-запроса
@@ -460,7 +681,7 @@ public class BotContext {
 	@NotNull
 	public HttpUriRequest buildPostRequest(@NotNull String uri, @Nullable Map<String, String> postParams) {
 		requireValidContext();
-		requireMainThread();
+		requireRequestThread();
 
 		RequestConfig config = RequestConfig.copy(RequestConfig.DEFAULT)
 				.setRedirectsEnabled(true)
@@ -480,12 +701,111 @@ public class BotContext {
 		return request;
 	}
 
+	/**
+	 * Читает тело ответа в строку.
+	 */
+	@NotNull
+	private static String readContent(@NotNull Reader contentReader) throws IOException {
+		/*Header contentTypeHeader = response.getEntity().getContentType();
+		String contentType = contentTypeHeader != null ? contentTypeHeader.getValue() : null;
+		boolean jsonContentType = StringUtils.containsIgnoreCase(contentType, "application/json");*/
+
+		StringBuilder content = new StringBuilder();
+		BufferedReader reader = new BufferedReader(contentReader);
+		String ln;
+		while ((ln = reader.readLine()) != null) {
+			content.append(ln);
+		}
+		return content.toString();
+	}
+
+	/**
+	 * @return декодер, который преобразует тело ответа в тип, указанный классом expectedResponseClass
+	 * (см. {@link #convertContent(String, Class)}).
+	 */
+	@NotNull
+	public static <T> ResponseDecoder<T> getClassDecoder(Class<T> expectedResponseClass) {
+		return reader -> convertContent(readContent(reader), expectedResponseClass);
+	}
+
+	/**
+	 * Преобразует тело ответа в тип, который указан с помощью класса expectedResponseClass.
+	 * @throws IOException если тело ответа не удалось разобрать
+	 * @throws IllegalArgumentException при неверном указании типа
+	 */
+	@NotNull
+	private static <T> T convertContent(@NotNull String content, Class<T> expectedResponseClass) throws IOException {
+		if (Document.class.isAssignableFrom(expectedResponseClass)) {
+			try {
+				return expectedResponseClass.cast(Jsoup.parse(content, ""));
+			} catch (Throwable t) {
+				throw new IOException(content, t);
+			}
+		} else if (/*jsonContentType || */JsonElement.class.isAssignableFrom(expectedResponseClass)) {
+			try {
+				return GSON.fromJson(content, expectedResponseClass);
+			} catch (JsonParseException e) {
+				throw new IOException(content, e);
+			}
+		} else if (String.class.isAssignableFrom(expectedResponseClass)) {
+			return expectedResponseClass.cast(content);
+		}
+
+		throw new IllegalArgumentException("Expected response class is invalid: "
+				+ expectedResponseClass);
+	}
+
+	/**
+	 * Декодирует тело ответа с учетом {@link #responseCache}: при ответе 304 декодируется
+	 * запомненная страница, а при ответе 200 страница запоминается, если сервер это разрешает.
+	 * Тела ответов, которые не запоминаются, декодируются прямо из потока ответа.
+	 * @param response ответ сервера
+	 * @param httpContext контекст, в котором выполнялся запрос
+	 * @param cacheKey ключ кеша запроса, либо <code>null</code>, если запрос не кешируется
+	 * @param cachedEntry запись кеша, по которой был сделан условный запрос, либо <code>null</code>
+	 * @param decoder декодер тела ответа
+	 * @throws HttpStatusException при статусе, отличном от 200 OK (и 304, если страница есть в кеше)
+	 */
+	private <T> T decodeResponse(@NotNull HttpResponse response, @NotNull HttpClientContext httpContext,
+								 @Nullable String cacheKey, @Nullable HttpResponseCache.Entry cachedEntry,
+								 @NotNull ResponseDecoder<T> decoder) throws IOException {
+		StatusLine statusLine = response.getStatusLine();
+		if (statusLine.getStatusCode() == HttpStatus.SC_NOT_MODIFIED && cachedEntry != null) {
+			return decoder.decode(new StringReader(cachedEntry.getContent()));
+		}
+
+		if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+			throw new HttpStatusException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+		}
+
+		// ответ после редиректа относится к другому адресу, его не запоминаем
+		if (cacheKey != null && !HttpResponseCache.isRedirected(httpContext)) {
+			if (HttpResponseCache.isStorable(response)) {
+				String content;
+				try (Reader reader = new InputStreamReader(trafficCounter.openContent(response), Charsets.UTF_8)) {
+					content = readContent(reader);
+				}
+				responseCache.store(cacheKey, response, content);
+				return decoder.decode(new StringReader(content));
+			}
+
+			// страница изменилась, но новую запомнить нельзя
+			responseCache.invalidate(cacheKey);
+		}
+
+		try (Reader reader = new InputStreamReader(trafficCounter.openContent(response), Charsets.UTF_8)) {
+			return decoder.decode(reader);
+		}
+	}
+
 	/**
 	 * Выполняет указанный запрос и возвращает ответ в типе, который указан с помощью
 	 * класса expectedResponseClass. Виды типов {@link Document}, {@link JsonElement}, String.
 	 * Если тип не относится к этим видам, метод выкинет IllegalArgumentException
+	 * GET-запросы проходят через {@link #responseCache}.
 	 *
-	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция должна вызываться только из основного потока или из блокирующей операции
+	 * (см. {@link #executeBlockingOperation(BlockingOperation, FutureCallback)}).</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
 	 * @param request экземпляр настроенного запроса
 	 * @param expectedResponseClass класс, указывающий на вид типа.
@@ -497,46 +817,25 @@ public class BotContext {
 	@NotNull
 	public <T> T executeRequest(@NotNull HttpUriRequest request, Class<T> expectedResponseClass) throws IOException {
 		requireValidContext();
-		requireMainThread();
-
-		try (CloseableHttpResponse response = client.execute(request)) {
-			StatusLine statusLine = response.getStatusLine();
-			if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
-				throw new IOException("Invalid status: " + statusLine.getStatusCode() + " "
-						+ statusLine.getReasonPhrase());
-			}
-
-			/*Header contentTypeHeader = response.getEntity().getContentType();
-			String contentType = contentTypeHeader != null ? contentTypeHeader.getValue() : null;
-			boolean jsonContentType = StringUtils.containsIgnoreCase(contentType, "application/json");*/
+		CookieStore requestCookieStore = getCurrentCookieStore();
 
-			StringBuilder content = new StringBuilder();
-			try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(),
-					Charsets.UTF_8))) {
-				String ln;
-				while ((ln = reader.readLine()) != null) {
-					content.append(ln);
-				}
-			}
+		String cacheKey = responseCache.getCacheKey(request, requestCookieStore.getCookies());
+		HttpResponseCache.Entry cachedEntry = cacheKey != null ? responseCache.prepare(request, cacheKey) : null;
+		HttpClientContext httpContext = HttpClientContext.create();
+		httpContext.setCookieStore(requestCookieStore);
 
-			if (Document.class.isAssignableFrom(expectedResponseClass)) {
-				try {
-					return expectedResponseClass.cast(Jsoup.parse(content.toString(), ""));
-				} catch (Throwable t) {
-					throw new IOException(content.toString(), t);
-				}
-			} else if (/*jsonContentType || */JsonElement.class.isAssignableFrom(expectedResponseClass)) {
-				try {
-					return GSON.fromJson(content.toString(), expectedResponseClass);
-				} catch (JsonParseException e) {
-					throw new IOException(content.toString(), e);
-				}
-			} else if (String.class.isAssignableFrom(expectedResponseClass)) {
-				return expectedResponseClass.cast(content.toString());
-			}
+		long requestStartTime = System.nanoTime();
+		CloseableHttpResponse rawResponse;
+		try {
+			rawResponse = client.execute(request, httpContext);
+		} catch (IOException e) {
+			reportResponse(requestStartTime, null);
+			throw e;
+		}
+		reportResponse(requestStartTime, rawResponse);
 
-			throw new IllegalArgumentException("Excpected response class is invalid: "
-					+ expectedResponseClass);
+		try (CloseableHttpResponse response = rawResponse) {
+			return decodeResponse(response, httpContext, cacheKey, cachedEntry, getClassDecoder(expectedResponseClass));
 		}
 	}
 
@@ -546,6 +845,7 @@ public class BotContext {
 	 * String. Если тип не относится к этим видам, коллбек зафейлится с IllegalArgumentException.
 	 * Для коллбека написан декоратор, который позволит получать переданному
 	 * коллбеку при успехе не сырой ответ от HTTP клиента а объект в указанном виде.
+	 * GET-запросы проходят через {@link #responseCache}.
 	 *
 	 * <p>Эта функция должна вызываться только из основного потока.</p>
 	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
@@ -558,58 +858,137 @@ public class BotContext {
 	 */
 	public <T> Future<HttpResponse> executeRequestAsync(@NotNull HttpUriRequest request, Class<T> expectedResponseClass,
 										FutureCallback<T> responseCallback) {
-		requireValidContext();
+		return executeRequestAsync(request, RequestPriority.SESSION, expectedResponseClass, responseCallback);
+	}
+
+	/**
+	 * То же самое, что и {@link #executeRequestAsync(HttpUriRequest, Class, FutureCallback)},
+	 * но с указанным классом приоритета запроса (см. {@link #requestScheduler}).
+	 *
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @param <T> вид типа {@link Document}, {@link JsonElement}, String
+	 * @param request экземпляр настроенного запроса
+	 * @param priority класс приоритета запроса
+	 * @param expectedResponseClass класс, указывающий на вид типа.
+	 * @param responseCallback коллбек, который вызывается HTTP клиентом
+	 *                           после получения ответа или ошибки
+	 * @return Future для управления состоянием выполнения запроса
+	 */
+	public <T> Future<HttpResponse> executeRequestAsync(@NotNull HttpUriRequest request,
+														@NotNull RequestPriority priority,
+														Class<T> expectedResponseClass,
+														FutureCallback<T> responseCallback) {
+		requireMainThread();
+		return executeRequestAsync(request, null, priority, getClassDecoder(expectedResponseClass), responseCallback);
+	}
+
+	/**
+	 * Асинхронно выполняет указанный запрос и возвращает {@link Future} запроса.
+	 * В отличие от {@link #executeRequestAsync(HttpUriRequest, Class, FutureCallback)}, тело ответа
+	 * преобразуется указанным декодером, который читает тело прямо из потока ответа
+	 * и может не дочитывать его до конца. Если декодер выкинет IOException, коллбек зафейлится.
+	 * GET-запросы проходят через {@link #responseCache}.
+	 *
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @param <T> тип, который возвращает декодер
+	 * @param request экземпляр настроенного запроса
+	 * @param decoder декодер тела ответа. Вызывается в потоке HTTP клиента.
+	 * @param responseCallback коллбек, который вызывается HTTP клиентом
+	 *                           после получения ответа или ошибки
+	 * @return Future для управления состоянием выполнения запроса
+	 */
+	public <T> Future<HttpResponse> executeRequestAsync(@NotNull HttpUriRequest request,
+														@NotNull ResponseDecoder<T> decoder,
+														FutureCallback<T> responseCallback) {
 		requireMainThread();
+		return executeRequestAsync(request, null, decoder, responseCallback);
+	}
+
+	/**
+	 * Асинхронно выполняет указанный запрос с указанным хранилищем куки вместо общего
+	 * хранилища {@link #cookieStore}. Позволяет чат-подключениям разных профилей выполнять
+	 * запросы из своих циклов событий, не переключая профиль в общем хранилище.
+	 * GET-запросы проходят через {@link #responseCache}.
+	 *
+	 * <p>Эта функция должна вызываться только из потока цикла событий (см. {@link #getEventLoop(Object)}).</p>
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @param <T> тип, который возвращает декодер
+	 * @param request экземпляр настроенного запроса
+	 * @param requestCookieStore хранилище куки запроса, либо <code>null</code> для общего хранилища.
+	 *                           Общее хранилище можно использовать только из основного потока.
+	 * @param decoder декодер тела ответа. Вызывается в потоке HTTP клиента.
+	 * @param responseCallback коллбек, который вызывается HTTP клиентом
+	 *                           после получения ответа или ошибки
+	 * @return Future для управления состоянием выполнения запроса
+	 */
+	public <T> Future<HttpResponse> executeRequestAsync(@NotNull HttpUriRequest request,
+														@Nullable CookieStore requestCookieStore,
+														@NotNull ResponseDecoder<T> decoder,
+														FutureCallback<T> responseCallback) {
+		return executeRequestAsync(request, requestCookieStore, RequestPriority.SESSION, decoder, responseCallback);
+	}
+
+	/**
+	 * Асинхронно выполняет указанный запрос с указанным хранилищем куки и классом приоритета.
+	 * Запрос передается асинхронному клиенту через {@link #requestScheduler}, поэтому может
+	 * ждать в очереди, пока выполняются более важные запросы.
+	 * GET-запросы проходят через {@link #responseCache}.
+	 *
+	 * <p>Эта функция должна вызываться только из потока цикла событий (см. {@link #getEventLoop(Object)}).</p>
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @param <T> тип, который возвращает декодер
+	 * @param request экземпляр настроенного запроса
+	 * @param requestCookieStore хранилище куки запроса, либо <code>null</code> для общего хранилища.
+	 *                           Общее хранилище можно использовать только из основного потока.
+	 * @param priority класс приоритета запроса
+	 * @param decoder декодер тела ответа. Вызывается в потоке HTTP клиента.
+	 * @param responseCallback коллбек, который вызывается HTTP клиентом
+	 *                           после получения ответа или ошибки
+	 * @return Future для управления состоянием выполнения запроса
+	 */
+	public <T> Future<HttpResponse> executeRequestAsync(@NotNull HttpUriRequest request,
+														@Nullable CookieStore requestCookieStore,
+														@NotNull RequestPriority priority,
+														@NotNull ResponseDecoder<T> decoder,
+														FutureCallback<T> responseCallback) {
+		requireValidContext();
+		requireEventLoopThread();
+
+		HttpClientContext httpContext = HttpClientContext.create();
+		if (requestCookieStore != null) {
+			httpContext.setCookieStore(requestCookieStore);
+		} else {
+			requireMainThread();
+			requestCookieStore = cookieStore;
+		}
+
+		String cacheKey = responseCache.getCacheKey(request, requestCookieStore.getCookies());
+		HttpResponseCache.Entry cachedEntry = cacheKey != null ? responseCache.prepare(request, cacheKey) : null;
 
 		Exception callStackTrace = new Exception("Call stack trace");
+		// время начала запроса обновляется, когда планировщик передает запрос клиенту,
+		// чтобы ожидание в очереди не считалось задержкой сети
+		long[] requestStartTime = { System.nanoTime() };
 		// добавил декоратор, чтобы получать не "сырые" ответы в коллбеках
-		return asyncClient.execute(request, new FutureCallback<HttpResponse>() {
+		FutureCallback<HttpResponse> responseHandler = new FutureCallback<HttpResponse>() {
+			/**
+			 * Флаг, чтобы ошибки разбора ответа не считались ошибками подключения
+			 */
+			private boolean responseReported;
+
 			@Override
 			public void completed(HttpResponse result) {
-				// чтобы коллбек "фейлился" при статусе, отличном от 200 OK
-				StatusLine statusLine = result.getStatusLine();
-				if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
-					failed(new IOException("Invalid status: " + statusLine.getStatusCode() + " "
-							+ statusLine.getReasonPhrase()));
-					return;
-				}
-
-				/*Header contentTypeHeader = result.getEntity().getContentType();
-				String contentType = contentTypeHeader != null ? contentTypeHeader.getValue() : null;
-				boolean jsonContentType = StringUtils.containsIgnoreCase(contentType, "application/json");*/
-
-				StringBuilder content = new StringBuilder();
-				try (BufferedReader reader = new BufferedReader(new InputStreamReader(result.getEntity().getContent(),
-						Charsets.UTF_8))) {
-					String ln;
-					while ((ln = reader.readLine()) != null) {
-						content.append(ln);
-					}
-				} catch (IOException e) {
-					failed(e);
-					return;
-				}
+				responseReported = true;
+				reportResponse(requestStartTime[0], result);
 
+				// чтобы коллбек "фейлился" при статусе, отличном от 200 OK
 				T obj;
-				if (Document.class.isAssignableFrom(expectedResponseClass)) {
-					try {
-						obj = expectedResponseClass.cast(Jsoup.parse(content.toString(), ""));
-					} catch (Exception e) {
-						failed(new IOException(content.toString(), e));
-						return;
-					}
-				} else if (/*jsonContentType || */JsonElement.class.isAssignableFrom(expectedResponseClass)) {
-					try {
-						obj = GSON.fromJson(content.toString(), expectedResponseClass);
-					} catch (JsonParseException e) {
-						failed(new IOException(content.toString(), e));
-						return;
-					}
-				} else if (String.class.isAssignableFrom(expectedResponseClass)) {
-					obj = expectedResponseClass.cast(content.toString());
-				} else {
-					failed(new IllegalArgumentException("Expected response class is invalid: "
-							+ expectedResponseClass));
+				try {
+					obj = decodeResponse(result, httpContext, cacheKey, cachedEntry, decoder);
+				} catch (IOException | IllegalArgumentException e) {
+					failed(e);
 					return;
 				}
 
@@ -622,6 +1001,11 @@ public class BotContext {
 
 			@Override
 			public void failed(Exception ex) {
+				if (!responseReported) {
+					responseReported = true;
+					reportResponse(requestStartTime[0], null);
+				}
+
 				try {
 					callStackTrace.initCause(ex);
 					responseCallback.failed(callStackTrace);
@@ -638,6 +1022,64 @@ public class BotContext {
 					t.printStackTrace();
 				}
 			}
+		};
+
+		return requestScheduler.submit(priority, callback -> {
+			requestStartTime[0] = System.nanoTime();
+			return asyncClient.execute(request, httpContext, callback);
+		}, responseHandler);
+	}
+
+	/**
+	 * @return <code>true</code>, если блокирующие операции выполняются в отдельных потоках
+	 * (см. {@link #BLOCKING_OPERATIONS_PROPERTY}), а не в основном потоке
+	 */
+	public boolean isBlockingOperationsEnabled() {
+		return blockingOperationsExecutor != null;
+	}
+
+	/**
+	 * Выполняет операцию, которая использует блокирующие запросы
+	 * ({@link #executeRequest(HttpUriRequest, Class)}), например вход или проверку профиля.
+	 * Если включено свойство {@link #BLOCKING_OPERATIONS_PROPERTY}, то операция выполняется
+	 * в отдельном потоке со своим хранилищем куки, а коллбек вызывается в основном потоке через
+	 * {@link #invokeMainThreadCommand(Runnable)}. Так операции разных профилей выполняются
+	 * одновременно, а основной поток не ждет ответа сервера.
+	 * Иначе операция и коллбек выполняются сразу же в основном потоке с общим хранилищем куки.
+	 *
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * <p>Эта функция не должна вызываться до вызыова {@link #create()} и после вызова {@link #destroy()}.</p>
+	 * @param operation блокирующая операция
+	 * @param callback коллбек, который вызывается в основном потоке после выполнения операции или ошибки
+	 * @param <T> тип результата операции
+	 */
+	public <T> void executeBlockingOperation(@NotNull BlockingOperation<T> operation,
+											 @NotNull FutureCallback<T> callback) {
+		requireValidContext();
+		requireMainThread();
+
+		if (blockingOperationsExecutor == null) {
+			T result;
+			try {
+				result = operation.run();
+			} catch (IOException e) {
+				callback.failed(e);
+				return;
+			}
+			callback.completed(result);
+			return;
+		}
+
+		blockingOperationsExecutor.execute(() -> {
+			operationCookieStore.set(new BasicCookieStore());
+			try {
+				T result = operation.run();
+				invokeMainThreadCommand(() -> callback.completed(result));
+			} catch (Exception e) {
+				invokeMainThreadCommand(() -> callback.failed(e));
+			} finally {
+				operationCookieStore.remove();
+			}
 		});
 	}
 
@@ -658,7 +1100,7 @@ public class BotContext {
 			}
 		}
 
-		ChatSession chatSession = new ChatSession(this, fixedLink);
+		ChatSession chatSession = new ChatSession(this, fixedLink, getEventLoop(fixedLink));
 		chatSessions.add(chatSession);
 		return chatSession;
 	}
@@ -705,9 +1147,23 @@ public class BotContext {
 		}
 		chatSessions.clear();
 
+		for (EventLoop eventLoop : eventLoops) {
+			if (eventLoop != mainLoop) {
+				eventLoop.stop();
+			}
+		}
+
+		if (blockingOperationsExecutor != null) {
+			blockingOperationsExecutor.shutdownNow();
+			blockingOperationsExecutor = null;
+		}
+
 		if (connectionProblemsDetector != null) {
 			connectionProblemsDetector.destroy();
 			connectionProblemsDetector = null;
 		}
+
+		Log.info("HTTP traffic: %d KB received, %d KB after decompression",
+				trafficCounter.getTransferredBytes() / 1024, trafficCounter.getContentBytes() / 1024);
 	}
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import knoblul.eosvstubot.api.timer.TimerWheel;
+import knoblul.eosvstubot.utils.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Однопоточный цикл событий. Все, что привязано к циклу (чат-сессии и их подключения,
+ * таймеры колеса цикла), выполняется только в потоке цикла, поэтому не требует синхронизации.
+ * Другие потоки передают работу в цикл через {@link #execute(Runnable)}.
+ *
+ * <p>Основной цикл контекста работает в основном потоке и обновляется из
+ * {@link BotContext#update()}. Дополнительные циклы (см. {@link BotContext#EVENT_LOOPS_PROPERTY})
+ * работают в собственных потоках, запущенных через {@link #start()}.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 21:00
+ * @author Knoblul
+ */
+public class EventLoop {
+	/**
+	 * Время, на которое поток цикла засыпает, если для него нет работы.
+	 */
+	private static final long IDLE_PARK_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final String name;
+
+	/**
+	 * Поток цикла. Для основного цикла - основной поток.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Очередь из команд, которые должны исполнится в потоке цикла
+	 */
+	private final Queue<Runnable> commands = Queues.newConcurrentLinkedQueue();
+
+	private final TimerWheel timerWheel;
+
+	/**
+	 * Задачи, которые выполняются на каждом обновлении цикла.
+	 * Задача удаляется, когда возвращает <code>true</code>.
+	 */
+	private final List<BooleanSupplier> updateTasks = Lists.newArrayList();
+
+	private volatile boolean stopped;
+
+	/**
+	 * Создает цикл, привязанный к текущему потоку.
+	 * Такой цикл обновляется вызовами {@link #update()} из этого потока.
+	 */
+	EventLoop(@NotNull String name) {
+		this.name = name;
+		this.thread = Thread.currentThread();
+		this.timerWheel = new TimerWheel();
+	}
+
+	/**
+	 * Создает цикл с собственным потоком-демоном. Поток запускается через {@link #start()}.
+	 */
+	EventLoop(@NotNull String name, boolean daemon) {
+		this.name = name;
+		this.thread = new Thread(this::run, name);
+		this.thread.setDaemon(daemon);
+		this.timerWheel = new TimerWheel(thread, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	private void run() {
+		Log.info("Event loop %s started", name);
+		while (!stopped) {
+			update();
+			LockSupport.parkNanos(this, IDLE_PARK_TIME);
+		}
+		Log.info("Event loop %s stopped", name);
+	}
+
+	/**
+	 * Останавливает поток цикла. Неисполненные команды выбрасываются.
+	 */
+	void stop() {
+		stopped = true;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * @return <code>true</code>, если текущий поток - поток этого цикла
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Проверяет, что текущий поток - поток этого цикла
+	 */
+	public void requireEventLoop() {
+		if (!inEventLoop()) {
+			throw new IllegalStateException("This method must only be called from the " + name + " event loop");
+		}
+	}
+
+	/**
+	 * Отправляет команду на исполнение в поток цикла, если текущий
+	 * поток не поток цикла. Иначе исполняет команду немедленно.
+	 * @param command команда, которую нужно исполнить
+	 */
+	public void execute(@NotNull Runnable command) {
+		if (inEventLoop()) {
+			try {
+				command.run();
+			} catch (Throwable t) {
+				Log.warn(t, "Failed to execute command");
+			}
+		} else {
+			commands.add(command);
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Регистрирует задачу, которая будет выполняться на каждом обновлении цикла,
+	 * пока не вернет <code>true</code>. Можно вызывать из любого потока.
+	 * @param task задача
+	 */
+	public void addUpdateTask(@NotNull BooleanSupplier task) {
+		// всегда через очередь, так как задачу могут добавить во время обхода задач
+		commands.add(() -> updateTasks.add(task));
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Высушивает очередь из команд, затем выполняет их, выполняет
+	 * сработавшие таймеры и задачи обновления.
+	 * <p>Эта функция должна вызываться только из потока цикла.</p>
+	 */
+	void update() {
+		runCommands();
+		runUpdateTasks();
+	}
+
+	/**
+	 * Выполняет команды из очереди и сработавшие таймеры.
+	 */
+	void runCommands() {
+		requireEventLoop();
+
+		Runnable command;
+		while ((command = commands.poll()) != null) {
+			execute(command);
+		}
+
+		// выполняем сработавшие таймеры
+		timerWheel.advance();
+	}
+
+	/**
+	 * Выполняет задачи обновления, удаляет завершенные.
+	 */
+	void runUpdateTasks() {
+		requireEventLoop();
+		updateTasks.removeIf(task -> {
+			try {
+				return task.getAsBoolean();
+			} catch (Throwable t) {
+				Log.warn(t, "Failed to execute update task");
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Таймеры колеса регистрируются и срабатывают только в потоке цикла.
+	 * @return колесо таймеров цикла
+	 */
+	@NotNull
+	public TimerWheel getTimerWheel() {
+		return timerWheel;
+	}
+
+	@NotNull
+	public String getName() {
+		return name;
+	}
+
+	@NotNull
+	Thread getThread() {
+		return thread;
+	}
+}
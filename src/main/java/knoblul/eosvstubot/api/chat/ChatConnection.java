@@ -18,21 +18,25 @@ package knoblul.eosvstubot.api.chat;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import knoblul.eosvstubot.api.BotContext;
+import knoblul.eosvstubot.api.EventLoop;
 import knoblul.eosvstubot.api.chat.action.ChatAction;
+import knoblul.eosvstubot.api.chat.action.ChatAjaxResponse;
 import knoblul.eosvstubot.api.chat.action.ChatUserInformation;
+import knoblul.eosvstubot.api.network.RequestPriority;
 import knoblul.eosvstubot.api.profile.Profile;
+import knoblul.eosvstubot.api.profile.ProfileManager;
+import knoblul.eosvstubot.api.timer.TimerWheel;
 import knoblul.eosvstubot.utils.HttpCallbacks;
 import knoblul.eosvstubot.utils.Log;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jsoup.nodes.Document;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
@@ -40,6 +44,12 @@ import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Чат-подключение профиля. Вся логика подключения (запросы, таймеры, переподключения)
+ * выполняется в цикле событий чат-сессии (см. {@link ChatSession#getEventLoop()}),
+ * кроме входа профиля на сайт, который выполняется в основном потоке.
+ * Запросы подключения отправляются со своим хранилищем куки профиля, а не через
+ * общее хранилище контекста.
+ *
  * <br><br>Module: eos-vstu-bot
  * <br>Created: 24.04.2020 18:13
  * @author Knoblul
@@ -51,6 +61,33 @@ public class ChatConnection {
 	 */
 	private static final int CONNECTION_RESET_TIME = 15000;
 
+	/**
+	 * Потолок периода пингов в тишине. Меньше {@link #CONNECTION_RESET_TIME} в несколько раз,
+	 * чтобы один потерянный пинг не приводил к сбросу подключения, и меньше времени,
+	 * через которое сервер считает пользователя вышедшим из чата.
+	 */
+	private static final long MAXIMUM_PING_PERIOD = CONNECTION_RESET_TIME / 3;
+
+	/**
+	 * Во сколько раз увеличивается период пингов после каждого пустого ответа.
+	 */
+	private static final double PING_PERIOD_BACKOFF = 1.5;
+
+	/**
+	 * Сколько сообщений подключение может отправить в чат подряд.
+	 */
+	private static final int MESSAGE_BURST = 3;
+
+	/**
+	 * За сколько миллисекунд восстанавливается возможность отправить еще одно сообщение.
+	 */
+	private static final long MESSAGE_REFILL_PERIOD = 2000;
+
+	/**
+	 * Максимальное количество попыток отправить одно сообщение.
+	 */
+	private static final int MESSAGE_MAXIMUM_ATTEMPTS = 3;
+
 	/**
 	 * Чат-сессия, к которой принадлежит данное чат-подключение.
 	 */
@@ -61,7 +98,22 @@ public class ChatConnection {
 	 */
 	private final Profile profile;
 
-	private ChatConnectionConfiguration configuration;
+	/**
+	 * Цикл событий чат-сессии, в котором работает это подключение.
+	 */
+	private final EventLoop eventLoop;
+
+	/**
+	 * Хранилище куки с сессией профиля, с которым отправляются запросы этого подключения
+	 * (см. {@link knoblul.eosvstubot.api.profile.ProfileManager#createCookieStore(Profile)}).
+	 */
+	private volatile CookieStore cookieStore;
+
+	/**
+	 * Текущая конфигурация чата. При подключении может быть взята из
+	 * кеша чат-сессии (см. {@link ChatSession#getCachedConfiguration(Profile)}).
+	 */
+	private volatile ChatConnectionConfiguration configuration;
 
 	/**
 	 * Этот флаг принимает значение <code>true</code> тогда,
@@ -90,11 +142,51 @@ public class ChatConnection {
 	/**
 	 * Последнее время принятия ответа на ping-запрос к ajax-скрипту.
 	 */
-	private long lastPongTime;
+	private volatile long lastPongTime;
+
+	/**
+	 * Текущий период пингов. Равен периоду из конфигурации чата, пока в чате
+	 * приходят сообщения, и постепенно увеличивается в тишине (см. {@link #onPingCompleted(boolean)}).
+	 */
+	private long pingPeriod;
+
+	/**
+	 * Фаза пингов: доля периода пингов, на которую пинги этого подключения сдвинуты
+	 * относительно пингов других подключений сессии. Назначается чат-сессией.
+	 */
+	private double pingPhase;
+
+	/**
+	 * Таймер следующего ping-запроса.
+	 */
+	private TimerWheel.Timeout pingTimeout;
+
+	/**
+	 * Таймер проверки сброса подключения (см. {@link #CONNECTION_RESET_TIME}).
+	 */
+	private TimerWheel.Timeout resetTimeout;
 
 	private String chatLastTime = "";
 	private String chatLastRow = "0";
 
+	/**
+	 * Очередь исходящих сообщений. Сообщения отправляются в цикле событий
+	 * чат-сессии с ограничением частоты и только тогда, когда нет ожидающего ответа пинга.
+	 */
+	private final ChatMessageQueue messageQueue = new ChatMessageQueue(MESSAGE_BURST, MESSAGE_REFILL_PERIOD,
+			MESSAGE_MAXIMUM_ATTEMPTS, System.currentTimeMillis());
+
+	/**
+	 * Таймер отправки следующего сообщения из {@link #messageQueue}.
+	 */
+	private TimerWheel.Timeout messageTimeout;
+
+	/**
+	 * <code>true</code>, пока ping-запрос ждет ответа. Пинги важнее сообщений,
+	 * поэтому в это время сообщения не отправляются.
+	 */
+	private boolean pingInFlight;
+
 	/**
 	 * Хранит результаты выполнения асинхронных http-запросов
 	 */
@@ -103,8 +195,9 @@ public class ChatConnection {
 	ChatConnection(ChatSession chatSession, Profile profile) {
 		this.chatSession = chatSession;
 		this.profile = profile;
+		this.eventLoop = chatSession.getEventLoop();
 		this.configuration = new ChatConnectionConfiguration();
-		connect();
+		eventLoop.execute(this::connect);
 	}
 
 	public ChatConnectionConfiguration getConfiguration() {
@@ -120,7 +213,7 @@ public class ChatConnection {
 			Log.error("%s connection failed: %s. Reconnecting... (attempt %d/%d)",
 					profile, t.getCause() != null ? t.getCause().toString() : t.toString(),
 					reconnectAttempts.get()+1, chatSession.getMaximumReconnectAttempts());
-			chatSession.getContext().invokeMainThreadCommand(this::reconnect);
+			eventLoop.execute(this::reconnect);
 			return;
 		}
 
@@ -132,34 +225,33 @@ public class ChatConnection {
 	/**
 	 * Обрабатывает ответ от ajax-скрипта чата, независимо от того
 	 * какой запрос на скрипт был отправлен.
-	 * @param json ответ от скрипта в виде json-документа
+	 * @param response ответ от скрипта, разобранный {@link ChatAjaxResponse#decode(Reader)}
 	 * @return <code>true</code> если не произошло никаких
 	 * ошибок при обработке запроса
 	 */
-	private boolean processAjaxResponse(JsonElement json) {
+	private boolean processAjaxResponse(ChatAjaxResponse response) {
 		lastPongTime = System.currentTimeMillis();
 
-		if (json == null || !json.isJsonObject()) {
+		if (response == null) {
 			onErrorCaused(new IOException("Wrong response"));
 			return false;
 		}
 
-		JsonObject jsonObject = json.getAsJsonObject();
-		if (jsonObject.has("error")) {
-			onErrorCaused(new IOException("Response error: (" + jsonObject.get("errorcode").getAsString() + ") "
-					+ jsonObject.get("error").getAsString()));
+		if (response.getError() != null) {
+			onErrorCaused(new IOException("Response error: (" + response.getErrorCode() + ") "
+					+ response.getError()));
 			return false;
 		}
 
 		// два не совсем понятных мне значения, которые нужно отправлять
 		// в запросе после получения от сервера ответа на init или update
-		chatLastTime = jsonObject.has("lasttime") ? jsonObject.get("lasttime").getAsString() : "";
-		chatLastRow = jsonObject.has("lastrow") ? jsonObject.get("lastrow").getAsString() : "0";
+		chatLastTime = response.getLastTime();
+		chatLastRow = response.getLastRow();
 
-		// если ответ содержит users или msgs, то парсим их
-		// и отправляем на листенеры в виде ChatAction
-		if (jsonObject.has("users") || jsonObject.has("msgs")) {
-			ChatAction action = new ChatAction(jsonObject);
+		// если ответ содержит users или msgs, то он уже разобран
+		// в ChatAction, отправляем его на листенеры
+		ChatAction action = response.getAction();
+		if (action != null) {
 
 			// "помечаем" наших ботов
 			if (action.getUsers() != null) {
@@ -182,67 +274,143 @@ public class ChatConnection {
 	 */
 	private void completeConnection() {
 		configurationCompleted = true;
+		eventLoop.execute(this::startTimers);
 		chatSession.onConnectionCompleted(this);
 		Log.info("%s connected to chat '%s'", profile, configuration.getTitle());
 		reconnectAttempts.set(0);
 	}
 
 	/**
-	 * Обрабатывает ответ от сервера на запрос о подключении к чату.
-	 * Парсит ответ, и отправляет еще один запрос, но уже на ajax-скрипт чата,
-	 * в параметрах этого запроса передается action=init.
-	 * При положительном овтете от сервера вызывается метод {@link #completeConnection()}
-	 * @param page html-страница с ответом, содержащая критические данные о
+	 * Декодер ответа от сервера на запрос о подключении к чату.
+	 * Парсит конфигурацию прямо из потока ответа.
+	 * @param page поток html-страницы с ответом, содержащей критические данные о
 	 *             конфигурации чата.
 	 */
-	private void doConfiguration(Document page) {
+	private ChatConnectionConfiguration parseConfiguration(Reader page) throws IOException {
+		ChatConnectionConfiguration parsedConfiguration = new ChatConnectionConfiguration();
 		try {
 			// парсим конфигурацию из ответа на запрос к index.php чата
-			configuration.parse(page, chatSession.getChatIndexLink());
+			parsedConfiguration.parse(page, chatSession.getChatIndexLink());
 		} catch (IOException e) {
-			onErrorCaused(new IOException("Failed to configure chat connection", e));
+			throw new IOException("Failed to configure chat connection", e);
+		}
+		return parsedConfiguration;
+	}
+
+	/**
+	 * Обрабатывает конфигурацию, полученную в ответ на запрос о подключении к чату,
+	 * и отправляет еще один запрос, но уже на ajax-скрипт чата (см. {@link #initialize(boolean)}).
+	 * @param parsedConfiguration конфигурация чата
+	 */
+	private void doConfiguration(ChatConnectionConfiguration parsedConfiguration) {
+		configuration = parsedConfiguration;
+		eventLoop.execute(() -> initialize(false));
+	}
+
+	/**
+	 * Отправляет пост-запрос на ajax-скрипт чата с параметром action=init.
+	 * При положительном овтете от сервера вызывается метод {@link #completeConnection()}
+	 * @param cachedConfiguration <code>true</code>, если конфигурация взята из кеша чат-сессии.
+	 *                            Если сервер отклонит такую конфигурацию, то она удаляется из кеша,
+	 *                            и выполняется полное подключение через index.php чата.
+	 */
+	private void initialize(boolean cachedConfiguration) {
+		if (invalid) {
 			return;
 		}
 
-		// отправляем пост-запрос на ajax-скрипт чата с параметром action=init
 		BotContext context = chatSession.getContext();
-		context.invokeMainThreadCommand(() -> {
-			Map<String, String> params = Maps.newHashMap();
-			params.put("action", "init");
-			params.put("chat_init", "1");
-			params.put("chat_sid", configuration.getSessionId());
-			params.put("theme", configuration.getTheme());
-			HttpUriRequest request = context.buildPostRequest(configuration.getChatModuleLink(), params);
-			// выбираем нужный профиль перед отпракой запроса
-			context.getProfileManager().selectProfile(profile);
-			requestFutures.add(context.executeRequestAsync(request, JsonElement.class, HttpCallbacks.onEither(json -> {
-				if (processAjaxResponse(json)) {
-					completeConnection();
+		ChatConnectionConfiguration initConfiguration = configuration;
+		Map<String, String> params = Maps.newHashMap();
+		params.put("action", "init");
+		params.put("chat_init", "1");
+		params.put("chat_sid", initConfiguration.getSessionId());
+		params.put("theme", initConfiguration.getTheme());
+		HttpUriRequest request = context.buildPostRequest(initConfiguration.getChatModuleLink(), params);
+		requestFutures.add(context.executeRequestAsync(request, cookieStore, RequestPriority.SESSION,
+				ChatAjaxResponse::decode, HttpCallbacks.onEither(response -> {
+			if (cachedConfiguration && (response == null || response.getError() != null)) {
+				onCachedConfigurationRejected(initConfiguration);
+				return;
+			}
+
+			if (processAjaxResponse(response)) {
+				if (!cachedConfiguration) {
+					eventLoop.execute(() -> chatSession.cacheConfiguration(profile, initConfiguration));
 				}
-			}, this::onErrorCaused)));
+				completeConnection();
+			}
+		}, e -> {
+			if (cachedConfiguration && !(e instanceof CancellationException)) {
+				onCachedConfigurationRejected(initConfiguration);
+			} else {
+				onErrorCaused(e);
+			}
+		})));
+	}
+
+	/**
+	 * Вызывается, если запрос action=init с конфигурацией из кеша не удался
+	 * (например, сервер уже не принимает sesskey или sid).
+	 * Удаляет конфигурацию из кеша и выполняет полное подключение.
+	 */
+	private void onCachedConfigurationRejected(ChatConnectionConfiguration rejectedConfiguration) {
+		eventLoop.execute(() -> {
+			chatSession.invalidateCachedConfiguration(profile, rejectedConfiguration);
+			if (!invalid && !configurationCompleted) {
+				Log.info("%s cached configuration of chat '%s' rejected, reconnecting...", profile,
+						rejectedConfiguration.getTitle());
+				connect();
+			}
 		});
 	}
 
 	/**
-	 * Начинает процесс подключения к чату, отправляя запрос на index.php чата.
-	 * Ответ от сервера обрабатывается в {@link #doConfiguration(Document)}
+	 * Начинает процесс подключения к чату. Если чат-сессия хранит конфигурацию, полученную
+	 * в текущей сессии профиля, то сразу же выполняется {@link #initialize(boolean)}.
+	 * Иначе отправляется запрос на index.php чата, ответ на который
+	 * обрабатывается в {@link #doConfiguration(ChatConnectionConfiguration)}
 	 */
 	private void connect() {
 		BotContext context = chatSession.getContext();
 
-		// отправляем асинхронный запрос на главную страницу чата
-		// чтобы получить настройки и ключевые данные для "входа"
+		ChatConnectionConfiguration cachedConfiguration = chatSession.getCachedConfiguration(profile);
+		if (cachedConfiguration != null) {
+			configuration = cachedConfiguration;
+			cookieStore = context.getProfileManager().createCookieStore(profile);
+			initialize(true);
+			return;
+		}
 
-		HttpUriRequest request = context.buildGetRequest(chatSession.getChatIndexLink(), null);
+		// вход выполняется блокирующей операцией контекста, которая запускается из основного потока
+		context.invokeMainThreadCommand(() -> {
+			if (invalid) {
+				return;
+			}
 
-		// логинем + выбираем нужный профиль перед отпракой запроса на вход
-		try {
-			context.getProfileManager().loginProfile(profile);
-			requestFutures.add(context.executeRequestAsync(request, Document.class,
-					HttpCallbacks.onEither(this::doConfiguration, this::onErrorCaused)));
-		} catch (IOException e) {
-			onErrorCaused(new IOException("Failed to login", e));
+			ProfileManager profileManager = context.getProfileManager();
+			profileManager.loginProfileAsync(profile, HttpCallbacks.onEither(p -> {
+				CookieStore profileCookieStore = profileManager.createCookieStore(profile);
+				eventLoop.execute(() -> requestConfiguration(profileCookieStore));
+			}, e -> onErrorCaused(new IOException("Failed to login", e))));
+		});
+	}
+
+	/**
+	 * Отправляет асинхронный запрос на главную страницу чата,
+	 * чтобы получить настройки и ключевые данные для "входа".
+	 * @param profileCookieStore хранилище куки с новой сессией профиля
+	 */
+	private void requestConfiguration(CookieStore profileCookieStore) {
+		if (invalid) {
+			return;
 		}
+
+		BotContext context = chatSession.getContext();
+		cookieStore = profileCookieStore;
+		HttpUriRequest request = context.buildGetRequest(chatSession.getChatIndexLink(), null);
+		requestFutures.add(context.executeRequestAsync(request, cookieStore, RequestPriority.SESSION, this::parseConfiguration,
+				HttpCallbacks.onEither(this::doConfiguration, this::onErrorCaused)));
 	}
 
 	/**
@@ -250,7 +418,9 @@ public class ChatConnection {
 	 * пытается переподключится к чату.
 	 */
 	private void reconnect() {
+		cancelTimers();
 		cancelHttpRequests();
+		pingInFlight = false;
 		configurationCompleted = false;
 		reconnectAttempts.getAndIncrement();
 		connect();
@@ -258,13 +428,16 @@ public class ChatConnection {
 
 	/**
 	 * Метод для отправки асинхронного пинг-запроса на ajax-скрипт чата.
-	 * Ответ от сервера обрабатывается в {@link #processAjaxResponse(JsonElement)}
+	 * Ответ от сервера обрабатывается в {@link #processAjaxResponse(ChatAjaxResponse)}
 	 */
 	private void ping() {
 		lastPingTime = System.currentTimeMillis();
 
 		BotContext context = chatSession.getContext();
 
+		// удаляем завершеные запросы
+		requestFutures.removeIf(Future::isDone);
+
 		// отправляем асинхронный запрос на ajax-скрипт чата
 		Map<String, String> params = Maps.newHashMap();
 		params.put("action", "update");
@@ -273,20 +446,169 @@ public class ChatConnection {
 		params.put("chat_sid", configuration.getSessionId());
 		params.put("theme", configuration.getTheme());
 		HttpUriRequest request = context.buildPostRequest(configuration.getChatModuleLink(), params);
+		pingInFlight = true;
+		requestFutures.add(context.executeRequestAsync(request, cookieStore, RequestPriority.PING,
+				ChatAjaxResponse::decode, HttpCallbacks.onEither(response -> {
+					boolean activity = response != null && response.getAction() != null
+							&& !response.getAction().getNewMessages().isEmpty();
+					eventLoop.execute(() -> onPingCompleted(activity));
+					processAjaxResponse(response);
+				}, e -> {
+					eventLoop.execute(() -> onPingCompleted(false));
+					onErrorCaused(e);
+				})));
+	}
+
+	/**
+	 * Вызывается в цикле событий чат-сессии после ответа на ping-запрос.
+	 * Подстраивает период пингов под активность в чате и продолжает
+	 * отправку сообщений, которые ждали ответа.
+	 * @param activity <code>true</code>, если в ответе были новые сообщения
+	 */
+	private void onPingCompleted(boolean activity) {
+		pingInFlight = false;
+		if (activity) {
+			onChatActivity();
+		} else {
+			// в тишине постепенно пингуем реже, но не реже потолка
+			long ceiling = Math.max(configuration.getPingPeriod(), MAXIMUM_PING_PERIOD);
+			pingPeriod = Math.min(ceiling, (long) (pingPeriod * PING_PERIOD_BACKOFF));
+		}
+		scheduleMessageSending();
+	}
 
-		// выбираем нужный профиль перед отпракой запроса
-		context.getProfileManager().selectProfile(profile);
-		requestFutures.add(context.executeRequestAsync(request, JsonElement.class,
-				HttpCallbacks.onEither(this::processAjaxResponse, this::onErrorCaused)));
+	/**
+	 * Возвращает период пингов к периоду из конфигурации чата. Если следующий пинг
+	 * запланирован позже, то он переносится.
+	 */
+	private void onChatActivity() {
+		long basePeriod = configuration.getPingPeriod();
+		if (pingPeriod <= basePeriod) {
+			return;
+		}
+
+		pingPeriod = basePeriod;
+		if (pingTimeout != null && !invalid && configurationCompleted) {
+			pingTimeout.cancel();
+			pingTimeout = eventLoop.getTimerWheel().scheduleAt(alignPingTime(lastPingTime + pingPeriod),
+					this::onPingTime);
+		}
 	}
 
 	/**
-	 * Обновляет логику чат-подключения.
-	 * После успешной конфигурации отправляет пинг-запрос на
-	 * ajax-скрипт чата, чтобы получить обновления от сервера.
-	 * Если ответ не был получен более чем {@link #CONNECTION_RESET_TIME},
-	 * то пытается переподключится к чату.
-	 * @return <code>true</code>, если произошло необратимое исключение
+	 * Назначает подключению фазу пингов. Если следующий пинг уже запланирован,
+	 * то он переносится в соответствии с новой фазой.
+	 * <p>Эта функция должна вызываться только из цикла событий чат-сессии.</p>
+	 * @param phase доля периода пингов, от 0 включительно до 1
+	 */
+	void setPingPhase(double phase) {
+		eventLoop.requireEventLoop();
+		if (phase == pingPhase) {
+			return;
+		}
+
+		pingPhase = phase;
+		if (pingTimeout != null && !invalid && configurationCompleted) {
+			pingTimeout.cancel();
+			pingTimeout = eventLoop.getTimerWheel().scheduleAt(alignPingTime(lastPingTime + pingPeriod),
+					this::onPingTime);
+		}
+	}
+
+	/**
+	 * Выравнивает время пинга по фазе подключения: сдвигает его не больше чем на половину
+	 * периода к ближайшему времени вида <code>epoch + (k + pingPhase) * pingPeriod</code>.
+	 * Так пинги подключений с одинаковым периодом равномерно распределяются по периоду,
+	 * а средняя частота пингов не меняется.
+	 * @param time желаемое время пинга
+	 * @return выровненное время пинга
+	 */
+	private long alignPingTime(long time) {
+		long period = pingPeriod;
+		if (period <= 0) {
+			return time;
+		}
+
+		long phaseTime = chatSession.getPingPhaseEpoch() + (long) (pingPhase * period);
+		return phaseTime + Math.round((double) (time - phaseTime) / period) * period;
+	}
+
+	/**
+	 * Регистрирует таймеры пинга и сброса подключения.
+	 * Вызывается в цикле событий чат-сессии после успешной конфигурации.
+	 */
+	private void startTimers() {
+		cancelTimers();
+		if (invalid || !configurationCompleted) {
+			return;
+		}
+
+		TimerWheel timerWheel = eventLoop.getTimerWheel();
+		pingPeriod = configuration.getPingPeriod();
+		pingTimeout = timerWheel.scheduleAt(alignPingTime(lastPingTime + pingPeriod), this::onPingTime);
+		resetTimeout = timerWheel.scheduleAt(lastPongTime + CONNECTION_RESET_TIME, this::onResetTime);
+		scheduleMessageSending();
+	}
+
+	private void cancelTimers() {
+		if (pingTimeout != null) {
+			pingTimeout.cancel();
+			pingTimeout = null;
+		}
+
+		if (resetTimeout != null) {
+			resetTimeout.cancel();
+			resetTimeout = null;
+		}
+
+		if (messageTimeout != null) {
+			messageTimeout.cancel();
+			messageTimeout = null;
+		}
+	}
+
+	/**
+	 * Срабатывает каждые {@link #pingPeriod} миллисекунд
+	 * и пингует ajax-скрипт чата, чтобы получить обновления от сервера.
+	 */
+	private void onPingTime() {
+		if (invalid || !configurationCompleted) {
+			return;
+		}
+
+		ping();
+		pingTimeout = eventLoop.getTimerWheel().scheduleAt(alignPingTime(lastPingTime + pingPeriod),
+				this::onPingTime);
+	}
+
+	/**
+	 * Срабатывает через {@link #CONNECTION_RESET_TIME} после последнего известного ответа.
+	 * Если за это время ответ так и не был получен, то пытается переподключится к чату.
+	 * Иначе таймер перерегистрируется от времени последнего ответа - так таймер не нужно
+	 * перерегистрировать на каждый ответ от сервера.
+	 */
+	private void onResetTime() {
+		if (invalid || !configurationCompleted) {
+			return;
+		}
+
+		long pongTime = lastPongTime;
+		if (System.currentTimeMillis() - pongTime > CONNECTION_RESET_TIME) {
+			Log.error("%s connection reset. Reconnecting... (attempt %d/%d)", profile,
+					reconnectAttempts.get()+1, chatSession.getMaximumReconnectAttempts());
+			reconnect();
+			return;
+		}
+
+		resetTimeout = eventLoop.getTimerWheel().scheduleAt(pongTime + CONNECTION_RESET_TIME + 1,
+				this::onResetTime);
+	}
+
+	/**
+	 * Обновляет логику чат-подключения. Пинги и сброс подключения
+	 * обрабатываются таймерами (см. {@link #startTimers()}), поэтому здесь
+	 * только проверяется действительность подключения.
+	 * @return <code>false</code>, если произошло необратимое исключение
 	 * или это чат-подключение следует удалить.
 	 */
 	boolean update() {
@@ -294,78 +616,162 @@ public class ChatConnection {
 			destroy();
 			return false;
 		}
+		return true;
+	}
 
-		// если конфигурация прошла успешно, то пингуем скрипт
-		// каждые N миллисекунд (указано в конфигурации чата)
-		if (configurationCompleted) {
-			if (System.currentTimeMillis() - lastPongTime > CONNECTION_RESET_TIME) {
-				Log.error("%s connection reset. Reconnecting... (attempt %d/%d)", profile,
-						reconnectAttempts.get()+1, chatSession.getMaximumReconnectAttempts());
-				reconnect();
-				return true;
-			}
+	/**
+	 * Регистрирует таймер отправки следующего сообщения из очереди,
+	 * если подключение настроено, в очереди есть сообщения, и таймер еще не зарегистрирован.
+	 */
+	private void scheduleMessageSending() {
+		if (messageTimeout != null || invalid || !configurationCompleted) {
+			return;
+		}
 
-			long time = System.currentTimeMillis();
-			if (time > lastPingTime + configuration.getPingPeriod()) {
-				ping();
-			}
+		long delay = messageQueue.getSendDelay(System.currentTimeMillis());
+		if (delay >= 0) {
+			messageTimeout = eventLoop.getTimerWheel().schedule(delay, this::onMessageTime);
+		}
+	}
+
+	/**
+	 * Отправляет следующее сообщение из очереди, если лимит отправки позволяет
+	 * и ping-запрос не ждет ответа.
+	 */
+	private void onMessageTime() {
+		messageTimeout = null;
+		if (invalid || !configurationCompleted || pingInFlight) {
+			// после ответа на пинг отправка продолжится в onPingCompleted
+			return;
 		}
 
+		ChatMessageQueue.OutboundMessage message = messageQueue.poll(System.currentTimeMillis());
+		if (message != null) {
+			postMessage(message);
+		}
+		scheduleMessageSending();
+	}
+
+	/**
+	 * Отправляет асинхронный запрос с сообщением на ajax-скрипт чата.
+	 */
+	private void postMessage(ChatMessageQueue.OutboundMessage message) {
+		BotContext context = chatSession.getContext();
+
 		// удаляем завершеные запросы
 		requestFutures.removeIf(Future::isDone);
-		return true;
+
+		Map<String, String> params = Maps.newHashMap();
+		params.put("action", "chat");
+		params.put("chat_message", message.getText());
+		params.put("chat_sid", configuration.getSessionId());
+		params.put("theme", configuration.getTheme());
+		HttpUriRequest request = context.buildPostRequest(configuration.getChatModuleLink(), params);
+		requestFutures.add(context.executeRequestAsync(request, cookieStore, RequestPriority.CHAT_SEND,
+				BotContext.getClassDecoder(String.class),
+				HttpCallbacks.onEither(response -> eventLoop.execute(() -> onMessageResponse(message, response)),
+						e -> eventLoop.execute(() -> onMessageFailed(message, e)))));
+	}
+
+	private void onMessageResponse(ChatMessageQueue.OutboundMessage message, String response) {
+		if (response.equalsIgnoreCase("true")) {
+			messageQueue.delivered(message, System.currentTimeMillis());
+			Log.info("%s sended message '%s' to chat", profile, message.getText());
+			return;
+		}
+
+		if (invalid) {
+			// подключение удалено, очередь уже очищена
+			messageQueue.abandon(message);
+			Log.warn("Chat message not sended: %s", response);
+			return;
+		}
+
+		if (messageQueue.failed(message)) {
+			Log.warn("Chat message not sended: %s. Retrying... (attempt %d/%d)", response,
+					message.getAttempts() + 1, MESSAGE_MAXIMUM_ATTEMPTS);
+			scheduleMessageSending();
+		} else {
+			Log.warn("Chat message not sended: %s", response);
+		}
 	}
 
-	private void processSendMessageResponse(@NotNull String string) {
-		if (!string.equalsIgnoreCase("true")) {
-			Log.warn("Chat message not sended: %s", string);
+	private void onMessageFailed(ChatMessageQueue.OutboundMessage message, Exception error) {
+		if (invalid) {
+			// запрос отменен или завершился после удаления подключения, очередь уже очищена
+			messageQueue.abandon(message);
+			return;
+		}
+
+		if (error instanceof CancellationException) {
+			// запрос отменен переподключением - сообщение отправится после настройки подключения
+			messageQueue.requeue(message);
+			return;
+		}
+
+		if (messageQueue.failed(message)) {
+			scheduleMessageSending();
+		} else {
+			onErrorCaused(error);
 		}
 	}
 
 	/**
-	 * Отправляет сообщение в чат от данного подключения
+	 * Ставит сообщение в очередь исходящих сообщений данного подключения.
+	 * Сообщения отправляются с ограничением частоты, одинаковые ожидающие
+	 * сообщения не дублируются, а неотправленные сообщения отправляются повторно.
 	 * @param message сообщение
+	 * @return исходящее сообщение, по которому можно следить за его доставкой, либо
+	 * <code>null</code>, если сообщение не будет отправлено
 	 */
-	public void sendMessage(@Nullable String message) {
+	@Nullable
+	public ChatMessageQueue.OutboundMessage sendMessage(@Nullable String message) {
 		if (Strings.isNullOrEmpty(message)) {
-			return;
+			return null;
 		}
 
 		if (invalid || !configurationCompleted) {
 			Log.warn("Could not send chat message as %s, because connection is not configured yet",
 					profile.getUsername());
-			return;
+			return null;
 		}
 
-		Log.info("%s sended message '%s' to chat", profile, message);
-
 		// пропускаем отправку сообщения если чат-сессия
 		// запрещает отправлять сообщения в чат,
 		if (chatSession.isMessageSendingDisabled()) {
-			return;
+			Log.info("%s sended message '%s' to chat", profile, message);
+			return null;
 		}
 
-		BotContext context = chatSession.getContext();
-		context.invokeMainThreadCommand(() -> {
-			// отправляем асинхронный запрос на ajax-скрипт чата
-			Map<String, String> params = Maps.newHashMap();
-			params.put("action", "chat");
-			params.put("chat_message", message);
-			params.put("chat_sid", configuration.getSessionId());
-			params.put("theme", configuration.getTheme());
-			HttpUriRequest request = context.buildPostRequest(configuration.getChatModuleLink(), params);
-
-			// выбираем нужный профиль перед отпракой запроса
-			context.getProfileManager().selectProfile(profile);
-			requestFutures.add(context.executeRequestAsync(request, String.class,
-					HttpCallbacks.onEither(this::processSendMessageResponse, this::onErrorCaused)));
+		ChatMessageQueue.OutboundMessage outboundMessage =
+				new ChatMessageQueue.OutboundMessage(message, System.currentTimeMillis());
+		eventLoop.execute(() -> {
+			if (invalid) {
+				messageQueue.clear();
+				return;
+			}
 
-			Log.info("%s sended message '%s' to chat", profile, message);
+			if (messageQueue.offer(outboundMessage)) {
+				// после своего сообщения ждем ответов, поэтому пингуем чаще
+				onChatActivity();
+				scheduleMessageSending();
+			} else {
+				Log.info("%s skipped duplicate message '%s'", profile, message);
+			}
 		});
+		return outboundMessage;
+	}
+
+	/**
+	 * @return очередь исходящих сообщений данного подключения (для метрик)
+	 */
+	@NotNull
+	public ChatMessageQueue getMessageQueue() {
+		return messageQueue;
 	}
 
 	private void cancelHttpRequests() {
-		chatSession.getContext().invokeMainThreadCommand(() -> {
+		eventLoop.execute(() -> {
 			for (Future<HttpResponse> future: requestFutures) {
 				if (!future.isDone() && !future.isCancelled()) {
 					future.cancel(true);
@@ -387,6 +793,11 @@ public class ChatConnection {
 		// отмечаем подключение недействительным и ненастроенным
 		invalid = true;
 		configurationCompleted = false;
+		// таймеры и очередь сообщений используются в цикле событий чат-сессии
+		eventLoop.execute(() -> {
+			cancelTimers();
+			messageQueue.clear();
+		});
 		// отменяем все отправленные и ожидающие http-запросы
 		cancelHttpRequests();
 	}
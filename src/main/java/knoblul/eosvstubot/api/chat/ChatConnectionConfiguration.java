@@ -16,12 +16,15 @@
 package knoblul.eosvstubot.api.chat;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import knoblul.eosvstubot.api.BotContext;
 import org.apache.commons.text.StringEscapeUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URL;
 import java.util.regex.Matcher;
@@ -41,6 +44,21 @@ public class ChatConnectionConfiguration {
 	private static final Pattern chatModuleSettingsPattern = Pattern.compile("(?s)M\\.mod_chat_ajax\\.init\\(Y,(.+?)\\);");
 	private static final Pattern apiConfigPattern = Pattern.compile("(?s)M.cfg\\s*=\\s*(.+?);");
 
+	/**
+	 * Маркер, после которого на странице чата идет json настроек чат-модуля.
+	 */
+	private static final String CHAT_MODULE_SETTINGS_MARKER = "M.mod_chat_ajax.init(Y,";
+
+	/**
+	 * Маркер, после которого на странице чата идет присваивание json настроек moodle api.
+	 */
+	private static final String API_CONFIG_MARKER = "M.cfg";
+
+	/**
+	 * Размер порции символов, которыми читается страница чата.
+	 */
+	private static final int READ_CHUNK_SIZE = 8192;
+
 	/**
 	 * Ссылка на ajax-модуль чата, к которой далее обращаться
 	 */
@@ -59,6 +77,48 @@ public class ChatConnectionConfiguration {
 
 	}
 
+	/**
+	 * Парсит конфигурацию из страницы чата. Страница читается порциями, в которых
+	 * ищутся маркеры {@link #CHAT_MODULE_SETTINGS_MARKER} и {@link #API_CONFIG_MARKER}.
+	 * Как только оба json-фрагмента после маркеров найдены, чтение страницы прекращается,
+	 * и разбираются только эти фрагменты. Если фрагменты не нашлись или не разобрались,
+	 * то страница разбирается целиком через Jsoup (см. {@link #parse(Document, String)}).
+	 * @param chatPage поток страницы index.php чата
+	 * @param chatPageLink ссылка на страницу чата
+	 * @throws IOException если конфигурацию не удалось получить
+	 */
+	void parse(@NotNull Reader chatPage, @NotNull String chatPageLink) throws IOException {
+		StringBuilder page = new StringBuilder();
+		JsonFragmentScanner chatModuleSettings = new JsonFragmentScanner(CHAT_MODULE_SETTINGS_MARKER, false);
+		JsonFragmentScanner apiConfig = new JsonFragmentScanner(API_CONFIG_MARKER, true);
+
+		char[] buffer = new char[READ_CHUNK_SIZE];
+		int read;
+		while ((chatModuleSettings.fragment == null || apiConfig.fragment == null)
+				&& (read = chatPage.read(buffer)) != -1) {
+			page.append(buffer, 0, read);
+			chatModuleSettings.scan(page);
+			apiConfig.scan(page);
+		}
+
+		if (chatModuleSettings.fragment != null && apiConfig.fragment != null) {
+			try {
+				apply(BotContext.GSON.fromJson(chatModuleSettings.fragment, JsonObject.class),
+						BotContext.GSON.fromJson(apiConfig.fragment, JsonObject.class), chatPageLink);
+				return;
+			} catch (JsonParseException | IllegalStateException | NullPointerException ignored) {
+				// разбираем страницу целиком
+			}
+
+			// дочитываем страницу для Jsoup
+			while ((read = chatPage.read(buffer)) != -1) {
+				page.append(buffer, 0, read);
+			}
+		}
+
+		parse(Jsoup.parse(page.toString(), ""), chatPageLink);
+	}
+
 	void parse(@NotNull Document chatPage, @NotNull String chatPageLink) throws IOException {
 		String scriptsContent = chatPage.select("script").html();
 
@@ -67,26 +127,139 @@ public class ChatConnectionConfiguration {
 		if (!m.find()) {
 			throw new IOException("Invalid response");
 		}
-
-		// из настроек moodle чат-модуля достаем имя чата,
-		// частоту пингования, айди чат-сессии и тему чата
-		// (которая почему-то является обязательным параметром)
-		JsonObject json = BotContext.GSON.fromJson(StringEscapeUtils.unescapeJava(m.group(1)), JsonObject.class);
-		title = json.get("chatroom_name").getAsString();
-		pingPeriod = json.get("timer").getAsInt();
-		sessionId = json.get("sid").getAsString();
-		theme = json.get("theme").getAsString();
+		JsonObject chatModuleSettings = BotContext.GSON.fromJson(StringEscapeUtils.unescapeJava(m.group(1)),
+				JsonObject.class);
 
 		// парсим json настроек moodle api
 		m = apiConfigPattern.matcher(scriptsContent);
 		if (!m.find()) {
 			throw new IOException("Invalid response");
 		}
-		json = BotContext.GSON.fromJson(StringEscapeUtils.unescapeJava(m.group(1)), JsonObject.class);
-		String sessionKey = json.get("sesskey").getAsString();
+		JsonObject apiConfig = BotContext.GSON.fromJson(StringEscapeUtils.unescapeJava(m.group(1)), JsonObject.class);
+
+		try {
+			apply(chatModuleSettings, apiConfig, chatPageLink);
+		} catch (JsonParseException | IllegalStateException | NullPointerException e) {
+			throw new IOException("Invalid response", e);
+		}
+	}
+
+	private void apply(JsonObject chatModuleSettings, JsonObject apiConfig, String chatPageLink)
+			throws IOException {
+		// из настроек moodle чат-модуля достаем имя чата,
+		// частоту пингования, айди чат-сессии и тему чата
+		// (которая почему-то является обязательным параметром)
+		String title = chatModuleSettings.get("chatroom_name").getAsString();
+		long pingPeriod = chatModuleSettings.get("timer").getAsInt();
+		String sessionId = chatModuleSettings.get("sid").getAsString();
+		String theme = chatModuleSettings.get("theme").getAsString();
+		String sessionKey = apiConfig.get("sesskey").getAsString();
 
 		URL url = URI.create(chatPageLink).toURL();
-		chatModuleLink = url.getProtocol() + "://" + url.getHost() + "/mod/chat/chat_ajax.php?sesskey=" + sessionKey;
+		this.chatModuleLink = url.getProtocol() + "://" + url.getHost() + "/mod/chat/chat_ajax.php?sesskey="
+				+ sessionKey;
+		this.title = title;
+		this.pingPeriod = pingPeriod;
+		this.sessionId = sessionId;
+		this.theme = theme;
+	}
+
+	/**
+	 * Ищет в прочитанной части страницы json-объект, который идет после маркера.
+	 * Поиск продолжается с того места, где он остановился на предыдущей порции.
+	 */
+	private static class JsonFragmentScanner {
+		private final String marker;
+
+		/**
+		 * Если <code>true</code>, то между маркером и объектом должен быть знак '='.
+		 */
+		private final boolean assignment;
+
+		/**
+		 * Позиция, с которой продолжать поиск маркера.
+		 */
+		private int searchFrom;
+
+		/**
+		 * Найденный json-объект
+		 */
+		private String fragment;
+
+		private JsonFragmentScanner(String marker, boolean assignment) {
+			this.marker = marker;
+			this.assignment = assignment;
+		}
+
+		private void scan(StringBuilder page) {
+			int markerIndex;
+			while (fragment == null && (markerIndex = page.indexOf(marker, searchFrom)) != -1) {
+				int i = skipWhitespace(page, markerIndex + marker.length());
+				if (assignment && i < page.length()) {
+					if (page.charAt(i) != '=') {
+						searchFrom = markerIndex + 1;
+						continue;
+					}
+					i = skipWhitespace(page, i + 1);
+				}
+
+				if (i >= page.length()) {
+					// объект еще не прочитан - ждем следующую порцию
+					searchFrom = markerIndex;
+					return;
+				}
+
+				if (page.charAt(i) != '{') {
+					searchFrom = markerIndex + 1;
+					continue;
+				}
+
+				int end = findObjectEnd(page, i);
+				if (end == -1) {
+					searchFrom = markerIndex;
+					return;
+				}
+				fragment = page.substring(i, end + 1);
+			}
+
+			if (fragment == null) {
+				// маркер может начинаться в конце прочитанной части
+				searchFrom = Math.max(searchFrom, page.length() - marker.length() + 1);
+			}
+		}
+
+		private static int skipWhitespace(CharSequence page, int index) {
+			while (index < page.length() && Character.isWhitespace(page.charAt(index))) {
+				index++;
+			}
+			return index;
+		}
+
+		/**
+		 * @return индекс закрывающей скобки объекта, который начинается с
+		 * указанного индекса, либо -1, если объект прочитан не полностью
+		 */
+		private static int findObjectEnd(CharSequence page, int start) {
+			int depth = 0;
+			char quote = 0;
+			for (int i = start; i < page.length(); i++) {
+				char c = page.charAt(i);
+				if (quote != 0) {
+					if (c == '\\') {
+						i++;
+					} else if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '{') {
+					depth++;
+				} else if (c == '}' && --depth == 0) {
+					return i;
+				}
+			}
+			return -1;
+		}
 	}
 
 	public String getChatModuleLink() {
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.chat;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Очередь исходящих сообщений чат-подключения.
+ * Сообщения отправляются не сразу, а с ограничением частоты по алгоритму
+ * "ведро токенов": подряд можно отправить не больше <code>burst</code> сообщений,
+ * дальше - одно сообщение за <code>refillPeriod</code> миллисекунд.
+ * Одинаковые сообщения, которые еще ждут отправки, не дублируются.
+ * Неотправленное сообщение возвращается в начало очереди, пока не кончатся попытки.
+ *
+ * <p>Очередь не потокобезопасна и используется только в цикле событий чат-подключения,
+ * кроме методов метрик, которые можно вызывать из любого потока.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 22:00
+ * @author Knoblul
+ */
+public class ChatMessageQueue {
+	/**
+	 * Состояние доставки исходящего сообщения.
+	 */
+	public enum Status {
+		/**
+		 * Сообщение ждет отправки в очереди.
+		 */
+		QUEUED,
+
+		/**
+		 * Запрос на отправку сообщения выполняется.
+		 */
+		SENDING,
+
+		/**
+		 * Сервер принял сообщение.
+		 */
+		DELIVERED,
+
+		/**
+		 * Сообщение не отправлено: кончились попытки, либо подключение удалено.
+		 */
+		FAILED,
+
+		/**
+		 * Такое же сообщение уже ждало отправки, поэтому это сообщение не было добавлено в очередь.
+		 */
+		DUPLICATE,
+	}
+
+	/**
+	 * Исходящее сообщение.
+	 */
+	public static class OutboundMessage {
+		private final String text;
+		private final long enqueueTime;
+		private volatile Status status = Status.QUEUED;
+		private volatile int attempts;
+
+		public OutboundMessage(@NotNull String text, long enqueueTime) {
+			this.text = text;
+			this.enqueueTime = enqueueTime;
+		}
+
+		@NotNull
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * @return время, когда сообщение было поставлено в очередь
+		 */
+		public long getEnqueueTime() {
+			return enqueueTime;
+		}
+
+		@NotNull
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return количество попыток отправки
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+	}
+
+	private final int burst;
+	private final long refillPeriod;
+	private final int maximumAttempts;
+
+	private final Deque<OutboundMessage> queue = new ArrayDeque<>();
+
+	/**
+	 * Количество токенов в ведре. Одно сообщение - один токен.
+	 */
+	private double tokens;
+	private long lastRefillTime;
+
+	private volatile int queueDepth;
+	private volatile long deliveredMessages;
+	private volatile long failedMessages;
+	private volatile long totalSendLatency;
+
+	/**
+	 * @param burst сколько сообщений можно отправить подряд
+	 * @param refillPeriod за сколько миллисекунд восстанавливается один токен
+	 * @param maximumAttempts максимальное количество попыток отправки одного сообщения
+	 * @param now текущее время
+	 */
+	public ChatMessageQueue(int burst, long refillPeriod, int maximumAttempts, long now) {
+		Preconditions.checkArgument(burst > 0, "Burst must be positive");
+		Preconditions.checkArgument(refillPeriod > 0, "Refill period must be positive");
+		Preconditions.checkArgument(maximumAttempts > 0, "Maximum attempts must be positive");
+		this.burst = burst;
+		this.refillPeriod = refillPeriod;
+		this.maximumAttempts = maximumAttempts;
+		this.tokens = burst;
+		this.lastRefillTime = now;
+	}
+
+	private void refill(long now) {
+		if (now > lastRefillTime) {
+			tokens = Math.min(burst, tokens + (double) (now - lastRefillTime) / refillPeriod);
+			lastRefillTime = now;
+		}
+	}
+
+	/**
+	 * Ставит сообщение в очередь. Если такое же сообщение уже ждет отправки,
+	 * то сообщение отмечается {@link Status#DUPLICATE} и в очередь не добавляется.
+	 * @param message сообщение
+	 * @return <code>true</code>, если сообщение добавлено в очередь
+	 */
+	public boolean offer(@NotNull OutboundMessage message) {
+		for (OutboundMessage queued : queue) {
+			if (queued.text.equals(message.text)) {
+				message.status = Status.DUPLICATE;
+				return false;
+			}
+		}
+
+		queue.addLast(message);
+		queueDepth = queue.size();
+		return true;
+	}
+
+	/**
+	 * Забирает следующее сообщение на отправку, если ведро не пустое.
+	 * Сообщение отмечается {@link Status#SENDING}.
+	 * @param now текущее время
+	 * @return сообщение, которое нужно отправить, либо <code>null</code>, если очередь
+	 * пустая или лимит отправки исчерпан
+	 */
+	@Nullable
+	public OutboundMessage poll(long now) {
+		refill(now);
+		if (queue.isEmpty() || tokens < 1) {
+			return null;
+		}
+
+		tokens -= 1;
+		OutboundMessage message = queue.pollFirst();
+		queueDepth = queue.size();
+		message.status = Status.SENDING;
+		message.attempts++;
+		return message;
+	}
+
+	/**
+	 * @param now текущее время
+	 * @return через сколько миллисекунд можно будет отправить следующее сообщение,
+	 * либо -1, если очередь пустая
+	 */
+	public long getSendDelay(long now) {
+		if (queue.isEmpty()) {
+			return -1;
+		}
+
+		refill(now);
+		return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * refillPeriod);
+	}
+
+	/**
+	 * Отмечает сообщение доставленным.
+	 * @param message сообщение, полученное из {@link #poll(long)}
+	 * @param now текущее время
+	 */
+	public void delivered(@NotNull OutboundMessage message, long now) {
+		message.status = Status.DELIVERED;
+		totalSendLatency += now - message.enqueueTime;
+		deliveredMessages++;
+	}
+
+	/**
+	 * Возвращает неотправленное сообщение в начало очереди, либо отмечает его
+	 * {@link Status#FAILED}, если попытки кончились.
+	 * @param message сообщение, полученное из {@link #poll(long)}
+	 * @return <code>true</code>, если будет еще одна попытка отправки
+	 */
+	public boolean failed(@NotNull OutboundMessage message) {
+		if (message.attempts < maximumAttempts) {
+			message.status = Status.QUEUED;
+			queue.addFirst(message);
+			queueDepth = queue.size();
+			return true;
+		}
+
+		message.status = Status.FAILED;
+		failedMessages++;
+		return false;
+	}
+
+	/**
+	 * Возвращает сообщение, запрос которого был отменен (например, при переподключении),
+	 * в начало очереди. Отмененная попытка не считается.
+	 * @param message сообщение, полученное из {@link #poll(long)}
+	 */
+	public void requeue(@NotNull OutboundMessage message) {
+		message.attempts = Math.max(message.attempts - 1, 0);
+		message.status = Status.QUEUED;
+		queue.addFirst(message);
+		queueDepth = queue.size();
+	}
+
+	/**
+	 * Отмечает сообщение {@link Status#FAILED} без повторных попыток,
+	 * например, если подключение уже удалено.
+	 * @param message сообщение, полученное из {@link #poll(long)}
+	 */
+	public void abandon(@NotNull OutboundMessage message) {
+		message.status = Status.FAILED;
+		failedMessages++;
+	}
+
+	/**
+	 * Отмечает все сообщения в очереди {@link Status#FAILED} и очищает очередь.
+	 */
+	public void clear() {
+		for (OutboundMessage message : queue) {
+			message.status = Status.FAILED;
+			failedMessages++;
+		}
+		queue.clear();
+		queueDepth = 0;
+	}
+
+	/**
+	 * @return количество сообщений, которые ждут отправки
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return количество доставленных сообщений
+	 */
+	public long getDeliveredMessages() {
+		return deliveredMessages;
+	}
+
+	/**
+	 * @return количество сообщений, которые так и не были отправлены
+	 */
+	public long getFailedMessages() {
+		return failedMessages;
+	}
+
+	/**
+	 * @return среднее время от постановки сообщения в очередь до его доставки, в миллисекундах
+	 */
+	public long getAverageSendLatency() {
+		long delivered = deliveredMessages;
+		return delivered > 0 ? totalSendLatency / delivered : 0;
+	}
+}
@@ -16,16 +16,29 @@
 package knoblul.eosvstubot.api.chat;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import knoblul.eosvstubot.api.BotContext;
+import knoblul.eosvstubot.api.EventLoop;
 import knoblul.eosvstubot.api.chat.action.ChatAction;
 import knoblul.eosvstubot.api.chat.listening.ChatActionListener;
+import knoblul.eosvstubot.api.chat.listening.ChatConnectionEvent;
 import knoblul.eosvstubot.api.chat.listening.ChatConnectionListener;
+import knoblul.eosvstubot.api.chat.listening.ChatEventPublisher;
+import knoblul.eosvstubot.api.network.RequestPriority;
 import knoblul.eosvstubot.api.profile.Profile;
+import knoblul.eosvstubot.api.profile.ProfileSession;
+import knoblul.eosvstubot.utils.HttpCallbacks;
+import knoblul.eosvstubot.utils.Log;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
 /**
@@ -36,6 +49,12 @@ import java.util.function.Consumer;
  * нужно добавить листенер подключений с помощью {@link #addChatConnectionListener(ChatConnectionListener)}.</p>
  * <p>Чтобы обрабатывать чат-события, которые приходят от созданных подключений,
  * нужно добавить листенер событий с помощью {@link #addChatActionListener(ChatActionListener)}.</p>
+ * <p>Листенеры вызываются в основном потоке. Тяжелые обработчики (например, сохранение истории)
+ * лучше подписывать на {@link #getActionPublisher()} и {@link #getConnectionEventPublisher()} -
+ * тогда они получают события в своем исполнителе и не задерживают основной поток.</p>
+ * <p>Чат-подключения сессии обслуживаются циклом событий {@link #getEventLoop()}, за которым
+ * контекст закрепил сессию (см. {@link BotContext#getEventLoop(Object)}). Создавать и удалять
+ * подключения и саму сессию можно из основного потока.</p>
  *
  * <br><br>Module: eos-vstu-bot
  * <br>Created: 24.04.2020 18:13
@@ -53,22 +72,58 @@ public class ChatSession {
 	 */
 	private final String chatIndexLink;
 
+	/**
+	 * Цикл событий, в котором обновляются чат-подключения этой сессии
+	 * и срабатывают их таймеры.
+	 */
+	private final EventLoop eventLoop;
+
 	/**
 	 * Список всех созданных и действительных чат-подключений.
 	 * Удаленые чат-подключения будут автоматически чистится из этого
-	 * списка.
+	 * списка. Подключения добавляются из основного потока, а чистятся
+	 * в цикле событий сессии.
+	 */
+	private final List<ChatConnection> connections = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Точка отсчета фаз пингов подключений (см. {@link ChatConnection#setPingPhase(double)}).
 	 */
-	private List<ChatConnection> connections = Lists.newArrayList();
+	private final long pingPhaseEpoch = System.currentTimeMillis();
 
 	/**
-	 * Список всех листенеров чат-подключений
+	 * Флаг, сигнализирующий о том, что список подключений изменился,
+	 * и фазы пингов нужно распределить заново.
 	 */
-	private Set<ChatConnectionListener> chatConnectionListeners = Sets.newHashSet();
+	private volatile boolean pingPhasesChanged;
 
 	/**
-	 * Сприсок всех листенеров чат-событий
+	 * Список всех листенеров чат-подключений. Листенеры вызываются в порядке регистрации.
 	 */
-	private Set<ChatActionListener> chatActionListeners = Sets.newHashSet();
+	private Set<ChatConnectionListener> chatConnectionListeners = Sets.newLinkedHashSet();
+
+	/**
+	 * Сприсок всех листенеров чат-событий. Листенеры вызываются в порядке регистрации.
+	 */
+	private Set<ChatActionListener> chatActionListeners = Sets.newLinkedHashSet();
+
+	/**
+	 * Издатель чат-событий для подписчиков со своими исполнителями.
+	 * Переполненный буфер подписчика может объединять события (см. {@link ChatAction#coalesce}).
+	 */
+	private final ChatEventPublisher<ChatAction> actionPublisher = new ChatEventPublisher<>(ChatAction::coalesce);
+
+	/**
+	 * Издатель событий чат-подключений для подписчиков со своими исполнителями.
+	 */
+	private final ChatEventPublisher<ChatConnectionEvent> connectionEventPublisher = new ChatEventPublisher<>(null);
+
+	/**
+	 * Конфигурации чата, полученные подключениями профилей. Конфигурация действительна
+	 * только в той сессии профиля, в которой она была получена, поэтому вместе с ней
+	 * хранится значение сессионной куки профиля.
+	 */
+	private Map<Profile, CachedConfiguration> configurationCache = Maps.newHashMap();
 
 	/**
 	 * Максимальное количество попыток реконнекта чат-подключений.
@@ -85,12 +140,14 @@ public class ChatSession {
 	 * Флаг, сигнализирующий контексту о том, что данная чат-сессия
 	 * является недействительной и подлежит удалению.
 	 */
-	private boolean destroyed;
+	private volatile boolean destroyed;
 
-	public ChatSession(@NotNull BotContext context, @NotNull String chatIndexLink) {
+	public ChatSession(@NotNull BotContext context, @NotNull String chatIndexLink, @NotNull EventLoop eventLoop) {
 		this.context = context;
 		this.chatIndexLink = chatIndexLink;
+		this.eventLoop = eventLoop;
 		setMaximumReconnectAttempts(3);
+		eventLoop.addUpdateTask(this::update);
 	}
 
 	public BotContext getContext() {
@@ -101,6 +158,14 @@ public class ChatSession {
 		return chatIndexLink;
 	}
 
+	/**
+	 * @return цикл событий, в котором обслуживаются чат-подключения этой сессии
+	 */
+	@NotNull
+	public EventLoop getEventLoop() {
+		return eventLoop;
+	}
+
 	public int getMaximumReconnectAttempts() {
 		return maximumReconnectAttempts;
 	}
@@ -109,6 +174,20 @@ public class ChatSession {
 		this.maximumReconnectAttempts = maximumReconnectAttempts;
 	}
 
+	/**
+	 * @return издатель чат-событий от всех подключений этой сессии
+	 */
+	public ChatEventPublisher<ChatAction> getActionPublisher() {
+		return actionPublisher;
+	}
+
+	/**
+	 * @return издатель событий всех подключений этой сессии
+	 */
+	public ChatEventPublisher<ChatConnectionEvent> getConnectionEventPublisher() {
+		return connectionEventPublisher;
+	}
+
 	public boolean isMessageSendingDisabled() {
 		return messageSendingDisabled;
 	}
@@ -119,14 +198,47 @@ public class ChatSession {
 
 	/**
 	 * Обновляет чат-сессию, обновляя все созданные чат-подключения.
+	 * Вызывается циклом событий сессии на каждом его обновлении.
 	 *
 	 * @return true, если {@link #destroyed} == <code>true</code>
 	 */
 	public boolean update() {
-		context.requireMainThread();
+		eventLoop.requireEventLoop();
 
 		// обновляем все подключения, удаляем те что недействительны
-		connections.removeIf(chatConnection -> !chatConnection.update());
+		if (connections.removeIf(chatConnection -> !chatConnection.update())) {
+			pingPhasesChanged = true;
+		}
+
+		if (pingPhasesChanged) {
+			rebalancePingPhases();
+		}
+		return destroyed;
+	}
+
+	/**
+	 * Равномерно распределяет фазы пингов подключений по периоду пингов, чтобы
+	 * подключения, которые вошли в чат одновременно, не пинговали сервер одновременно.
+	 */
+	private void rebalancePingPhases() {
+		pingPhasesChanged = false;
+		List<ChatConnection> activeConnections = Lists.newArrayList(connections);
+		for (int i = 0; i < activeConnections.size(); i++) {
+			activeConnections.get(i).setPingPhase((double) i / activeConnections.size());
+		}
+	}
+
+	/**
+	 * @return точка отсчета фаз пингов подключений этой сессии
+	 */
+	long getPingPhaseEpoch() {
+		return pingPhaseEpoch;
+	}
+
+	/**
+	 * @return <code>true</code>, если сессия удалена через {@link #destroy()}
+	 */
+	public boolean isDestroyed() {
 		return destroyed;
 	}
 
@@ -175,8 +287,10 @@ public class ChatSession {
 	 * @param error      исключение, произошедшее внутри чат-подключения
 	 */
 	void onConnectionError(ChatConnection connection, Throwable error) {
-		context.invokeMainThreadCommand(() ->
-				chatConnectionListeners.forEach(listener -> listener.error(connection, error)));
+		context.invokeMainThreadCommand(() -> {
+			chatConnectionListeners.forEach(listener -> listener.error(connection, error));
+			connectionEventPublisher.publish(new ChatConnectionEvent(ChatConnectionEvent.Type.ERROR, connection, error));
+		});
 	}
 
 	/**
@@ -185,8 +299,11 @@ public class ChatSession {
 	 * @param connection чат-подключение, из которого вызвался метод
 	 */
 	void onConnectionCompleted(ChatConnection connection) {
-		context.invokeMainThreadCommand(() ->
-				chatConnectionListeners.forEach(listener -> listener.connected(connection)));
+		context.invokeMainThreadCommand(() -> {
+			chatConnectionListeners.forEach(listener -> listener.connected(connection));
+			connectionEventPublisher.publish(new ChatConnectionEvent(ChatConnectionEvent.Type.CONNECTED, connection,
+					null));
+		});
 	}
 
 	/**
@@ -196,8 +313,94 @@ public class ChatSession {
 	 * @param action новое чат-событие
 	 */
 	void onChatAction(ChatConnection connection, ChatAction action) {
-		context.invokeMainThreadCommand(() ->
-				chatActionListeners.forEach(listener -> listener.action(connection, action)));
+		context.invokeMainThreadCommand(() -> {
+			chatActionListeners.forEach(listener -> listener.action(connection, action));
+			actionPublisher.publish(action);
+		});
+	}
+
+	/**
+	 * @param profile профиль подключения
+	 * @return конфигурация чата, полученная ранее в текущей сессии профиля,
+	 * либо <code>null</code>, если ее нет, или сессия профиля изменилась.
+	 */
+	@Nullable
+	ChatConnectionConfiguration getCachedConfiguration(@NotNull Profile profile) {
+		eventLoop.requireEventLoop();
+
+		CachedConfiguration cached = configurationCache.get(profile);
+		if (cached == null) {
+			return null;
+		}
+
+		// сессия читается один раз, чтобы флаг и куки были из одной сессии
+		ProfileSession session = profile.getSession();
+		if (!session.isValid() || !cached.sessionCookie.equals(getSessionCookie(session))) {
+			configurationCache.remove(profile);
+			return null;
+		}
+		return cached.configuration;
+	}
+
+	/**
+	 * Запоминает конфигурацию чата, которую сервер принял в текущей сессии профиля.
+	 * @param profile профиль подключения
+	 * @param configuration конфигурация чата
+	 */
+	void cacheConfiguration(@NotNull Profile profile, @NotNull ChatConnectionConfiguration configuration) {
+		eventLoop.requireEventLoop();
+		configurationCache.put(profile, new CachedConfiguration(configuration, getSessionCookie(profile.getSession())));
+	}
+
+	/**
+	 * Удаляет конфигурацию чата из кеша, если она не была заменена на более новую.
+	 * @param profile профиль подключения
+	 * @param configuration конфигурация, которую сервер отклонил
+	 */
+	void invalidateCachedConfiguration(@NotNull Profile profile, @NotNull ChatConnectionConfiguration configuration) {
+		eventLoop.requireEventLoop();
+		CachedConfiguration cached = configurationCache.get(profile);
+		if (cached != null && cached.configuration == configuration) {
+			configurationCache.remove(profile);
+		}
+	}
+
+	/**
+	 * Заранее получает конфигурацию чата для профиля и кладет ее в кеш, чтобы
+	 * подключение этого профиля выполнило только запрос action=init
+	 * (см. {@link #getCachedConfiguration(Profile)}). Запрос на index.php чата выполняется
+	 * с текущей сессией профиля, поэтому профиль должен быть действителен.
+	 * <p>Сервер считает пользователя вошедшим в чат уже после запроса на index.php, и
+	 * забывает его, если тот долго не пингует чат, поэтому эту функцию нужно вызывать незадолго
+	 * до подключения.</p>
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * @param profile профиль, для которого нужно получить конфигурацию
+	 */
+	public void prefetchConfiguration(@NotNull Profile profile) {
+		context.requireMainThread();
+		CookieStore cookieStore = context.getProfileManager().createCookieStore(profile);
+		eventLoop.execute(() -> {
+			if (destroyed || getCachedConfiguration(profile) != null) {
+				return;
+			}
+
+			HttpUriRequest request = context.buildGetRequest(chatIndexLink, null);
+			context.executeRequestAsync(request, cookieStore, RequestPriority.SESSION, page -> {
+				ChatConnectionConfiguration configuration = new ChatConnectionConfiguration();
+				configuration.parse(page, chatIndexLink);
+				return configuration;
+			}, HttpCallbacks.onEither(configuration -> eventLoop.execute(() -> {
+				if (!destroyed) {
+					cacheConfiguration(profile, configuration);
+					Log.info("%s prefetched configuration of chat '%s'", profile, configuration.getTitle());
+				}
+			}), e -> Log.warn(e, "%s failed to prefetch chat configuration", profile)));
+		});
+	}
+
+	private static String getSessionCookie(ProfileSession session) {
+		// второй куки профиля - MoodleSession
+		return session.getCookies()[1];
 	}
 
 	/**
@@ -215,7 +418,8 @@ public class ChatSession {
 		context.requireMainThread();
 
 		for (ChatConnection chatConnection : connections) {
-			if (chatConnection.getProfile() == profile) {
+			// удаленные подключения еще могут находится в списке до следующего обновления
+			if (chatConnection.getProfile() == profile && !chatConnection.isInvalid()) {
 				throw new IllegalArgumentException(String.format("Connection to chat from profile '%s' already exists!",
 						profile.toString()));
 			}
@@ -223,6 +427,7 @@ public class ChatSession {
 
 		ChatConnection chatConnection = new ChatConnection(this, profile);
 		connections.add(chatConnection);
+		pingPhasesChanged = true;
 		return chatConnection;
 	}
 
@@ -235,5 +440,18 @@ public class ChatSession {
 		context.requireMainThread();
 		connections.forEach(ChatConnection::destroy);
 		connections.clear();
+		eventLoop.execute(configurationCache::clear);
+		actionPublisher.close();
+		connectionEventPublisher.close();
+	}
+
+	private static class CachedConfiguration {
+		private final ChatConnectionConfiguration configuration;
+		private final String sessionCookie;
+
+		private CachedConfiguration(ChatConnectionConfiguration configuration, String sessionCookie) {
+			this.configuration = configuration;
+			this.sessionCookie = sessionCookie;
+		}
 	}
 }
@@ -41,6 +41,16 @@ public class ChatAction {
 		parse(jsonObject);
 	}
 
+	/**
+	 * Используется {@link ChatAjaxResponse} при потоковом разборе ответа.
+	 * @param newMessages новые сообщения
+	 * @param users новый список всех пользователей, либо <code>null</code>
+	 */
+	ChatAction(@NotNull List<ChatMessage> newMessages, @Nullable List<ChatUserInformation> users) {
+		this.newMessages = newMessages;
+		this.users = users;
+	}
+
 	private void parse(@NotNull JsonObject jsonObject) {
 		if (jsonObject.has("msgs")) {
 			JsonObject messagesJson = jsonObject.get("msgs").getAsJsonObject();
@@ -59,6 +69,22 @@ public class ChatAction {
 		}
 	}
 
+	/**
+	 * Объединяет два последовательных чат-события в одно: сообщения обоих событий
+	 * идут по порядку, а список пользователей берется из более нового события, если он там есть.
+	 * @param older более старое событие
+	 * @param newer более новое событие
+	 * @return объединенное событие
+	 */
+	@NotNull
+	public static ChatAction coalesce(@NotNull ChatAction older, @NotNull ChatAction newer) {
+		List<ChatMessage> messages = Lists.newArrayListWithCapacity(older.newMessages.size()
+				+ newer.newMessages.size());
+		messages.addAll(older.newMessages);
+		messages.addAll(newer.newMessages);
+		return new ChatAction(messages, newer.users != null ? newer.users : older.users);
+	}
+
 	/**
 	 * @return список новых сообщений, которые пришли от сервера.
 	 */
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.chat.action;
+
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Ответ ajax-скрипта чата (chat_ajax.php) на любой запрос.
+ * Разбирается потоково через {@link JsonReader} за один проход, сразу в
+ * {@link ChatAction}, {@link ChatMessage} и {@link ChatUserInformation},
+ * без построения промежуточного дерева {@link com.google.gson.JsonObject}.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 19:50
+ * @author Knoblul
+ */
+public class ChatAjaxResponse {
+	private String error;
+	private String errorCode;
+
+	/**
+	 * Два не совсем понятных мне значения, которые нужно отправлять
+	 * в запросе после получения от сервера ответа на init или update
+	 */
+	private String lastTime = "";
+	private String lastRow = "0";
+
+	private ChatAction action;
+
+	private ChatAjaxResponse() {
+
+	}
+
+	/**
+	 * Разбирает ответ ajax-скрипта чата из потока.
+	 * @param content тело ответа
+	 * @return разобранный ответ, либо <code>null</code>, если тело ответа пустое или не является json-объектом
+	 * @throws IOException если тело ответа не удалось прочитать или разобрать
+	 */
+	@Nullable
+	public static ChatAjaxResponse decode(@NotNull Reader content) throws IOException {
+		JsonReader reader = new JsonReader(content);
+		reader.setLenient(true);
+		try {
+			if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+				return null;
+			}
+			return read(reader);
+		} catch (EOFException e) {
+			// пустой ответ
+			return null;
+		} catch (IllegalStateException | IllegalArgumentException e) {
+			throw new IOException("Wrong response", e);
+		}
+	}
+
+	private static ChatAjaxResponse read(JsonReader reader) throws IOException {
+		ChatAjaxResponse response = new ChatAjaxResponse();
+		List<ChatMessage> messages = null;
+		List<ChatUserInformation> users = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "error":
+					response.error = nextString(reader);
+					break;
+				case "errorcode":
+					response.errorCode = nextString(reader);
+					break;
+				case "lasttime":
+					String lastTime = nextNullableString(reader);
+					response.lastTime = lastTime != null ? lastTime : response.lastTime;
+					break;
+				case "lastrow":
+					String lastRow = nextNullableString(reader);
+					response.lastRow = lastRow != null ? lastRow : response.lastRow;
+					break;
+				case "msgs":
+					messages = readMessages(reader);
+					break;
+				case "users":
+					users = readUsers(reader);
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		reader.endObject();
+
+		// если ответ содержит users или msgs, то это чат-событие
+		if (messages != null || users != null) {
+			response.action = new ChatAction(messages != null ? messages : Lists.newArrayList(), users);
+		}
+		return response;
+	}
+
+	/**
+	 * Сообщения приходят объектом, где ключ - id сообщения. Пустой
+	 * список сообщений сервер может прислать массивом.
+	 */
+	private static List<ChatMessage> readMessages(JsonReader reader) throws IOException {
+		List<ChatMessage> messages = Lists.newArrayList();
+		if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				messages.add(readMessage(reader));
+			}
+			reader.endArray();
+		} else {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				messages.add(readMessage(reader));
+			}
+			reader.endObject();
+		}
+		return messages;
+	}
+
+	private static ChatMessage readMessage(JsonReader reader) throws IOException {
+		String system = null;
+		String type = null;
+		String id = null;
+		String userId = null;
+		String message = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "system":
+					system = nextString(reader);
+					break;
+				case "type":
+					type = nextString(reader);
+					break;
+				case "id":
+					id = nextString(reader);
+					break;
+				case "userid":
+					userId = nextString(reader);
+					break;
+				case "message":
+					message = nextString(reader);
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		reader.endObject();
+
+		if (id == null || userId == null || message == null) {
+			throw new IOException("Wrong chat message");
+		}
+		return new ChatMessage(system, type, id, userId, message);
+	}
+
+	private static List<ChatUserInformation> readUsers(JsonReader reader) throws IOException {
+		List<ChatUserInformation> users = Lists.newArrayList();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String name = null;
+			String url = null;
+			String picture = null;
+			String id = null;
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "name":
+						name = nextNullableString(reader);
+						break;
+					case "url":
+						url = nextNullableString(reader);
+						break;
+					case "picture":
+						picture = nextNullableString(reader);
+						break;
+					case "id":
+						id = nextNullableString(reader);
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+			users.add(new ChatUserInformation(name, url, picture, id));
+		}
+		reader.endArray();
+		return users;
+	}
+
+	/**
+	 * Читает строковое, числовое или логическое значение как строку
+	 * (как {@link com.google.gson.JsonElement#getAsString()}).
+	 */
+	private static String nextString(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.BOOLEAN) {
+			return Boolean.toString(reader.nextBoolean());
+		}
+		return reader.nextString();
+	}
+
+	private static String nextNullableString(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		return nextString(reader);
+	}
+
+	/**
+	 * @return текст ошибки, либо <code>null</code>, если сервер не вернул ошибку
+	 */
+	@Nullable
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return код ошибки, либо <code>null</code>
+	 */
+	@Nullable
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	@NotNull
+	public String getLastTime() {
+		return lastTime;
+	}
+
+	@NotNull
+	public String getLastRow() {
+		return lastRow;
+	}
+
+	/**
+	 * @return чат-событие, либо <code>null</code>, если ответ не содержит ни users, ни msgs
+	 */
+	@Nullable
+	public ChatAction getAction() {
+		return action;
+	}
+}
@@ -50,28 +50,44 @@ public class ChatMessage {
 	private MessageType messageType = MessageType.MESSAGE;
 
 	ChatMessage(JsonObject jsonObject) {
-		parse(jsonObject);
-	}
-
-	private void parse(JsonObject jsonObject) {
 //		systemMessage = jsonObject.has("system") && jsonObject.get("system").getAsString().equals("1");
 //		if (jsonObject.has("type")) {
 //			systemMessage |= jsonObject.get("type").getAsString().equalsIgnoreCase("system");
 //		}
 
-		if (jsonObject.has("system") && jsonObject.get("system").getAsString().equals("1")) {
+		parse(jsonObject.has("system") ? jsonObject.get("system").getAsString() : null,
+				jsonObject.has("type") ? jsonObject.get("type").getAsString() : null,
+				jsonObject.get("id").getAsString(),
+				jsonObject.get("userid").getAsString(),
+				jsonObject.get("message").getAsString());
+	}
+
+	/**
+	 * Используется {@link ChatAjaxResponse} при потоковом разборе ответа.
+	 * @param system значение поля system, либо <code>null</code>
+	 * @param type значение поля type, либо <code>null</code>
+	 * @param id значение поля id
+	 * @param userId значение поля userid
+	 * @param message значение поля message (html сообщения)
+	 */
+	ChatMessage(String system, String type, String id, String userId, String message) {
+		parse(system, type, id, userId, message);
+	}
+
+	private void parse(String system, String type, String id, String userId, String message) {
+		if ("1".equals(system)) {
 			messageType = MessageType.SYSTEM;
-		} else if (jsonObject.has("type")) {
-			messageType = MessageType.valueOf(jsonObject.get("type").getAsString().toUpperCase());
+		} else if (type != null) {
+			messageType = MessageType.valueOf(type.toUpperCase());
 		}
 
 		// нужно для получения верной хешсумы сообщения
 		// и правильного сравнения сообщений
-		id = jsonObject.get("id").getAsString();
+		this.id = id;
 
-		userId = jsonObject.get("userid").getAsString();
+		this.userId = userId;
 
-		String messageContent = StringEscapeUtils.unescapeJson(jsonObject.get("message").getAsString());
+		String messageContent = StringEscapeUtils.unescapeJson(message);
 		messageDocument = Jsoup.parse(messageContent, "");
 
 		Elements elements;
@@ -58,6 +58,13 @@ public class ChatUserInformation {
 	ChatUserInformation() {
 	}
 
+	ChatUserInformation(String name, String url, String picture, String id) {
+		this.name = name;
+		this.url = url;
+		this.picture = picture;
+		this.id = id;
+	}
+
 	public String getName() {
 		return name;
 	}
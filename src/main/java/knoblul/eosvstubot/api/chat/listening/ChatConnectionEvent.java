@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.chat.listening;
+
+import knoblul.eosvstubot.api.chat.ChatConnection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Событие чат-подключения, которое публикуется чат-сессией
+ * (см. {@link knoblul.eosvstubot.api.chat.ChatSession#getConnectionEventPublisher()}).
+ * То же самое, что получают {@link ChatConnectionListener}.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 20:35
+ * @author Knoblul
+ */
+public class ChatConnectionEvent {
+	public enum Type {
+		/**
+		 * Успешный вход в чат
+		 */
+		CONNECTED,
+
+		/**
+		 * Исключение внутри чат-подключения
+		 */
+		ERROR,
+	}
+
+	private final Type type;
+	private final ChatConnection connection;
+	private final Throwable error;
+
+	public ChatConnectionEvent(@NotNull Type type, @NotNull ChatConnection connection, @Nullable Throwable error) {
+		this.type = type;
+		this.connection = connection;
+		this.error = error;
+	}
+
+	@NotNull
+	public Type getType() {
+		return type;
+	}
+
+	@NotNull
+	public ChatConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * @return исключение, если тип события {@link Type#ERROR}, иначе <code>null</code>
+	 */
+	@Nullable
+	public Throwable getError() {
+		return error;
+	}
+}
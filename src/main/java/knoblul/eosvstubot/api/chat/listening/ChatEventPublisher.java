@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.chat.listening;
+
+import com.google.common.base.Preconditions;
+import knoblul.eosvstubot.utils.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Издатель событий чат-сессии с ограниченным буфером на каждого подписчика.
+ * В отличие от листенеров {@link ChatActionListener} и {@link ChatConnectionListener},
+ * которые вызываются последовательно в основном потоке, каждый подписчик получает
+ * события в своем исполнителе ({@link Executor}), поэтому медленный подписчик
+ * (например, сохранение истории чата) не задерживает ни основной поток, ни других подписчиков.
+ *
+ * <p>События одного подписчика доставляются строго по порядку и никогда не параллельно.
+ * Если подписчик не успевает обрабатывать события и его буфер заполнен, то
+ * применяется выбранная им {@link OverflowPolicy}.</p>
+ *
+ * <p>Java 8 не содержит java.util.concurrent.Flow, поэтому издатель сделан по аналогии
+ * с Flow.Publisher, но в стиле листенеров бота: подписчик - это {@link Consumer},
+ * а спрос задается размером буфера, а не вызовами request(n).</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 20:30
+ * @author Knoblul
+ */
+public class ChatEventPublisher<T> {
+	/**
+	 * Что делать с новым событием, если буфер подписчика заполнен.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Удалить самое старое событие из буфера.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Объединить новое событие с последним событием в буфере
+		 * (для {@link knoblul.eosvstubot.api.chat.action.ChatAction} - объединить
+		 * сообщения и оставить только новый список пользователей).
+		 * Если издатель не умеет объединять события, то работает как {@link #DROP_OLDEST}.
+		 */
+		COALESCE,
+
+		/**
+		 * Ждать, пока в буфере не освободится место. Блокирует поток,
+		 * который публикует событие (основной поток), поэтому подходит только
+		 * для подписчиков, которые не должны терять события.
+		 */
+		BLOCK,
+	}
+
+	/**
+	 * Функция объединения двух событий (старое, новое), либо <code>null</code>.
+	 */
+	private final BinaryOperator<T> coalescer;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	public ChatEventPublisher(@Nullable BinaryOperator<T> coalescer) {
+		this.coalescer = coalescer;
+	}
+
+	/**
+	 * Подписывает получателя на события.
+	 * @param subscriber получатель событий
+	 * @param executor исполнитель, в котором получатель будет вызываться
+	 * @param bufferSize максимальное количество необработанных событий
+	 * @param overflowPolicy что делать при переполнении буфера
+	 * @return подписка, которую можно отменить
+	 */
+	@NotNull
+	public Subscription subscribe(@NotNull Consumer<? super T> subscriber, @NotNull Executor executor,
+								  int bufferSize, @NotNull OverflowPolicy overflowPolicy) {
+		Preconditions.checkArgument(bufferSize > 0, "Buffer size must be positive");
+		Subscription subscription = new Subscription(subscriber, executor, bufferSize, overflowPolicy);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Публикует событие всем подписчикам.
+	 * @param event событие
+	 */
+	public void publish(@NotNull T event) {
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	/**
+	 * Отменяет все подписки.
+	 */
+	public void close() {
+		for (Subscription subscription : subscriptions) {
+			subscription.cancel();
+		}
+	}
+
+	/**
+	 * @return количество действующих подписок
+	 */
+	public int getSubscriptionCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Подписка на события издателя.
+	 */
+	public class Subscription {
+		private final Consumer<? super T> subscriber;
+		private final Executor executor;
+		private final int bufferSize;
+		private final OverflowPolicy overflowPolicy;
+
+		/**
+		 * Буфер необработанных событий. Все поля ниже защищены монитором буфера.
+		 */
+		private final Deque<T> buffer = new ArrayDeque<>();
+
+		/**
+		 * <code>true</code>, пока в исполнителе есть задача, которая доставляет события.
+		 */
+		private boolean draining;
+		private boolean cancelled;
+		private long droppedEvents;
+
+		private Subscription(Consumer<? super T> subscriber, Executor executor, int bufferSize,
+							 OverflowPolicy overflowPolicy) {
+			this.subscriber = subscriber;
+			this.executor = executor;
+			this.bufferSize = bufferSize;
+			this.overflowPolicy = overflowPolicy;
+		}
+
+		private void offer(T event) {
+			synchronized (buffer) {
+				if (cancelled) {
+					return;
+				}
+
+				if (buffer.size() >= bufferSize) {
+					// без функции объединения COALESCE работает как DROP_OLDEST
+					OverflowPolicy policy = overflowPolicy == OverflowPolicy.COALESCE && coalescer == null
+							? OverflowPolicy.DROP_OLDEST : overflowPolicy;
+					switch (policy) {
+						case COALESCE:
+							buffer.addLast(coalescer.apply(buffer.pollLast(), event));
+							break;
+						case DROP_OLDEST:
+							buffer.pollFirst();
+							droppedEvents++;
+							buffer.addLast(event);
+							break;
+						case BLOCK:
+							while (buffer.size() >= bufferSize && !cancelled) {
+								try {
+									buffer.wait();
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
+									droppedEvents++;
+									return;
+								}
+							}
+							if (cancelled) {
+								return;
+							}
+							buffer.addLast(event);
+							break;
+					}
+				} else {
+					buffer.addLast(event);
+				}
+
+				if (draining) {
+					return;
+				}
+				draining = true;
+			}
+
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				Log.warn(e, "Chat event subscriber executor rejected delivery");
+				synchronized (buffer) {
+					draining = false;
+				}
+			}
+		}
+
+		private void drain() {
+			while (true) {
+				T event;
+				synchronized (buffer) {
+					event = buffer.pollFirst();
+					if (event == null || cancelled) {
+						draining = false;
+						buffer.notifyAll();
+						return;
+					}
+					// освободилось место для заблокированного издателя
+					buffer.notifyAll();
+				}
+
+				try {
+					subscriber.accept(event);
+				} catch (Throwable t) {
+					Log.warn(t, "Chat event subscriber failed");
+				}
+			}
+		}
+
+		/**
+		 * Отменяет подписку. Необработанные события выбрасываются.
+		 */
+		public void cancel() {
+			synchronized (buffer) {
+				cancelled = true;
+				buffer.clear();
+				buffer.notifyAll();
+			}
+			subscriptions.remove(this);
+		}
+
+		/**
+		 * @return количество событий, выброшенных из-за переполнения буфера
+		 */
+		public long getDroppedEvents() {
+			synchronized (buffer) {
+				return droppedEvents;
+			}
+		}
+
+		/**
+		 * @return количество необработанных событий в буфере
+		 */
+		public int getPendingEvents() {
+			synchronized (buffer) {
+				return buffer.size();
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.network;
+
+import com.google.common.collect.Maps;
+import knoblul.eosvstubot.utils.Log;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DNS-резолвер, который кеширует адреса хостов.
+ * Используется обоими HTTP-клиентами контекста, чтобы не резолвить
+ * хост сайта на каждое новое соединение. Если DNS-сервер недоступен,
+ * то возвращается последний известный адрес хоста, даже если он устарел.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 14:10
+ * @author Knoblul
+ */
+public class CachingDnsResolver implements DnsResolver {
+	/**
+	 * Время, в течение которого адрес хоста считается актуальным.
+	 */
+	private static final long CACHE_TIME = TimeUnit.MINUTES.toMillis(5);
+
+	private final DnsResolver resolver = SystemDefaultDnsResolver.INSTANCE;
+	private final Map<String, CachedAddress> cache = Maps.newConcurrentMap();
+
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		CachedAddress cached = cache.get(host);
+		long time = System.currentTimeMillis();
+		if (cached != null && time - cached.resolveTime < CACHE_TIME) {
+			return cached.addresses.clone();
+		}
+
+		try {
+			InetAddress[] addresses = resolver.resolve(host);
+			cache.put(host, new CachedAddress(addresses, time));
+			return addresses.clone();
+		} catch (UnknownHostException e) {
+			if (cached != null) {
+				Log.warn("Failed to resolve %s, using last known address", host);
+				return cached.addresses.clone();
+			}
+			throw e;
+		}
+	}
+
+	private static class CachedAddress {
+		private final InetAddress[] addresses;
+		private final long resolveTime;
+
+		private CachedAddress(InetAddress[] addresses, long resolveTime) {
+			this.addresses = addresses;
+			this.resolveTime = resolveTime;
+		}
+	}
+}
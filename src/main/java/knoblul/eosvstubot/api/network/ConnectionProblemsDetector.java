@@ -15,114 +15,244 @@
  */
 package knoblul.eosvstubot.api.network;
 
-import com.google.common.base.Stopwatch;
+import knoblul.eosvstubot.api.BotContext;
+import knoblul.eosvstubot.api.timer.TimerWheel;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.jetbrains.annotations.NotNull;
 
-import java.net.InetAddress;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
 /**
  * Простой детектор падений сети/сайта.
  * В основной конструктор передеается имя хоста и коллбек.
- * Каждые {@link #PING_PERIOD_TIME} миллисекунд в отдельном потоке этот
- * класс пингует хост и передает результат в коллбек вместе с {@link #badAttempts}.
- * Если пинг неудачен - счетчик {@link #badAttempts} увеличивается,
- * а если удачен - сбрасывается.
+ * Детектор не делает собственных запросов, пока сайт отвечает на обычные запросы
+ * бота - результаты и задержки этих запросов передаются в {@link #reportResponse(long, boolean)}.
+ * Только если запросов не было дольше {@link #probeInterval}, детектор отправляет
+ * на хост легкий HEAD-запрос. Пока сайт отвечает, интервал проверок увеличивается
+ * вплоть до {@link #MAX_PROBE_INTERVAL}.
+ *
+ * <p>Результат каждой проверки передается в коллбек вместе с {@link #badAttempts}.
+ * Если проверка неудачна - счетчик {@link #badAttempts} увеличивается,
+ * а если удачна - сбрасывается. Коллбек вызывается в основном потоке.</p>
  *
  * <br><br>Module: eos-vstu-bot
  * <br>Created: 26.04.2020 1:04
  * @author Knoblul
  */
-public class ConnectionProblemsDetector implements Runnable {
+public class ConnectionProblemsDetector {
+	/**
+	 * Минимальный интервал проверок. С этим же интервалом
+	 * выполняются проверки, пока сайт недоступен.
+	 */
+	private static final long MIN_PROBE_INTERVAL = 3000;
+
 	/**
-	 * Частота выполнения пинг-запроса.
-	 * Если пинг-запрос исполнялся дольше этого значения,
-	 * то "спячка" потока пропускается и выполняется следующий пинг-запрос.
+	 * Максимальный интервал проверок, до которого
+	 * увеличивается интервал, пока сайт доступен.
 	 */
-	private static final int PING_PERIOD_TIME = 3000;
+	private static final long MAX_PROBE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
 
 	/**
-	 * Таймаут для отправки пинг-запроса на хост.
+	 * Таймаут для отправки проверочного запроса на хост.
 	 * По истечению этого времени если хост не отправил
 	 * ответ, то попытка будет считаться неудачной.
 	 */
-	private static final int PING_TIMEOUT = 10000;
+	private static final int PROBE_TIMEOUT = 10000;
+
+	/**
+	 * Если ответ на обычный запрос шел дольше этого времени,
+	 * то детектор сразу же проверяет хост.
+	 */
+	private static final long SLOW_RESPONSE_TIME = 10000;
+
+	private final BotContext context;
+
+	/**
+	 * Асинхронный клиент, через который отправляются проверочные запросы.
+	 */
+	private final CloseableHttpAsyncClient client;
 
 	/**
-	 * Хост, который пинговать.
+	 * Хост, который проверять.
 	 */
 	private final String hostToPing;
 
 	/**
 	 * Коллбек, который вызывается после завершения
-	 * попытки пинг-запроса.
+	 * попытки проверки.
 	 */
 	private final BiConsumer<Integer, Boolean> updateCallback;
 
 	/**
-	 * Поток, в котором происходит цикл попыток
+	 * Счетчик "плохих" попыток
 	 */
-	private final Thread thread;
+	private int badAttempts;
 
 	/**
-	 * Флаг, который
+	 * Текущий интервал проверок.
 	 */
-	private volatile boolean running;
+	private long probeInterval = MIN_PROBE_INTERVAL;
 
 	/**
-	 * Счетчик "плохих" попыток
+	 * Последнее время, когда хост ответил (на обычный запрос или на проверку).
 	 */
-	private int badAttempts;
+	private long lastResponseTime = System.currentTimeMillis();
+
+	private boolean probeInFlight;
+	private TimerWheel.Timeout probeTimeout;
+	private volatile boolean destroyed;
 
-	public ConnectionProblemsDetector(String hostToPing, BiConsumer<Integer, Boolean> updateCallback) {
+	public ConnectionProblemsDetector(@NotNull BotContext context, @NotNull CloseableHttpAsyncClient client,
+									  @NotNull String hostToPing, @NotNull BiConsumer<Integer, Boolean> updateCallback) {
+		this.context = context;
+		this.client = client;
 		this.hostToPing = hostToPing;
 		this.updateCallback = updateCallback;
-		thread = new Thread(this);
-		thread.setName("Internet Issues Detector");
-		thread.start();
+		scheduleProbe(probeInterval);
 	}
 
 	/**
-	 * Останавливает поток
+	 * Останавливает проверки
 	 */
 	public void destroy() {
-		running = false;
-		thread.interrupt();
+		destroyed = true;
+		if (probeTimeout != null) {
+			probeTimeout.cancel();
+			probeTimeout = null;
+		}
 	}
 
-	@Override
-	public void run() {
-		running = true;
-		while (running) {
-			Stopwatch sw = Stopwatch.createStarted();
-			boolean reachable = false;
-			try {
-				reachable = InetAddress.getByName(hostToPing).isReachable(PING_TIMEOUT);
-			} catch (Throwable ignored) { }
-			sw.stop();
-
-			if (!reachable) {
-				// накапливаем неудачные попытки при неудаче
-				badAttempts++;
+	/**
+	 * Передает детектору результат обычного запроса к сайту.
+	 * Можно вызывать из любого потока.
+	 * @param latency время выполнения запроса, в миллисекундах
+	 * @param healthy <code>true</code>, если сайт ответил (даже с ошибкой клиента),
+	 *                   <code>false</code>, если запрос упал, или сайт ответил ошибкой сервера
+	 */
+	public void reportResponse(long latency, boolean healthy) {
+		if (!destroyed) {
+			context.invokeMainThreadCommand(() -> onResponse(latency, healthy));
+		}
+	}
+
+	private void onResponse(long latency, boolean healthy) {
+		if (destroyed) {
+			return;
+		}
+
+		if (healthy && latency < SLOW_RESPONSE_TIME) {
+			lastResponseTime = System.currentTimeMillis();
+			if (badAttempts > 0) {
+				// сайт снова отвечает, не дожидаемся следующей проверки.
+				// Флаг probeInFlight не трогаем - его сбрасывает только сама проверка
+				onResult(true);
 			}
+		} else if (!probeInFlight && badAttempts == 0) {
+			// обычный запрос упал - сразу же проверяем хост
+			probe();
+		}
+	}
 
-			// отправляем результаты в коллбек
-			updateCallback.accept(badAttempts, reachable);
+	private void scheduleProbe(long delay) {
+		if (probeTimeout != null) {
+			probeTimeout.cancel();
+		}
+		probeTimeout = context.getTimerWheel().schedule(delay, this::onProbeTime);
+	}
+
+	private void onProbeTime() {
+		probeTimeout = null;
+		if (destroyed || probeInFlight) {
+			return;
+		}
+
+		// если сайт отвечал на обычные запросы, то проверка не нужна -
+		// откладываем ее до конца "тихого" периода
+		long quietTime = System.currentTimeMillis() - lastResponseTime;
+		if (badAttempts == 0 && quietTime < probeInterval) {
+			scheduleProbe(probeInterval - quietTime);
+			return;
+		}
+
+		probe();
+	}
+
+	/**
+	 * Отправляет на хост проверочный HEAD-запрос.
+	 */
+	private void probe() {
+		if (probeTimeout != null) {
+			probeTimeout.cancel();
+			probeTimeout = null;
+		}
+
+		RequestConfig config = RequestConfig.copy(RequestConfig.DEFAULT)
+				.setRedirectsEnabled(false)
+				.setConnectTimeout(PROBE_TIMEOUT)
+				.setConnectionRequestTimeout(PROBE_TIMEOUT)
+				.setSocketTimeout(PROBE_TIMEOUT)
+				.build();
+		HttpHead request = new HttpHead("http://" + hostToPing + "/");
+		request.setConfig(config);
+
+		probeInFlight = true;
+		client.execute(request, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse result) {
+				boolean reachable = result.getStatusLine().getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR;
+				context.invokeMainThreadCommand(() -> onProbeResult(reachable));
+			}
 
-			if (reachable) {
-				// сбрасываем неудачные попытки при удаче
-				badAttempts = 0;
+			@Override
+			public void failed(Exception ex) {
+				context.invokeMainThreadCommand(() -> onProbeResult(false));
 			}
 
-			// консервативный алгоритм для экономии времени между запросами.
-			long elapsed = sw.elapsed(TimeUnit.MILLISECONDS);
-			if (PING_PERIOD_TIME - elapsed > 0) {
-				try {
-					Thread.sleep(PING_PERIOD_TIME - elapsed);
-				} catch (InterruptedException e) {
-					break;
-				}
+			@Override
+			public void cancelled() {
+				context.invokeMainThreadCommand(() -> probeInFlight = false);
 			}
+		});
+	}
+
+	private void onProbeResult(boolean reachable) {
+		probeInFlight = false;
+		onResult(reachable);
+	}
+
+	/**
+	 * Обрабатывает результат проверки хоста или обычного запроса.
+	 * @param reachable <code>true</code>, если хост ответил
+	 */
+	private void onResult(boolean reachable) {
+		if (destroyed) {
+			return;
 		}
+
+		if (!reachable) {
+			// накапливаем неудачные попытки при неудаче
+			badAttempts++;
+		}
+
+		// отправляем результаты в коллбек
+		updateCallback.accept(badAttempts, reachable);
+
+		if (reachable) {
+			lastResponseTime = System.currentTimeMillis();
+			// пока сайт доступен, проверяем его все реже
+			probeInterval = badAttempts > 0 ? MIN_PROBE_INTERVAL : Math.min(probeInterval * 2, MAX_PROBE_INTERVAL);
+			// сбрасываем неудачные попытки при удаче
+			badAttempts = 0;
+		} else {
+			probeInterval = MIN_PROBE_INTERVAL;
+		}
+
+		scheduleProbe(probeInterval);
 	}
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.network;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.cookie.Cookie;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Кеш ответов на GET-запросы с поддержкой условных запросов.
+ * Если сервер отдал страницу с заголовком ETag или Last-Modified, то страница
+ * запоминается, а при следующем запросе на тот же адрес в запрос добавляются
+ * заголовки If-None-Match/If-Modified-Since. Если страница не изменилась, то сервер
+ * отвечает 304 без тела, и используется запомненная страница.
+ *
+ * <p>Ключ кеша - адрес запроса вместе с куки, так что страницы разных профилей
+ * не смешиваются. Размер кеша ограничен {@link #maxBytes} - при переполнении
+ * удаляются страницы, которые дольше всего не запрашивались. Запросы к ajax-скрипту
+ * чата и к страницам входа никогда не кешируются.</p>
+ *
+ * <p>Методы этого класса потокобезопасны.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 18:05
+ * @author Knoblul
+ */
+public class HttpResponseCache {
+	/**
+	 * Интерсептор, который убирает заголовки условного запроса из запросов после редиректа.
+	 * HTTP-клиент копирует заголовки исходного запроса в запрос по редиректу, и без этого
+	 * другая страница могла бы ответить 304, а вместо нее вернулась бы запомненная.
+	 */
+	public static final HttpRequestInterceptor REDIRECT_INTERCEPTOR = (request, context) -> {
+		if (isRedirected(HttpClientContext.adapt(context))) {
+			request.removeHeaders(HttpHeaders.IF_NONE_MATCH);
+			request.removeHeaders(HttpHeaders.IF_MODIFIED_SINCE);
+		}
+	};
+
+	private final long maxBytes;
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+
+	public HttpResponseCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param uri адрес запроса
+	 * @return <code>true</code>, если ответы с этого адреса нельзя кешировать
+	 */
+	private static boolean isBypassed(URI uri) {
+		String path = uri.getPath() != null ? uri.getPath() : "";
+		return path.endsWith("chat_ajax.php") || path.contains("/login/");
+	}
+
+	/**
+	 * @param request запрос
+	 * @param cookies куки, с которыми выполняется запрос
+	 * @return ключ кеша для запроса, либо <code>null</code>, если запрос не кешируется
+	 */
+	@Nullable
+	public String getCacheKey(@NotNull HttpUriRequest request, @NotNull List<Cookie> cookies) {
+		if (!HttpGet.METHOD_NAME.equals(request.getMethod()) || isBypassed(request.getURI())) {
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder(request.getURI().toString());
+		for (Cookie cookie : cookies) {
+			key.append('\n').append(cookie.getName()).append('=').append(cookie.getValue());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Добавляет в запрос заголовки условного запроса, если ответ на него уже есть в кеше.
+	 * @param request запрос
+	 * @param key ключ кеша запроса
+	 * @return запись кеша, которую нужно использовать при ответе 304, либо <code>null</code>
+	 */
+	@Nullable
+	public synchronized Entry prepare(@NotNull HttpUriRequest request, @NotNull String key) {
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			if (entry.etag != null) {
+				request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.etag);
+			}
+			if (entry.lastModified != null) {
+				request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * @param context контекст выполнения запроса
+	 * @return <code>true</code>, если при выполнении запроса был хотя бы один редирект
+	 */
+	public static boolean isRedirected(@NotNull HttpClientContext context) {
+		List<URI> redirectLocations = context.getRedirectLocations();
+		return redirectLocations != null && !redirectLocations.isEmpty();
+	}
+
+	/**
+	 * Запоминает ответ, если сервер разрешил его кешировать и отдал ETag или Last-Modified.
+	 * @param key ключ кеша запроса
+	 * @param response ответ сервера (200 OK)
+	 * @param content тело ответа
+	 */
+	public synchronized void store(@NotNull String key, @NotNull HttpResponse response, @NotNull String content) {
+		Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+		Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+		long size = (long) content.length() * 2 + key.length() * 2;
+		if (!isStorable(response) || size > maxBytes / 4) {
+			// страница изменилась, но новую запомнить нельзя
+			invalidate(key);
+			return;
+		}
+
+		Entry previous = entries.put(key, new Entry(etag != null ? etag.getValue() : null,
+				lastModified != null ? lastModified.getValue() : null, content, size));
+		if (previous != null) {
+			totalBytes -= previous.size;
+		}
+		totalBytes += size;
+
+		// удаляем страницы, которые дольше всего не запрашивались
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (totalBytes > maxBytes && iterator.hasNext()) {
+			totalBytes -= iterator.next().size;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @param response ответ сервера (200 OK)
+	 * @return <code>true</code>, если сервер отдал ETag или Last-Modified и не запретил кешировать ответ
+	 */
+	public static boolean isStorable(@NotNull HttpResponse response) {
+		Header cacheControl = response.getFirstHeader(HttpHeaders.CACHE_CONTROL);
+		boolean noStore = cacheControl != null && cacheControl.getValue().contains("no-store");
+		return !noStore && (response.containsHeader(HttpHeaders.ETAG)
+				|| response.containsHeader(HttpHeaders.LAST_MODIFIED));
+	}
+
+	/**
+	 * Удаляет запомненный ответ.
+	 * @param key ключ кеша запроса
+	 */
+	public synchronized void invalidate(@NotNull String key) {
+		Entry previous = entries.remove(key);
+		if (previous != null) {
+			totalBytes -= previous.size;
+		}
+	}
+
+	/**
+	 * Очищает кеш.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	/**
+	 * @return примерный размер всех запомненных страниц, в байтах
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Запомненный ответ сервера.
+	 */
+	public static class Entry {
+		private final String etag;
+		private final String lastModified;
+		private final String content;
+		private final long size;
+
+		private Entry(String etag, String lastModified, String content, long size) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.content = content;
+			this.size = size;
+		}
+
+		@NotNull
+		public String getContent() {
+			return content;
+		}
+	}
+}
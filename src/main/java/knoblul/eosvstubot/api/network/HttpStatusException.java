@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.network;
+
+import java.io.IOException;
+
+/**
+ * Исключение, которое выбрасывается, если сервер ответил статусом, отличным от 200 OK.
+ * Позволяет отличить, например, удаленную страницу (404) от проблем с сетью.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 16:05
+ * @author Knoblul
+ */
+public class HttpStatusException extends IOException {
+	private final int statusCode;
+
+	public HttpStatusException(int statusCode, String reasonPhrase) {
+		super("Invalid status: " + statusCode + " " + reasonPhrase);
+		this.statusCode = statusCode;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Ищет {@link HttpStatusException} в цепочке причин исключения.
+	 * @param t исключение
+	 * @return код статуса, либо -1, если исключение вызвано не статусом ответа
+	 */
+	public static int getStatusCode(Throwable t) {
+		for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+			if (cause instanceof HttpStatusException) {
+				return ((HttpStatusException) cause).statusCode;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.network;
+
+import com.google.common.io.CountingInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Распаковщик тел ответов со счетчиками трафика.
+ * Асинхронный HTTP-клиент, в отличие от синхронного, не распаковывает сжатые
+ * ответы сам, поэтому тела ответов открываются через {@link #openContent(HttpResponse)},
+ * который по заголовку Content-Encoding распаковывает gzip/deflate на лету.
+ *
+ * <p>Счетчики показывают, сколько байт тел ответов пришло по сети и сколько
+ * получилось после распаковки. Синхронный клиент убирает заголовок Content-Encoding
+ * после распаковки, поэтому его ответы считаются несжатыми.</p>
+ *
+ * <p>Методы этого класса потокобезопасны.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 18:40
+ * @author Knoblul
+ */
+public class HttpTrafficCounter {
+	private final AtomicLong transferredBytes = new AtomicLong();
+	private final AtomicLong contentBytes = new AtomicLong();
+
+	/**
+	 * Открывает поток тела ответа. Если тело сжато, то поток распаковывает его.
+	 * Прочитанные байты учитываются в счетчиках при закрытии потока.
+	 * @param response ответ сервера с телом
+	 * @return поток распакованного тела ответа
+	 * @throws IOException если тело сжато неподдерживаемым способом
+	 */
+	@NotNull
+	public InputStream openContent(@NotNull HttpResponse response) throws IOException {
+		HttpEntity entity = response.getEntity();
+		if (entity == null) {
+			throw new IOException("Response has no content");
+		}
+
+		CountingInputStream transferred = new CountingInputStream(entity.getContent());
+		InputStream decoded;
+		try {
+			decoded = decode(transferred, response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+		} catch (IOException e) {
+			transferred.close();
+			throw e;
+		}
+
+		CountingInputStream content = new CountingInputStream(decoded);
+		return new FilterInputStream(content) {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					transferredBytes.addAndGet(transferred.getCount());
+					contentBytes.addAndGet(content.getCount());
+				}
+				super.close();
+			}
+		};
+	}
+
+	private static InputStream decode(InputStream in, Header contentEncoding) throws IOException {
+		String encoding = contentEncoding != null ? contentEncoding.getValue().trim().toLowerCase(Locale.ROOT) : "";
+		switch (encoding) {
+			case "":
+			case "identity":
+				return in;
+			case "gzip":
+			case "x-gzip":
+				return new GZIPInputStream(in);
+			case "deflate":
+				// DeflateInputStream сам определяет, есть ли у потока zlib-заголовок
+				return new DeflateInputStream(in);
+			default:
+				throw new IOException("Unsupported Content-Encoding: " + contentEncoding.getValue());
+		}
+	}
+
+	/**
+	 * @return количество байт тел ответов, полученных по сети
+	 */
+	public long getTransferredBytes() {
+		return transferredBytes.get();
+	}
+
+	/**
+	 * @return количество байт тел ответов после распаковки
+	 */
+	public long getContentBytes() {
+		return contentBytes.get();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Класс приоритета асинхронного запроса (см. {@link RequestScheduler}).
+ * Классы перечислены от самого важного к наименее важному.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 22:30
+ * @author Knoblul
+ */
+public enum RequestPriority {
+	/**
+	 * Пинги чат-подключений. Без ответа на них подключение считается сброшенным.
+	 */
+	PING(RequestScheduler.MAX_CONCURRENT_REQUESTS, TimeUnit.SECONDS.toMillis(1)),
+
+	/**
+	 * Отправка сообщений в чат.
+	 */
+	CHAT_SEND(6, TimeUnit.SECONDS.toMillis(5)),
+
+	/**
+	 * Вход в чат, получение конфигурации чата, проверка профилей.
+	 */
+	SESSION(4, TimeUnit.SECONDS.toMillis(10)),
+
+	/**
+	 * Фоновая работа, например обход сайта генератором расписания.
+	 */
+	BACKGROUND(4, TimeUnit.SECONDS.toMillis(60));
+
+	private final int concurrencyLimit;
+	private final long maximumQueueingDelay;
+
+	RequestPriority(int concurrencyLimit, long maximumQueueingDelay) {
+		this.concurrencyLimit = concurrencyLimit;
+		this.maximumQueueingDelay = maximumQueueingDelay;
+	}
+
+	/**
+	 * @return сколько запросов этого класса может выполняться одновременно
+	 */
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @return сколько миллисекунд запрос этого класса может ждать в очереди,
+	 * прежде чем обгонит запросы более важных классов
+	 */
+	public long getMaximumQueueingDelay() {
+		return maximumQueueingDelay;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.network;
+
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Планировщик асинхронных запросов. Запросы не передаются асинхронному клиенту
+ * в порядке поступления, а ждут в очереди своего класса приоритета ({@link RequestPriority}).
+ * Каждый класс ограничен своим количеством одновременных запросов, а все классы вместе -
+ * {@link #MAX_CONCURRENT_REQUESTS}. Свободное место получает самый важный класс, поэтому
+ * массовая фоновая работа не задерживает пинги чат-подключений.
+ *
+ * <p>Внутри класса запросы выполняются по возрастанию дедлайна (время постановки в очередь
+ * плюс {@link RequestPriority#getMaximumQueueingDelay()}). Запрос, дедлайн которого прошел,
+ * обгоняет запросы более важных классов, поэтому менее важные классы не голодают.</p>
+ *
+ * <p>Методы этого класса потокобезопасны.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 22:30
+ * @author Knoblul
+ */
+public class RequestScheduler {
+	/**
+	 * Максимальное количество одновременно выполняющихся запросов всех классов.
+	 * Пул подключений асинхронного клиента должен позволять столько же подключений к сайту.
+	 */
+	public static final int MAX_CONCURRENT_REQUESTS = 16;
+
+	private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+	private final Map<RequestPriority, PriorityClass> classes = new EnumMap<>(RequestPriority.class);
+
+	private long sequence;
+	private int activeRequests;
+
+	public RequestScheduler() {
+		for (RequestPriority priority : PRIORITIES) {
+			classes.put(priority, new PriorityClass());
+		}
+	}
+
+	/**
+	 * Ставит запрос в очередь его класса.
+	 * @param priority класс приоритета запроса
+	 * @param dispatcher функция, которая передает запрос асинхронному клиенту с указанным коллбеком
+	 * @param callback коллбек запроса
+	 * @return Future запроса. Отмена Future убирает запрос из очереди или отменяет выполняющийся запрос.
+	 */
+	@NotNull
+	public Future<HttpResponse> submit(@NotNull RequestPriority priority,
+									   @NotNull Function<FutureCallback<HttpResponse>, Future<HttpResponse>> dispatcher,
+									   @NotNull FutureCallback<HttpResponse> callback) {
+		ScheduledRequest request;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			request = new ScheduledRequest(priority, dispatcher, callback, now,
+					now + priority.getMaximumQueueingDelay(), sequence++);
+			classes.get(priority).queue.add(request);
+		}
+		dispatchPending();
+		return request;
+	}
+
+	/**
+	 * Передает клиенту все запросы, для которых есть свободное место.
+	 */
+	private void dispatchPending() {
+		List<ScheduledRequest> dispatched = Lists.newArrayList();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			ScheduledRequest request;
+			while (activeRequests < MAX_CONCURRENT_REQUESTS && (request = pollNext(now)) != null) {
+				PriorityClass priorityClass = classes.get(request.priority);
+				priorityClass.activeRequests++;
+				priorityClass.recordQueueingDelay(now - request.submitTime);
+				activeRequests++;
+				dispatched.add(request);
+			}
+		}
+
+		// клиент вызывается вне блокировки, так как он может сразу же вызвать коллбек
+		for (ScheduledRequest request : dispatched) {
+			request.dispatch();
+		}
+	}
+
+	/**
+	 * @return следующий запрос, которому можно начать выполняться, либо <code>null</code>
+	 */
+	@Nullable
+	private ScheduledRequest pollNext(long now) {
+		PriorityClass selected = null;
+		PriorityClass overdue = null;
+		for (RequestPriority priority : PRIORITIES) {
+			PriorityClass priorityClass = classes.get(priority);
+			ScheduledRequest head = priorityClass.queue.peek();
+			if (head == null || priorityClass.activeRequests >= priority.getConcurrencyLimit()) {
+				continue;
+			}
+
+			if (selected == null) {
+				selected = priorityClass;
+			}
+
+			if (head.deadline <= now && (overdue == null || head.deadline < overdue.queue.peek().deadline)) {
+				overdue = priorityClass;
+			}
+		}
+
+		PriorityClass priorityClass = overdue != null ? overdue : selected;
+		return priorityClass != null ? priorityClass.queue.poll() : null;
+	}
+
+	private void onRequestFinished(ScheduledRequest request) {
+		synchronized (this) {
+			classes.get(request.priority).activeRequests--;
+			activeRequests--;
+		}
+		dispatchPending();
+	}
+
+	private synchronized boolean removeQueued(ScheduledRequest request) {
+		return classes.get(request.priority).queue.remove(request);
+	}
+
+	/**
+	 * @param priority класс приоритета
+	 * @return количество запросов класса, которые ждут в очереди
+	 */
+	public synchronized int getQueuedRequests(@NotNull RequestPriority priority) {
+		return classes.get(priority).queue.size();
+	}
+
+	/**
+	 * @param priority класс приоритета
+	 * @return количество выполняющихся запросов класса
+	 */
+	public synchronized int getActiveRequests(@NotNull RequestPriority priority) {
+		return classes.get(priority).activeRequests;
+	}
+
+	/**
+	 * @param priority класс приоритета
+	 * @return среднее время ожидания запросов класса в очереди, в миллисекундах
+	 */
+	public synchronized long getAverageQueueingDelay(@NotNull RequestPriority priority) {
+		PriorityClass priorityClass = classes.get(priority);
+		return priorityClass.dispatchedRequests > 0
+				? priorityClass.totalQueueingDelay / priorityClass.dispatchedRequests : 0;
+	}
+
+	/**
+	 * @param priority класс приоритета
+	 * @return максимальное время ожидания запроса класса в очереди, в миллисекундах
+	 */
+	public synchronized long getMaximumQueueingDelay(@NotNull RequestPriority priority) {
+		return classes.get(priority).maximumQueueingDelay;
+	}
+
+	/**
+	 * Очередь и счетчики одного класса приоритета. Защищены монитором планировщика.
+	 */
+	private static class PriorityClass {
+		private final PriorityQueue<ScheduledRequest> queue = new PriorityQueue<>(
+				Comparator.<ScheduledRequest>comparingLong(r -> r.deadline).thenComparingLong(r -> r.sequence));
+		private int activeRequests;
+		private long dispatchedRequests;
+		private long totalQueueingDelay;
+		private long maximumQueueingDelay;
+
+		private void recordQueueingDelay(long delay) {
+			dispatchedRequests++;
+			totalQueueingDelay += delay;
+			maximumQueueingDelay = Math.max(maximumQueueingDelay, delay);
+		}
+	}
+
+	/**
+	 * Запрос в очереди планировщика. Является Future, которое завершается вместе
+	 * с запросом клиента.
+	 */
+	private class ScheduledRequest extends BasicFuture<HttpResponse> {
+		private final RequestPriority priority;
+		private final Function<FutureCallback<HttpResponse>, Future<HttpResponse>> dispatcher;
+		private final long submitTime;
+		private final long deadline;
+		private final long sequence;
+
+		/**
+		 * Future запроса клиента, либо <code>null</code>, пока запрос в очереди.
+		 */
+		private volatile Future<HttpResponse> clientFuture;
+
+		private ScheduledRequest(RequestPriority priority,
+								 Function<FutureCallback<HttpResponse>, Future<HttpResponse>> dispatcher,
+								 FutureCallback<HttpResponse> callback, long submitTime, long deadline, long sequence) {
+			super(callback);
+			this.priority = priority;
+			this.dispatcher = dispatcher;
+			this.submitTime = submitTime;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		private void dispatch() {
+			if (isDone()) {
+				// отменен, пока ждал своей очереди
+				onRequestFinished(this);
+				return;
+			}
+
+			try {
+				clientFuture = dispatcher.apply(new FutureCallback<HttpResponse>() {
+					@Override
+					public void completed(HttpResponse result) {
+						onRequestFinished(ScheduledRequest.this);
+						ScheduledRequest.super.completed(result);
+					}
+
+					@Override
+					public void failed(Exception ex) {
+						onRequestFinished(ScheduledRequest.this);
+						ScheduledRequest.super.failed(ex);
+					}
+
+					@Override
+					public void cancelled() {
+						onRequestFinished(ScheduledRequest.this);
+						ScheduledRequest.super.cancel(true);
+					}
+				});
+			} catch (RuntimeException e) {
+				// например, клиент уже закрыт
+				onRequestFinished(this);
+				super.failed(e);
+				return;
+			}
+
+			// Future отменили, пока запрос передавался клиенту
+			if (isCancelled()) {
+				clientFuture.cancel(true);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				Future<HttpResponse> future = clientFuture;
+				if (future != null) {
+					future.cancel(mayInterruptIfRunning);
+				} else {
+					removeQueued(this);
+				}
+			}
+			return cancelled;
+		}
+	}
+}
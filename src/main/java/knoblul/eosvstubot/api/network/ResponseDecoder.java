@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.network;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Декодер тела HTTP-ответа. Получает уже распакованное тело ответа
+ * в виде потока символов и может не дочитывать его до конца.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 19:20
+ * @author Knoblul
+ */
+@FunctionalInterface
+public interface ResponseDecoder<T> {
+	/**
+	 * @param content тело ответа
+	 * @return декодированный ответ
+	 * @throws IOException если тело ответа не удалось прочитать или разобрать
+	 */
+	T decode(@NotNull Reader content) throws IOException;
+}
@@ -15,10 +15,10 @@
  */
 package knoblul.eosvstubot.api.profile;
 
+import knoblul.eosvstubot.api.schedule.Lesson;
 import knoblul.eosvstubot.api.scripting.Script;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Arrays;
 
 /**
  * Представление пользователя, используемое
@@ -54,37 +54,25 @@ public class Profile {
 	private long maximumLateTime = DEFAULT_MAXIMUM_LATE_TIME;
 
 	/**
-	 * Имя профиля eos.vstu.ru
-	 * Значение этого поля должно устанавливаться только
-	 * при успешном входе в аккаунт.
+	 * Группа, к которой относится профиль. Профиль заходит только в чаты
+	 * предметов своей группы и в чаты общих предметов.
+	 * Пустая строка означает, что профиль заходит в чаты всех предметов.
 	 */
-	private transient String profileName = "";
+	private String group = "";
 
 	/**
-	 * Ссылка профиля eos.vstu.ru
-	 * Значение этого поля должно устанавливаться только
-	 * при успешном входе в аккаунт.
-	 */
-	private transient String profileLink = "";
-
-	/**
-	 * Айди профиля eos.vstu.ru.
-	 * Достается из параметра id в {@link #profileLink}
-	 * Значение этого поля должно устанавливаться только
-	 * при успешном входе в аккаунт.
-	 */
-	private transient String profileId = "";
-
-	/**
-	 * Куки сессии eos.vstu.ru
+	 * Куки сессии eos.vstu.ru в том виде, в котором они сохраняются в json-файл.
+	 * Читаются только при создании {@link #session} после загрузки профиля.
 	 */
 	private String[] cookies = new String[] { "", "" };
 
 	/**
-	 * Флаг, значение которого <code>true</code> тогда, когда
-	 * вход в аккаунт был выполнен успешно
+	 * Текущая сессия профиля: куки, имя, ссылка и айди профиля, флаг действительности.
+	 * Сессия неизменяема и публикуется целиком через volatile-поле, поэтому потоки
+	 * циклов событий всегда видят все данные одной сессии.
+	 * После загрузки из json-файла поле пустое и создается лениво из {@link #cookies}.
 	 */
-	private transient boolean valid;
+	private transient volatile ProfileSession session;
 
 	public Profile() { }
 
@@ -100,28 +88,38 @@ public class Profile {
 		return password;
 	}
 
-	public String getProfileName() {
-		return profileName;
+	/**
+	 * @return текущая сессия профиля. Можно вызывать из любого потока.
+	 */
+	@NotNull
+	public ProfileSession getSession() {
+		ProfileSession session = this.session;
+		if (session == null) {
+			// профиль только что загружен - сессия из сохраненных куки еще не проверена
+			this.session = session = new ProfileSession(cookies, "", "", "", false);
+		}
+		return session;
 	}
 
-	public void setProfileName(String profileName) {
-		this.profileName = profileName;
+	/**
+	 * Имя профиля eos.vstu.ru, известное только после успешного входа в аккаунт.
+	 */
+	public String getProfileName() {
+		return getSession().getProfileName();
 	}
 
+	/**
+	 * Ссылка профиля eos.vstu.ru, известная только после успешного входа в аккаунт.
+	 */
 	public String getProfileLink() {
-		return profileLink;
-	}
-
-	public void setProfileLink(String profileLink) {
-		this.profileLink = profileLink;
+		return getSession().getProfileLink();
 	}
 
+	/**
+	 * Айди профиля eos.vstu.ru. Достается из параметра id в {@link #getProfileLink()}.
+	 */
 	public String getProfileId() {
-		return profileId;
-	}
-
-	public void setProfileId(String profileId) {
-		this.profileId = profileId;
+		return getSession().getProfileId();
 	}
 
 	public Script getChatScript() {
@@ -140,8 +138,27 @@ public class Profile {
 		this.maximumLateTime = maximumLateTime;
 	}
 
+	public String getGroup() {
+		return group;
+	}
+
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	/**
+	 * @param lesson предмет
+	 * @return <code>true</code>, если этот профиль должен заходить в чат указанного предмета
+	 */
+	public boolean isAssignedTo(@NotNull Lesson lesson) {
+		return group.isEmpty() || lesson.getGroup().isEmpty() || group.equals(lesson.getGroup());
+	}
+
+	/**
+	 * @return копия куки текущей сессии
+	 */
 	public String[] getCookies() {
-		return cookies;
+		return getSession().getCookies();
 	}
 
 	/**
@@ -161,35 +178,30 @@ public class Profile {
 	 * @return <code>true</code>, если сессия на момент вызова метода действительна.
 	 */
 	public boolean isValid() {
-		return valid;
+		return getSession().isValid();
 	}
 
 	/**
-	 * @param valid если <code>true</code>, то сессия помечена действительной
+	 * Инвалидирует данный профиль. Все данные сессии, которые он хранил
+	 * (куки, имя профиля, ссылку профиля) будут удалены.
 	 */
-	public void setValid(boolean valid) {
-		this.valid = valid;
+	public void invalidate() {
+		applySession(ProfileSession.INVALID);
 	}
 
 	/**
-	 * Инвалидирует данный профиль. Все данные сессии, которые он хранил
-	 * (куки, имя профиля, ссылку профиля) будут удалены.
+	 * Устанавливает данные сессии, полученные проверкой или входом на сайт.
+	 * Должно вызываться только из основного потока.
+	 * @param session данные сессии
 	 */
-	public void invalidate() {
-		// отмечаем что сессия отсутсвует
-		valid = false;
-		// обнуляем имя профиля, ссылку профиля и куки
-		profileName = "";
-		profileLink = "";
-		profileId = "";
-		Arrays.fill(cookies, "");
+	public void applySession(@NotNull ProfileSession session) {
+		cookies = session.getCookies();
+		this.session = session;
 	}
 
 	@Override
 	public String toString() {
-		if (profileName == null || profileId == null) {
-			return username + " (N/A)";
-		}
-		return username + " (" + profileName + "#" + profileId + ")";
+		ProfileSession session = getSession();
+		return username + " (" + session.getProfileName() + "#" + session.getProfileId() + ")";
 	}
 }
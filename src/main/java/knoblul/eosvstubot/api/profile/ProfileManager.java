@@ -25,10 +25,17 @@ import com.google.gson.JsonParseException;
 import knoblul.eosvstubot.api.BotConstants;
 import knoblul.eosvstubot.api.BotContext;
 import knoblul.eosvstubot.api.BotHandler;
+import knoblul.eosvstubot.api.network.RequestPriority;
+import knoblul.eosvstubot.api.network.ResponseDecoder;
+import knoblul.eosvstubot.api.schedule.Lesson;
+import knoblul.eosvstubot.utils.HttpCallbacks;
 import knoblul.eosvstubot.utils.Log;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jsoup.nodes.Document;
@@ -41,8 +48,10 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Этот класс предназначен для управления списком профилей.
@@ -73,6 +82,36 @@ public class ProfileManager implements BotHandler {
 	 */
 	private List<Profile> profiles = Lists.newArrayList();
 
+	/**
+	 * Версия списка профилей. Увеличивается при любом изменении списка
+	 * или данных профилей (логина, группы).
+	 */
+	private final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * Индекс профилей по группам. Ключ - группа профиля.
+	 * Перестраивается лениво, при изменении {@link #version}.
+	 */
+	private Map<String, List<Profile>> groupIndex = Maps.newHashMap();
+
+	/**
+	 * Версия, по которой был построен {@link #groupIndex}.
+	 */
+	private int groupIndexVersion = -1;
+
+	/**
+	 * Индекс профилей по логину. Перестраивается лениво, при изменении {@link #version}.
+	 * Читается и из основного потока, и из потока свинга, поэтому
+	 * индекс не изменяется, а заменяется новым.
+	 */
+	private volatile UsernameIndex usernameIndex;
+
+	/**
+	 * Последний опубликованный снимок профилей для потока свинга.
+	 * Заменяется целиком в {@link #publishSnapshot()}.
+	 */
+	private volatile ProfilesSnapshot snapshot = ProfilesSnapshot.EMPTY;
+
 	public ProfileManager(BotContext context) {
 		this.context = context;
 		this.profilesFile = Paths.get("profiles.json");
@@ -82,6 +121,80 @@ public class ProfileManager implements BotHandler {
 		return context;
 	}
 
+	/**
+	 * Отмечает список профилей измененным. Должно вызываться после изменения
+	 * логина или группы профиля. {@link #save()} вызывает этот метод сам.
+	 */
+	public void invalidate() {
+		version.incrementAndGet();
+		publishSnapshot();
+	}
+
+	/**
+	 * Публикует новый снимок профилей. Вызывается после изменения списка профилей
+	 * и после применения сессии профиля, полученной проверкой или входом.
+	 * Эта функция должна вызываться только из основного потока.
+	 */
+	private void publishSnapshot() {
+		List<ProfilesSnapshot.Entry> entries = Lists.newArrayListWithCapacity(profiles.size());
+		// сейвовая итерация, чтобы избежать ConcurrentModificationException
+		for (int i = 0; i < profiles.size(); i++) {
+			Profile profile = getProfile(i);
+			if (profile != null) {
+				entries.add(new ProfilesSnapshot.Entry(profile));
+			}
+		}
+		snapshot = new ProfilesSnapshot(snapshot.getVersion() + 1, entries);
+	}
+
+	/**
+	 * Можно вызывать из любого потока.
+	 * @return последний опубликованный неизменяемый снимок профилей
+	 */
+	@NotNull
+	public ProfilesSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return версия списка профилей, которая меняется при любом изменении профилей
+	 */
+	public int getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Находит все профили, которые должны заходить в чат указанного предмета.
+	 * Для общих предметов это все профили, а для предметов группы - профили
+	 * этой группы и профили без группы.
+	 * @param lesson предмет
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * @return неизменяемый список профилей, назначенных на указанный предмет. Для общих
+	 * предметов это представление списка всех профилей, поэтому его нельзя хранить
+	 * дольше текущего обновления.
+	 */
+	@NotNull
+	public List<Profile> getAssignedProfiles(@NotNull Lesson lesson) {
+		if (lesson.getGroup().isEmpty()) {
+			return Collections.unmodifiableList(profiles);
+		}
+
+		int currentVersion = version.get();
+		if (groupIndexVersion != currentVersion) {
+			Map<String, List<Profile>> index = Maps.newHashMap();
+			for (Profile profile : profiles) {
+				index.computeIfAbsent(profile.getGroup(), k -> Lists.newArrayList()).add(profile);
+			}
+			groupIndex = index;
+			groupIndexVersion = currentVersion;
+		}
+
+		List<Profile> result = Lists.newArrayList();
+		result.addAll(groupIndex.getOrDefault(lesson.getGroup(), Collections.emptyList()));
+		result.addAll(groupIndex.getOrDefault("", Collections.emptyList()));
+		return Collections.unmodifiableList(result);
+	}
+
 	public List<Profile> getProfiles() {
 		return profiles;
 	}
@@ -105,15 +218,16 @@ public class ProfileManager implements BotHandler {
 				Log.warn(e, "Failed to load %s", profilesFile);
 			}
 		}
+		invalidate();
 		Log.info("Checking profiles...");
-		profiles.forEach(this::checkProfile);
-		save();
+		checkProfiles(this::save);
 	}
 
 	/**
 	 * Сериализует все профили в json-файл.
 	 */
 	public void save() {
+		invalidate();
 		try (BufferedWriter writer = Files.newBufferedWriter(profilesFile)) {
 			JsonArray array = new JsonArray();
 			profiles.forEach(profile -> array.add(BotContext.GSON.toJsonTree(profile)));
@@ -125,16 +239,20 @@ public class ProfileManager implements BotHandler {
 
 	/**
 	 * Парсит данные профиля с главной страницы. Проверяет залогинен ли пользователь.
-	 * Если залогинен, то парсит и устанавливает настоящее имя пользователя и ссылку на профиль.
+	 * Если залогинен, то парсит настоящее имя пользователя и ссылку на профиль.
+	 * @param username логин профиля
 	 * @param index страница главной
+	 * @param cookies куки сессии, с которыми была получена страница
+	 * @return действительная сессия профиля
 	 * @throws SessionExpiredException если указанный профиль не залогинен на сайте
 	 * @throws IOException если произошла неизвестная ошибка, например
 	 * код index-страницы был изменен и парсинг невозможен.
 	 */
-	private static void parseIndexProfileInfo(@NotNull Profile profile, @NotNull Document index) throws IOException {
+	private static ProfileSession parseIndexProfileInfo(@NotNull String username, @NotNull Document index,
+														@NotNull String[] cookies) throws IOException {
 		Elements userMenu = index.select(".navbar .navbar-inner .container-fluid .usermenu");
 		if (!userMenu.select(".login").isEmpty()) {
-			throw new SessionExpiredException(profile);
+			throw new SessionExpiredException(username);
 		} else {
 			Elements profileNameElement = userMenu.select(".menubar li a .userbutton .usertext");
 			if (profileNameElement.isEmpty()) {
@@ -146,25 +264,39 @@ public class ProfileManager implements BotHandler {
 				throw new IOException("Something went wrong - failed to parse profile link");
 			}
 
-			profile.setProfileName(profileNameElement.first().text().trim());
-			profile.setProfileLink(profileLinkElement.first().attr("href").trim());
+			String profileName = profileNameElement.first().text().trim();
+			String profileLink = profileLinkElement.first().attr("href").trim();
+			String profileId = "";
 
-			List<NameValuePair> pairs = URLEncodedUtils.parse(URI.create(profile.getProfileLink()), Charsets.UTF_8);
+			List<NameValuePair> pairs = URLEncodedUtils.parse(URI.create(profileLink), Charsets.UTF_8);
 			for (NameValuePair pair: pairs) {
 				if (pair.getName().equals("id")) {
-					profile.setProfileId(pair.getValue());
+					profileId = pair.getValue();
 				}
 			}
+			return new ProfileSession(cookies, profileName, profileLink, profileId, true);
 		}
 	}
 
 	/**
 	 * Инвалидирует указанный профиль. Все данные сессии, которые он хранил
 	 * будут удалены.
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
 	 * @param profile профиль, который инвалидировать.
 	 */
 	public void logoutProfile(@NotNull Profile profile) {
 		profile.invalidate();
+		publishSnapshot();
+	}
+
+	/**
+	 * Применяет к профилю данные сессии, полученные проверкой или входом,
+	 * и публикует новый снимок профилей.
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 */
+	private void applySession(@NotNull Profile profile, @NotNull ProfileSession session) {
+		profile.applySession(session);
+		publishSnapshot();
 	}
 
 	/**
@@ -174,47 +306,192 @@ public class ProfileManager implements BotHandler {
 	 * @param profile профиль, который выбрать
 	 */
 	public void selectProfile(@Nullable Profile profile) {
+		selectCookies(profile != null ? profile.getCookies() : null);
+	}
+
+	/**
+	 * Заменяет куки хранилища текущего потока (см. {@link BotContext#getCurrentCookieStore()})
+	 * указанными куки сессии.
+	 * @param cookies куки сессии, либо <code>null</code>, чтобы только очистить куки
+	 */
+	private void selectCookies(@Nullable String[] cookies) {
 		context.clearCookies();
-		if (profile != null) {
-			String[] cookies = profile.getCookies();
+		if (cookies != null) {
 			context.setCookie(COOKIE_MID_NAME, cookies[0], BotConstants.SITE_DOMAIN, "/");
 			context.setCookie(COOKIE_SESSION_NAME, cookies[1], BotConstants.SITE_DOMAIN, "/");
 		}
 	}
 
+	/**
+	 * Создает отдельное хранилище куки с сессией профиля. В отличие от {@link #selectProfile(Profile)},
+	 * не трогает общее хранилище куки контекста, поэтому может вызываться из любого потока.
+	 * @param profile профиль, куки которого положить в хранилище
+	 * @return новое хранилище куки
+	 */
+	@NotNull
+	public CookieStore createCookieStore(@NotNull Profile profile) {
+		String[] cookies = profile.getCookies();
+		CookieStore cookieStore = new BasicCookieStore();
+		cookieStore.addCookie(BotContext.createCookie(COOKIE_MID_NAME, cookies[0], BotConstants.SITE_DOMAIN, "/"));
+		cookieStore.addCookie(BotContext.createCookie(COOKIE_SESSION_NAME, cookies[1], BotConstants.SITE_DOMAIN, "/"));
+		return cookieStore;
+	}
+
 	/**
 	 * Проверяет, действителен ли профиль простым GET запросом на index.
 	 * Если не действителен, то пытается войти с помощью {@link #loginProfile(Profile)}
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
 	 */
 	public void checkProfile(@NotNull Profile profile) {
+		applySession(profile, requestCheck(profile.getUsername(), profile.getPassword(), profile.getCookies()));
+	}
+
+	/**
+	 * Проверяет сессию простым GET запросом на index. Если сессия не действительна,
+	 * то входит на сайт заново. Не изменяет профиль, поэтому может выполняться
+	 * в блокирующей операции.
+	 * @return новая сессия профиля, либо {@link ProfileSession#INVALID}, если вход не удался
+	 */
+	@NotNull
+	private ProfileSession requestCheck(@NotNull String username, @NotNull String password,
+										@NotNull String[] cookies) {
 		try {
-			// выбираем этот профиль для проверки
-			selectProfile(profile);
+			// выбираем куки профиля для проверки
+			selectCookies(cookies);
 			// отправляем гет запрос на главную страницу
 			String checkURI = "http://" + BotConstants.SITE_DOMAIN + "/index.php";
 			HttpUriRequest request = context.buildGetRequest(checkURI, null);
 			Document document = context.executeRequest(request, Document.class);
-			parseIndexProfileInfo(profile, document); // парсим главную страницу
-			Log.info("%s check success", profile.getUsername());
-			profile.setValid(true);
+			ProfileSession session = parseIndexProfileInfo(username, document, cookies); // парсим главную страницу
+			Log.info("%s check success", username);
+			return session;
 		} catch (IOException e) {
 			// фоллбек стратегия - логинемся на сайте заново.
 			if (e instanceof SessionExpiredException) {
-				Log.info("%s session expired. Logging in...", profile.getUsername());
+				Log.info("%s session expired. Logging in...", username);
 			} else {
-				Log.warn(e, "%s check failed. Logging in...", profile.getUsername());
+				Log.warn(e, "%s check failed. Logging in...", username);
 			}
 
 			try {
-				loginProfile(profile);
+				return requestLogin(username, password);
 			} catch (IOException x) {
-				Log.error(x,"%s login failed. Profile is invalid.", profile.getUsername());
+				Log.error(x,"%s login failed. Profile is invalid.", username);
+				return ProfileSession.INVALID;
 			}
 		}
 	}
 
+	/**
+	 * Проверяет все профили через {@link #checkProfileAsync(Profile, FutureCallback)},
+	 * поэтому проверки могут выполняться одновременно.
+	 * @param onCompletion вызывается в основном потоке после проверки всех профилей, либо <code>null</code>
+	 */
+	private void checkProfiles(@Nullable Runnable onCompletion) {
+		List<Profile> checkedProfiles = Lists.newArrayList(profiles);
+		int[] remaining = { checkedProfiles.size() };
+		Runnable onChecked = () -> {
+			if (--remaining[0] == 0 && onCompletion != null) {
+				onCompletion.run();
+			}
+		};
+
+		if (checkedProfiles.isEmpty() && onCompletion != null) {
+			onCompletion.run();
+		}
+
+		for (Profile profile : checkedProfiles) {
+			checkProfileAsync(profile, HttpCallbacks.onEither(p -> onChecked.run(), e -> onChecked.run()));
+		}
+	}
+
+	/**
+	 * Выполняет проверку профиля (см. {@link #checkProfile(Profile)}) как блокирующую операцию
+	 * контекста (см. {@link BotContext#executeBlockingOperation}). Операция только получает новую
+	 * сессию, а применяется к профилю она в основном потоке.
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * @param profile профиль, который нужно проверить
+	 * @param callback коллбек, который вызывается в основном потоке после проверки, либо <code>null</code>
+	 */
+	public void checkProfileAsync(@NotNull Profile profile, @Nullable FutureCallback<Profile> callback) {
+		String username = profile.getUsername();
+		String password = profile.getPassword();
+		String[] cookies = profile.getCookies();
+		context.executeBlockingOperation(() -> requestCheck(username, password, cookies),
+				HttpCallbacks.onEither(session -> {
+					applySession(profile, session);
+					if (callback != null) {
+						callback.completed(profile);
+					}
+				}, e -> {
+					Log.warn(e, "%s check failed", username);
+					if (callback != null) {
+						callback.failed(e);
+					}
+				}));
+	}
+
+	/**
+	 * Проверяет сессию профиля асинхронным GET запросом на index, не блокируя основной поток,
+	 * даже если блокирующие операции выполняются в нем. Используется для прогрева профилей
+	 * во время идущих пар. Если сессия истекла, то профиль входит заново через
+	 * {@link #loginProfileAsync(Profile, FutureCallback)} только когда блокирующие операции
+	 * выполняются в отдельных потоках; иначе вход выполнится при подключении к чату.
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * @param profile профиль, сессию которого нужно проверить
+	 */
+	public void refreshProfileAsync(@NotNull Profile profile) {
+		context.requireMainThread();
+		String username = profile.getUsername();
+		ProfileSession checkedSession = profile.getSession();
+		String[] cookies = checkedSession.getCookies();
+		String checkURI = "http://" + BotConstants.SITE_DOMAIN + "/index.php";
+		HttpUriRequest request = context.buildGetRequest(checkURI, null);
+		ResponseDecoder<Document> documentDecoder = BotContext.getClassDecoder(Document.class);
+		context.executeRequestAsync(request, createCookieStore(profile), RequestPriority.SESSION,
+				content -> parseIndexProfileInfo(username, documentDecoder.decode(content), cookies),
+				HttpCallbacks.onEither(session -> context.invokeMainThreadCommand(() -> {
+					// пока шел запрос, профиль мог войти заново с другими куки
+					if (profile.getSession() == checkedSession) {
+						Log.info("%s check success", username);
+						applySession(profile, session);
+					}
+				}), e -> context.invokeMainThreadCommand(() -> {
+					if (!(e instanceof SessionExpiredException)) {
+						Log.warn(e, "%s check failed", username);
+					} else if (context.isBlockingOperationsEnabled() && profile.getSession() == checkedSession) {
+						Log.info("%s session expired. Logging in...", username);
+						loginProfileAsync(profile, HttpCallbacks.onEither(p -> { },
+								x -> Log.error(x, "%s login failed. Profile is invalid.", username)));
+					}
+				})));
+	}
+
+	/**
+	 * Выполняет вход (см. {@link #loginProfile(Profile)}) как блокирующую операцию контекста
+	 * (см. {@link BotContext#executeBlockingOperation}). Операция только получает новую
+	 * сессию, а применяется к профилю она в основном потоке.
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
+	 * @param profile профиль, которым нужно войти
+	 * @param callback коллбек, который вызывается в основном потоке после входа или ошибки входа
+	 */
+	public void loginProfileAsync(@NotNull Profile profile, @NotNull FutureCallback<Profile> callback) {
+		String username = profile.getUsername();
+		String password = profile.getPassword();
+		context.executeBlockingOperation(() -> requestLogin(username, password),
+				HttpCallbacks.onEither(session -> {
+					applySession(profile, session);
+					callback.completed(profile);
+				}, e -> {
+					// старая сессия профиля после попытки входа недействительна
+					logoutProfile(profile);
+					callback.failed(e);
+				}));
+	}
+
 	/**
 	 * Отправляет на сайт запрос о создании сесси используя пароль.
+	 * <p>Эта функция должна вызываться только из основного потока.</p>
 	 *
 	 * @throws IOException если произошла ошибка
 	 */
@@ -224,13 +501,24 @@ public class ProfileManager implements BotHandler {
 			logoutProfile(profile);
 		}
 
+		applySession(profile, requestLogin(profile.getUsername(), profile.getPassword()));
+	}
+
+	/**
+	 * Входит на сайт с указанными логином и паролем. Не изменяет профиль,
+	 * поэтому может выполняться в блокирующей операции.
+	 * @return новая сессия профиля
+	 * @throws IOException если произошла ошибка
+	 */
+	@NotNull
+	private ProfileSession requestLogin(@NotNull String username, @NotNull String password) throws IOException {
 		// очищаем все куки перед входом
 		context.clearCookies();
 
 		String loginURI = "http://" + BotConstants.SITE_DOMAIN + "/login/index.php";
 		Map<String, String> params = Maps.newHashMap();
-		params.put("username", profile.getUsername());
-		params.put("password", profile.getPassword());
+		params.put("username", username);
+		params.put("password", password);
 		params.put("rememberusername", "1");
 		params.put("anchor", "");
 		HttpUriRequest request = context.buildPostRequest(loginURI, params);
@@ -252,20 +540,21 @@ public class ProfileManager implements BotHandler {
 			throw new IOException(loginErrorMessage);
 		}
 
+		// сохраняем значение сессионных куки, которые возвратил сайт
+		String[] cookies = {
+				Strings.nullToEmpty(context.getCookieValue(COOKIE_MID_NAME)),
+				Strings.nullToEmpty(context.getCookieValue(COOKIE_SESSION_NAME))
+		};
+
 		// после успешного входа происходит редирект на главную.
 		// парсим имя профиля и ссылку профиля с главной страницы
-		parseIndexProfileInfo(profile, document);
-
-		// сохраняем значение сессионных куки, которые возвратил сайт
-		String[] cookies = profile.getCookies();
-		cookies[0] = context.getCookieValue(COOKIE_MID_NAME);
-		cookies[1] = context.getCookieValue(COOKIE_SESSION_NAME);
+		ProfileSession session = parseIndexProfileInfo(username, document, cookies);
 
 		// очищаем лишние куки
-		selectProfile(profile);
+		selectCookies(cookies);
 
-		Log.info("%s successfully logged in", profile);
-		profile.setValid(true);
+		Log.info("%s successfully logged in", username);
+		return session;
 	}
 
 	/**
@@ -275,14 +564,12 @@ public class ProfileManager implements BotHandler {
 	 */
 	@Nullable
 	public Profile getProfile(@NotNull String username) {
-		// сейвовая итерация, чтобы избежать ConcurrentModificationException
-		for (int i = 0; i < profiles.size(); i++) {
-			Profile profile = getProfile(i);
-			if (profile != null && profile.getUsername().equals(username)) {
-				return profile;
-			}
+		int currentVersion = version.get();
+		UsernameIndex index = usernameIndex;
+		if (index == null || index.version != currentVersion) {
+			usernameIndex = index = new UsernameIndex(currentVersion);
 		}
-		return null;
+		return index.profiles.get(username);
 	}
 
 	/**
@@ -311,6 +598,7 @@ public class ProfileManager implements BotHandler {
 		Profile profile = new Profile();
 		profile.setCredentials(username, password);
 		profiles.add(profile);
+		invalidate();
 		return profile;
 	}
 
@@ -320,6 +608,27 @@ public class ProfileManager implements BotHandler {
 	 */
 	public void removeProfile(@NotNull Profile profile) {
 		profiles.remove(profile);
+		invalidate();
+	}
+
+	/**
+	 * Неизменяемый снимок индекса профилей по логину.
+	 */
+	private class UsernameIndex {
+		private final int version;
+		private final Map<String, Profile> profiles = Maps.newHashMap();
+
+		private UsernameIndex(int version) {
+			this.version = version;
+			// сейвовая итерация, чтобы избежать ConcurrentModificationException
+			List<Profile> list = ProfileManager.this.profiles;
+			for (int i = 0; i < list.size(); i++) {
+				Profile profile = getProfile(i);
+				if (profile != null) {
+					profiles.putIfAbsent(profile.getUsername(), profile);
+				}
+			}
+		}
 	}
 
 	/**
@@ -328,6 +637,6 @@ public class ProfileManager implements BotHandler {
 	 */
 	@Override
 	public void reconnect() {
-		profiles.forEach(this::checkProfile);
+		checkProfiles(null);
 	}
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.profile;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Неизменяемые данные сессии профиля, полученные проверкой или входом на сайт.
+ * Проверка и вход могут выполняться в рабочем потоке (см. {@link knoblul.eosvstubot.api.BotContext#executeBlockingOperation}),
+ * поэтому они не изменяют {@link Profile}, а возвращают сессию, которая применяется
+ * к профилю в основном потоке через {@link Profile#applySession(ProfileSession)}.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 20.10.2026 11:20
+ * @author Knoblul
+ */
+public class ProfileSession {
+	/**
+	 * Недействительная сессия - проверка и вход не удались.
+	 */
+	static final ProfileSession INVALID = new ProfileSession(new String[] { "", "" }, "", "", "", false);
+
+	private final String[] cookies;
+	private final String profileName;
+	private final String profileLink;
+	private final String profileId;
+	private final boolean valid;
+
+	ProfileSession(@NotNull String[] cookies, @NotNull String profileName, @NotNull String profileLink,
+				   @NotNull String profileId, boolean valid) {
+		this.cookies = cookies.clone();
+		this.profileName = profileName;
+		this.profileLink = profileLink;
+		this.profileId = profileId;
+		this.valid = valid;
+	}
+
+	/**
+	 * @return копия куки сессии
+	 */
+	@NotNull
+	public String[] getCookies() {
+		return cookies.clone();
+	}
+
+	@NotNull
+	public String getProfileName() {
+		return profileName;
+	}
+
+	@NotNull
+	public String getProfileLink() {
+		return profileLink;
+	}
+
+	@NotNull
+	public String getProfileId() {
+		return profileId;
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+}
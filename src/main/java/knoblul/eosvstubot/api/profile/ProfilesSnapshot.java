@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.profile;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Неизменяемый снимок списка профилей для потока свинга.
+ * {@link ProfileManager} публикует новый снимок после каждого изменения профилей,
+ * поэтому модели интерфейса читают данные профилей из снимка без гонок с основным
+ * потоком и за O(1) на ячейку.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 23:10
+ * @author Knoblul
+ */
+public class ProfilesSnapshot {
+	static final ProfilesSnapshot EMPTY = new ProfilesSnapshot(0, ImmutableList.of());
+
+	private final long version;
+	private final ImmutableList<Entry> entries;
+
+	/**
+	 * Имена действительных профилей в нижнем регистре.
+	 */
+	private final ImmutableSet<String> validProfileNames;
+
+	private final boolean allValid;
+
+	ProfilesSnapshot(long version, @NotNull List<Entry> entries) {
+		this.version = version;
+		this.entries = ImmutableList.copyOf(entries);
+
+		ImmutableSet.Builder<String> names = ImmutableSet.builder();
+		boolean allValid = true;
+		for (Entry entry : entries) {
+			if (entry.isValid()) {
+				names.add(entry.getProfileName().toLowerCase(Locale.ROOT));
+			} else {
+				allValid = false;
+			}
+		}
+		this.validProfileNames = names.build();
+		this.allValid = allValid;
+	}
+
+	/**
+	 * @return порядковый номер снимка. У более нового снимка номер больше.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @param index индекс профиля в списке
+	 * @return данные профиля, либо <code>null</code>, если индекс вне списка
+	 */
+	@Nullable
+	public Entry get(int index) {
+		return index >= 0 && index < entries.size() ? entries.get(index) : null;
+	}
+
+	@NotNull
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return <code>true</code>, если все профили действительны
+	 */
+	public boolean isAllValid() {
+		return allValid;
+	}
+
+	/**
+	 * @param profileName имя профиля на сайте
+	 * @return <code>true</code>, если есть действительный профиль с таким именем (без учета регистра)
+	 */
+	public boolean hasValidProfileName(@NotNull String profileName) {
+		return validProfileNames.contains(profileName.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Данные одного профиля на момент снимка.
+	 */
+	public static class Entry {
+		private final Profile profile;
+		private final String username;
+		private final String profileName;
+		private final String profileLink;
+		private final String displayName;
+		private final boolean valid;
+
+		Entry(@NotNull Profile profile) {
+			this.profile = profile;
+			this.username = profile.getUsername();
+			this.profileName = profile.getProfileName() != null ? profile.getProfileName() : "";
+			this.profileLink = profile.getProfileLink() != null ? profile.getProfileLink() : "";
+			this.displayName = profile.toString();
+			this.valid = profile.isValid();
+		}
+
+		/**
+		 * @return сам профиль. Его поля могли измениться после снимка, поэтому
+		 * для отображения следует использовать поля снимка.
+		 */
+		@NotNull
+		public Profile getProfile() {
+			return profile;
+		}
+
+		@NotNull
+		public String getUsername() {
+			return username;
+		}
+
+		@NotNull
+		public String getProfileName() {
+			return profileName;
+		}
+
+		@NotNull
+		public String getProfileLink() {
+			return profileLink;
+		}
+
+		/**
+		 * @return {@link Profile#toString()} на момент снимка
+		 */
+		@NotNull
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public boolean isValid() {
+			return valid;
+		}
+	}
+}
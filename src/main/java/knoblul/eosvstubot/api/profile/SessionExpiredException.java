@@ -31,4 +31,8 @@ public class SessionExpiredException extends IOException {
 	public SessionExpiredException(@NotNull Profile profile) {
 		super("Session for " + profile + " expired");
 	}
+
+	public SessionExpiredException(@NotNull String username) {
+		super("Session for " + username + " expired");
+	}
 }
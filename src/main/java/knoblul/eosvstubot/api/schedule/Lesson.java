@@ -15,6 +15,7 @@
  */
 package knoblul.eosvstubot.api.schedule;
 
+import knoblul.eosvstubot.utils.LocalClock;
 import knoblul.eosvstubot.utils.TimeUtils;
 
 import java.util.Calendar;
@@ -69,6 +70,12 @@ public class Lesson {
 	 */
 	private boolean silentMode;
 
+	/**
+	 * Группа, у которой идет этот предмет. Пустая строка означает,
+	 * что предмет общий и в его чат заходят все профили.
+	 */
+	private String group = "";
+
 	public long getScheduleTime() {
 		return scheduleTime;
 	}
@@ -125,16 +132,42 @@ public class Lesson {
 		this.silentMode = silentMode;
 	}
 
+	public String getGroup() {
+		return group;
+	}
+
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	/**
+	 * @return смещение начала предмета от начала недели (локального), в миллисекундах
+	 */
+	public long getWeekOffset() {
+		return TimeUtils.convertUTCtoLocal(scheduleTime);
+	}
+
+	/**
+	 * @return время начала предмета на текущей неделе (как {@link System#currentTimeMillis()})
+	 */
+	public long getStartTime() {
+		return LocalClock.getWeekStart(System.currentTimeMillis()) + getWeekOffset();
+	}
+
+	/**
+	 * @return время конца предмета на текущей неделе (как {@link System#currentTimeMillis()})
+	 */
+	public long getEndTime() {
+		return getStartTime() + duration;
+	}
+
+	/**
+	 * @return календарь, указывающий на начало предмета на текущей неделе.
+	 * Нужен только интерфейсу - в логике бота используется {@link #getStartTime()}.
+	 */
 	public Calendar getRelativeCalendar() {
 		Calendar calendar = Calendar.getInstance();
-		calendar.set(Calendar.HOUR_OF_DAY, 0);
-		calendar.clear(Calendar.MINUTE);
-		calendar.clear(Calendar.SECOND);
-		calendar.clear(Calendar.MILLISECOND);
-		calendar.set(Calendar.DAY_OF_WEEK, calendar.getFirstDayOfWeek());
-
-		long utcTime = calendar.getTimeInMillis() + TimeUtils.convertUTCtoLocal(getScheduleTime());
-		calendar.setTimeInMillis(utcTime);
+		calendar.setTimeInMillis(getStartTime());
 		return calendar;
 	}
 }
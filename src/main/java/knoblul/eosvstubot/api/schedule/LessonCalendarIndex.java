@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.schedule;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import knoblul.eosvstubot.utils.TimeUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Индекс расписания по временным слотам.
+ * Неделя разбивается на слоты по {@link #SLOT_DURATION}, и в каждый слот
+ * записываются все предметы, которые идут хотя бы часть этого слота.
+ * Поиск текущих предметов сводится к взятию слота по времени и проверке
+ * нескольких предметов, которые в него попали, вместо прохода по всему расписанию.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 10:12
+ * @author Knoblul
+ */
+class LessonCalendarIndex {
+	/**
+	 * Продолжительность одного слота, в миллисекундах.
+	 */
+	static final long SLOT_DURATION = TimeUnit.MINUTES.toMillis(5);
+
+	private static final long WEEK_DURATION = TimeUnit.DAYS.toMillis(7);
+	private static final int SLOTS_PER_WEEK = (int) (WEEK_DURATION / SLOT_DURATION);
+
+	/**
+	 * Слоты индекса. Ключ - индекс недели, значение - массив слотов этой недели.
+	 */
+	private final Map<Integer, List<Lesson>[]> weekSlots;
+
+	/**
+	 * Версия расписания, по которой был построен индекс.
+	 */
+	private final int version;
+
+	/**
+	 * Смещение UTC-времени относительно локального, с которым был построен индекс.
+	 * Если смещение поменялось (например, при переходе на летнее время или после
+	 * уточнения NTP-смещения), то индекс нужно построить заново.
+	 */
+	private final long localOffset;
+
+	LessonCalendarIndex(@NotNull Map<Integer, List<Lesson>> lessons, int version) {
+		this.version = version;
+		this.localOffset = TimeUtils.convertUTCtoLocal(0);
+		this.weekSlots = Maps.newHashMap();
+		lessons.forEach((weekIndex, weekLessons) -> {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			List<Lesson>[] slots = new List[SLOTS_PER_WEEK];
+			for (Lesson lesson : weekLessons) {
+				long start = lesson.getWeekOffset();
+				long end = start + lesson.getDuration();
+				int firstSlot = (int) Math.max(0, start / SLOT_DURATION);
+				int lastSlot = (int) Math.min(SLOTS_PER_WEEK - 1, (end - 1) / SLOT_DURATION);
+				for (int slot = firstSlot; slot <= lastSlot; slot++) {
+					if (slots[slot] == null) {
+						slots[slot] = Lists.newArrayListWithCapacity(1);
+					}
+					slots[slot].add(lesson);
+				}
+			}
+			weekSlots.put(weekIndex, slots);
+		});
+	}
+
+	/**
+	 * @param version текущая версия расписания
+	 * @return <code>true</code>, если индекс построен по актуальному расписанию
+	 * и с актуальным смещением времени
+	 */
+	boolean isValid(int version) {
+		return this.version == version && localOffset == TimeUtils.convertUTCtoLocal(0);
+	}
+
+	/**
+	 * Находит все предметы, которые идут в указанное время.
+	 * @param weekIndex индекс недели
+	 * @param timeOfWeek время, прошедшее с начала недели, в миллисекундах
+	 * @return список предметов, которые идут в указанное время
+	 */
+	@NotNull
+	List<Lesson> getLessons(int weekIndex, long timeOfWeek) {
+		List<Lesson>[] slots = weekSlots.get(weekIndex);
+		if (slots == null || timeOfWeek < 0 || timeOfWeek >= WEEK_DURATION) {
+			return Collections.emptyList();
+		}
+
+		List<Lesson> slotLessons = slots[(int) (timeOfWeek / SLOT_DURATION)];
+		if (slotLessons == null) {
+			return Collections.emptyList();
+		}
+
+		List<Lesson> result = Lists.newArrayListWithCapacity(slotLessons.size());
+		for (Lesson lesson : slotLessons) {
+			long start = lesson.getWeekOffset();
+			// урок идет, если его начало уже прошло, а конец еще не наступил
+			if (timeOfWeek > start && timeOfWeek < start + lesson.getDuration()) {
+				result.add(lesson);
+			}
+		}
+		return result;
+	}
+}
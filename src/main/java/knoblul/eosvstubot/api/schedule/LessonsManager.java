@@ -20,6 +20,7 @@ import com.google.common.collect.Maps;
 import com.google.gson.*;
 import knoblul.eosvstubot.api.BotContext;
 import knoblul.eosvstubot.api.BotHandler;
+import knoblul.eosvstubot.utils.LocalClock;
 import knoblul.eosvstubot.utils.Log;
 import org.jetbrains.annotations.NotNull;
 
@@ -29,9 +30,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Этот класс предназначен для управления расписанием.
@@ -64,6 +65,18 @@ public class LessonsManager implements BotHandler {
 	 */
 	private int firstWeekOfYearIndex;
 
+	/**
+	 * Версия расписания. Увеличивается при любом изменении расписания,
+	 * по ней проверяется актуальность {@link #calendarIndex}.
+	 */
+	private final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * Индекс расписания по временным слотам.
+	 * Перестраивается лениво, при изменении {@link #version}.
+	 */
+	private volatile LessonCalendarIndex calendarIndex;
+
 	public LessonsManager(BotContext context) {
 		this.context = context;
 		this.scheduleFile = Paths.get("schedule.json");
@@ -96,12 +109,14 @@ public class LessonsManager implements BotHandler {
 				Log.warn(e, "Failed to load %s", scheduleFile);
 			}
 		}
+		invalidate();
 	}
 
 	/**
 	 * Сериализует все расписание в json-файл.
 	 */
 	public void save() {
+		invalidate();
 		try (BufferedWriter writer = Files.newBufferedWriter(scheduleFile)) {
 			JsonObject object = new JsonObject();
 			JsonArray array = new JsonArray();
@@ -118,13 +133,36 @@ public class LessonsManager implements BotHandler {
 		return context;
 	}
 
+	/**
+	 * Отмечает расписание измененным. Должно вызываться после любого
+	 * изменения предметов, иначе изменения не попадут в индекс расписания.
+	 * {@link #save()} вызывает этот метод сам.
+	 */
+	public void invalidate() {
+		version.incrementAndGet();
+	}
+
+	/**
+	 * @return версия расписания, которая меняется при любом изменении предметов
+	 */
+	public int getVersion() {
+		return version.get();
+	}
+
 	/**
 	 * @return индекс текущей недели (индекс/номер недели в
 	 * данную миллисекунду текущего времени)
 	 */
 	public int getCurrentWeekIndex() {
-		return (Calendar.getInstance().get(Calendar.WEEK_OF_YEAR) +
-				firstWeekOfYearIndex - 1) % 2;
+		return getWeekIndex(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param time время (как {@link System#currentTimeMillis()})
+	 * @return индекс недели, в которую попадает указанное время
+	 */
+	private int getWeekIndex(long time) {
+		return (LocalClock.getWeekOfYear(time) + firstWeekOfYearIndex - 1) % 2;
 	}
 
 	public int getFirstWeekOfYearIndex() {
@@ -140,24 +178,35 @@ public class LessonsManager implements BotHandler {
 	 * текущего времени и текущей недели.
 	 */
 	public Lesson getCurrentLesson() {
-		Calendar currentCalendar = Calendar.getInstance();
-		int currentWeekIndex = getCurrentWeekIndex();
-		List<Lesson> lessons = getWeekLessons(currentWeekIndex);
-		for (Lesson lesson: lessons) {
-			long lessonDuration = lesson.getDuration();
-			Calendar lessonStartCalendar = lesson.getRelativeCalendar();
-
-			// находим время, которое прошло с момента конца урока.
-			// если время меньше lessonDuration, то урок идет. Если больше, то
-			// timeDifference-lessonDuration это время, которое остается до начала урока.
-			// если timeDifference меньше нуля, то урок уже прошел.
-			long timeDifference = lessonStartCalendar.getTimeInMillis() + lessonDuration
-					- currentCalendar.getTimeInMillis();
-			if (timeDifference > 0 && timeDifference < lessonDuration) {
-				return lesson;
-			}
+		List<Lesson> currentLessons = getCurrentLessons();
+		return !currentLessons.isEmpty() ? currentLessons.get(0) : null;
+	}
+
+	/**
+	 * @return список всех предметов, которые идут в данную миллисекунду
+	 * текущего времени и текущей недели. Если несколько предметов
+	 * пересекаются по времени (например, у разных групп), то в списке
+	 * будут все пересекающиеся предметы.
+	 */
+	@NotNull
+	public List<Lesson> getCurrentLessons() {
+		return getLessons(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param time время (как {@link System#currentTimeMillis()})
+	 * @return список всех предметов, которые идут в указанное время. Нужен, например,
+	 * чтобы заранее подготовиться к предметам, которые скоро начнутся.
+	 */
+	@NotNull
+	public List<Lesson> getLessons(long time) {
+		int currentVersion = version.get();
+		LessonCalendarIndex index = calendarIndex;
+		if (index == null || !index.isValid(currentVersion)) {
+			calendarIndex = index = new LessonCalendarIndex(lessons, currentVersion);
 		}
-		return null;
+
+		return index.getLessons(getWeekIndex(time), time - LocalClock.getWeekStart(time));
 	}
 
 	/**
@@ -184,11 +233,13 @@ public class LessonsManager implements BotHandler {
 
 	public void removeLesson(@NotNull Lesson lesson) {
 		getWeekLessons(lesson.getWeekIndex()).remove(lesson);
+		invalidate();
 	}
 
 	public Lesson createLesson(int weekIndex) {
 		Lesson lesson = new Lesson();
 		getWeekLessons(weekIndex).add(lesson);
+		invalidate();
 		return lesson;
 	}
 }
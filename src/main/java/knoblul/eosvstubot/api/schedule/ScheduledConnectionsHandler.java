@@ -16,6 +16,8 @@
 package knoblul.eosvstubot.api.schedule;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
@@ -24,13 +26,16 @@ import knoblul.eosvstubot.api.BotContext;
 import knoblul.eosvstubot.api.BotHandler;
 import knoblul.eosvstubot.api.chat.ChatConnection;
 import knoblul.eosvstubot.api.chat.ChatSession;
+import knoblul.eosvstubot.api.chat.listening.ChatConnectionListener;
 import knoblul.eosvstubot.api.profile.Profile;
 import knoblul.eosvstubot.api.profile.ProfileManager;
 import knoblul.eosvstubot.api.scripting.Script;
+import knoblul.eosvstubot.api.timer.TimerWheel;
 import knoblul.eosvstubot.utils.Log;
 import knoblul.eosvstubot.utils.swing.DialogUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -39,7 +44,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 /**
@@ -50,6 +58,10 @@ import java.util.function.Consumer;
  * чтобы избежать такие моменты как:
  * "выключил программу/выключили интернет когда профили были подключены к чату,
  * потом включил/включили и они опять написали свои фразы"
+ * <p>Каждый чат, пара в котором идет в данный момент, обслуживается
+ * отдельным шардом {@link ScheduledChat}, который хранит свою чат-сессию
+ * и свои подключения по расписанию. Благодаря этому, пересекающиеся
+ * пары (например, у разных групп) обслуживаются одновременно.</p>
  *
  * <br><br>Module: eos-vstu-bot
  * <br>Created: 25.04.2020 12:15
@@ -57,12 +69,69 @@ import java.util.function.Consumer;
  * @author Knoblul
  */
 public class ScheduledConnectionsHandler implements BotHandler {
+	/**
+	 * Через сколько миллисекунд повторять попытку подключения, если
+	 * в запланированное время профиль был недействителен.
+	 */
+	private static final long JOIN_RETRY_DELAY = 1000;
+
+	/**
+	 * За сколько миллисекунд до начала пары по умолчанию начинается прогрев:
+	 * проверка сессий профилей, назначенных на пару.
+	 */
+	public static final long DEFAULT_WARM_UP_TIME = 2 * 60 * 1000;
+
+	/**
+	 * За сколько миллисекунд до входа в чат запрашивается конфигурация чата
+	 * (см. {@link ChatSession#prefetchConfiguration(Profile)}). Сервер забывает
+	 * пользователя, который не пингует чат, поэтому заранее запрашивать конфигурацию нельзя.
+	 */
+	private static final long CONFIGURATION_PREFETCH_LEAD = 10 * 1000;
+
 	private final BotContext context;
 	private final Path chatFile;
 
+	/**
+	 * Список всех подключений по расписанию из всех шардов.
+	 * Именно этот список сериализуется в {@link #chatFile}.
+	 */
 	private List<ScheduledConnection> scheduledConnections = Lists.newArrayList();
-	private ChatSession currentChatSession;
-	private Consumer<ChatSession> onSessionChangedCallback;
+
+	/**
+	 * Шарды подключений по расписанию. Ключ - ссылка на index.php чата.
+	 */
+	private Map<String, ScheduledChat> scheduledChats = Maps.newLinkedHashMap();
+
+	/**
+	 * Индекс подключений по расписанию по их чат-подключениям.
+	 * Нужен листенерам чат-сессий, чтобы за O(1) находить подключение по расписанию,
+	 * от которого пришло событие.
+	 */
+	private Map<ChatConnection, ScheduledConnection> connectionIndex = Maps.newIdentityHashMap();
+
+	/**
+	 * Время начала пар, для которых уже начат прогрев. Ключ - ссылка на index.php чата.
+	 */
+	private Map<String, Long> warmedUpLessons = Maps.newHashMap();
+
+	/**
+	 * За сколько миллисекунд до начала пары начинается прогрев.
+	 */
+	private long warmUpTime = DEFAULT_WARM_UP_TIME;
+
+	/**
+	 * Последний опубликованный снимок подключений для потока свинга.
+	 * Заменяется целиком в {@link #publishSnapshot()}.
+	 */
+	private volatile ScheduledConnectionsSnapshot snapshot = ScheduledConnectionsSnapshot.EMPTY;
+
+	/**
+	 * <code>true</code>, если подключения изменились после публикации {@link #snapshot}.
+	 */
+	private boolean snapshotDirty;
+
+	private Consumer<ChatSession> onSessionStartedCallback;
+	private Consumer<ChatSession> onSessionEndedCallback;
 
 	@SuppressWarnings("unused")
 	public ScheduledConnectionsHandler(BotContext context) {
@@ -75,6 +144,24 @@ public class ScheduledConnectionsHandler implements BotHandler {
 		Log.info("[ScheduledConnections] " + msg, args);
 	}
 
+	/**
+	 * @param lesson предмет
+	 * @return ссылка на index.php чата, в котором идет указанный предмет
+	 */
+	@NotNull
+	public static String getChatLink(@NotNull Lesson lesson) {
+		return getChatLink(lesson.getChatId());
+	}
+
+	/**
+	 * @param chatId айди чата
+	 * @return ссылка на index.php чата с указанным айди
+	 */
+	@NotNull
+	public static String getChatLink(@NotNull String chatId) {
+		return "http://" + BotConstants.SITE_DOMAIN + "/mod/chat/gui_ajax/index.php?id=" + chatId;
+	}
+
 	private void load() {
 		if (Files.exists(chatFile)) {
 			try (BufferedReader reader = Files.newBufferedReader(chatFile)) {
@@ -83,8 +170,9 @@ public class ScheduledConnectionsHandler implements BotHandler {
 					for (JsonElement element : array) {
 						ScheduledConnection acc = BotContext.GSON.fromJson(element, ScheduledConnection.class);
 						if (acc != null) {
-							acc.setHandler(this);
-							scheduledConnections.add(acc);
+							// шард без чат-сессии. Если пара в этом чате уже не идет,
+							// то шард будет удален при первом же обновлении
+							getScheduledChat(acc.chatLink).addConnection(acc);
 							message("Loaded scheduled connection for %s. Planned time: %s", acc.username,
 									new SimpleDateFormat("dd.MM.YYYY HH:mm:ss").format(acc.scheduledJoinTime));
 						}
@@ -110,149 +198,401 @@ public class ScheduledConnectionsHandler implements BotHandler {
 		return context;
 	}
 
-	public void setOnSessionChangedCallback(Consumer<ChatSession> onSessionChangedCallback) {
-		this.onSessionChangedCallback = onSessionChangedCallback;
+	/**
+	 * @param onSessionStartedCallback коллбек, который вызывается при создании
+	 *                                 чат-сессии одного из шардов
+	 */
+	public void setOnSessionStartedCallback(Consumer<ChatSession> onSessionStartedCallback) {
+		this.onSessionStartedCallback = onSessionStartedCallback;
+	}
+
+	/**
+	 * @param onSessionEndedCallback коллбек, который вызывается после удаления
+	 *                               чат-сессии одного из шардов
+	 */
+	public void setOnSessionEndedCallback(Consumer<ChatSession> onSessionEndedCallback) {
+		this.onSessionEndedCallback = onSessionEndedCallback;
+	}
+
+	public long getWarmUpTime() {
+		return warmUpTime;
+	}
+
+	/**
+	 * @param warmUpTime за сколько миллисекунд до начала пары начинать прогрев. 0 отключает прогрев.
+	 */
+	public void setWarmUpTime(long warmUpTime) {
+		this.warmUpTime = Math.max(warmUpTime, 0);
 	}
 
 	@NotNull
-	private ScheduledConnectionsHandler.ScheduledConnection createAutomaticConnection(@NotNull Lesson currentLesson,
-																					  @NotNull Profile profile) {
-		ScheduledConnection acc = new ScheduledConnection();
-		acc.username = profile.getUsername();
-		acc.profile = profile;
-		acc.chatLink = currentChatSession.getChatIndexLink();
-		long lessonStartTime = currentLesson.getRelativeCalendar().getTimeInMillis();
-		acc.scheduledJoinTime = lessonStartTime + RandomUtils.nextLong(0, profile.getMaximumLateTime() + 1);
-		acc.setHandler(this);
-		message("Created scheduled connection for %s. Planned time: %s", profile.getUsername(),
-				new SimpleDateFormat("dd.MM.YYYY HH:mm:ss").format(acc.scheduledJoinTime));
-		save();
-		return acc;
+	private ScheduledChat getScheduledChat(@NotNull String chatLink) {
+		return scheduledChats.computeIfAbsent(chatLink, k -> new ScheduledChat(this, k));
 	}
 
-	private void setLesson(Lesson lesson) {
-		if (lesson == null) {
-			if (currentChatSession != null) {
-				currentChatSession.destroy();
+	@Override
+	public void update() {
+		List<Lesson> currentLessons = context.getLessonsManager().getCurrentLessons();
+		Set<String> activeChatLinks = Sets.newHashSet();
+		for (Lesson lesson : currentLessons) {
+			String chatLink = getChatLink(lesson);
+			// если в одном чате идут сразу несколько пар, то чат обслуживается одним шардом
+			if (activeChatLinks.add(chatLink)) {
+				getScheduledChat(chatLink).update(lesson);
 			}
+		}
 
-			if (!scheduledConnections.isEmpty()) {
-				scheduledConnections.forEach(ScheduledConnection::destroy);
-				scheduledConnections.clear();
-				save();
+		// удаляем шарды, пары в которых закончились
+		Iterator<ScheduledChat> iterator = scheduledChats.values().iterator();
+		while (iterator.hasNext()) {
+			ScheduledChat chat = iterator.next();
+			if (!activeChatLinks.contains(chat.chatLink)) {
+				iterator.remove();
+				chat.destroy();
 			}
+		}
 
-			if (currentChatSession != null) {
-				if (onSessionChangedCallback != null) {
-					onSessionChangedCallback.accept(null);
-				}
-				currentChatSession = null;
+		if (warmUpTime > 0) {
+			warmUpUpcomingLessons(activeChatLinks);
+		}
+
+		if (snapshotDirty) {
+			publishSnapshot();
+		}
+	}
+
+	/**
+	 * Публикует новый снимок подключений по расписанию.
+	 * Эта функция должна вызываться только из основного потока.
+	 */
+	private void publishSnapshot() {
+		snapshotDirty = false;
+		List<ScheduledConnectionsSnapshot.Entry> entries = Lists.newArrayListWithCapacity(scheduledConnections.size());
+		for (ScheduledConnection sc : scheduledConnections) {
+			entries.add(new ScheduledConnectionsSnapshot.Entry(sc, sc.username));
+		}
+		snapshot = new ScheduledConnectionsSnapshot(snapshot.getVersion() + 1, entries);
+	}
+
+	/**
+	 * Можно вызывать из любого потока.
+	 * @return последний опубликованный неизменяемый снимок подключений по расписанию
+	 */
+	@NotNull
+	public ScheduledConnectionsSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Начинает прогрев пар, которые начнутся в ближайшие {@link #warmUpTime} миллисекунд:
+	 * сессии назначенных профилей проверяются заранее, равномерно в первой половине окна
+	 * прогрева, чтобы не нагружать сайт всплеском запросов. Проверки асинхронные
+	 * (см. {@link ProfileManager#refreshProfileAsync(Profile)}), поэтому медленный сайт
+	 * не останавливает чаты пар, которые идут в это время.
+	 * Конфигурация чата запрашивается позже, незадолго до входа каждого профиля
+	 * (см. {@link ScheduledConnection#scheduleJoin()}).
+	 * @param activeChatLinks ссылки на чаты, пары в которых уже идут
+	 */
+	private void warmUpUpcomingLessons(Set<String> activeChatLinks) {
+		long currentTime = System.currentTimeMillis();
+		for (Lesson lesson : context.getLessonsManager().getLessons(currentTime + warmUpTime)) {
+			String chatLink = getChatLink(lesson);
+			long startTime = lesson.getStartTime();
+			if (activeChatLinks.contains(chatLink) || startTime <= currentTime
+					|| Long.valueOf(startTime).equals(warmedUpLessons.get(chatLink))) {
+				continue;
+			}
+			warmedUpLessons.put(chatLink, startTime);
+
+			ProfileManager profileManager = context.getProfileManager();
+			List<Profile> profiles = profileManager.getAssignedProfiles(lesson);
+			message("Warming up %d profile(s) for chat %s", profiles.size(), chatLink);
+			long window = (startTime - currentTime) / 2;
+			for (int i = 0; i < profiles.size(); i++) {
+				Profile profile = profiles.get(i);
+				context.getTimerWheel().schedule(window * i / profiles.size(),
+						() -> profileManager.refreshProfileAsync(profile));
 			}
-			return;
 		}
 
-		String chatLink = "http://" + BotConstants.SITE_DOMAIN + "/mod/chat/gui_ajax/index.php?id="
-				+ lesson.getChatId();
-		if (currentChatSession == null || !currentChatSession.getChatIndexLink().equals(chatLink)) {
-			if (currentChatSession != null && !currentChatSession.getChatIndexLink().equals(chatLink)) {
-				scheduledConnections.forEach(ScheduledConnection::destroy);
-				scheduledConnections.clear();
-				save();
+		// прогрев начавшихся пар больше не нужен
+		warmedUpLessons.values().removeIf(startTime -> startTime <= currentTime);
+	}
+
+	@Override
+	public void reconnect() {
+		// грубо удаляем инстансы подключений, чтобы реконнектнуть всех ботов
+		scheduledConnections.forEach(sc -> {
+			if (sc.connection != null) {
+				sc.connection.destroy();
+				sc.setConnection(null);
+				// время входа уже прошло, так что таймер сработает сразу
+				sc.scheduleJoin();
 			}
+		});
+		publishSnapshot();
+	}
+
+	/**
+	 * Изменяемый список, который можно читать только из основного потока.
+	 * Интерфейс должен использовать {@link #getSnapshot()}.
+	 * @return список всех подключений по расписанию из всех шардов
+	 */
+	public List<ScheduledConnection> getScheduledConnections() {
+		return scheduledConnections;
+	}
+
+	/**
+	 * Находит подключение по расписанию по его чат-подключению.
+	 * @param connection чат-подключение
+	 * @return подключение по расписанию, которому принадлежит указанное
+	 * чат-подключение, либо <code>null</code>
+	 */
+	@Nullable
+	public ScheduledConnection getScheduledConnection(@NotNull ChatConnection connection) {
+		return connectionIndex.get(connection);
+	}
+
+	/**
+	 * @return все шарды, которые обслуживаются в данный момент
+	 */
+	public Iterable<ScheduledChat> getScheduledChats() {
+		return scheduledChats.values();
+	}
 
-			if (currentChatSession != null) {
-				currentChatSession.destroy();
+	/**
+	 * Находит шард по его чат-сессии.
+	 * @param session чат-сессия шарда
+	 * @return шард, которому принадлежит указанная чат-сессия, либо <code>null</code>
+	 */
+	@Nullable
+	public ScheduledChat getScheduledChat(@NotNull ChatSession session) {
+		ScheduledChat chat = scheduledChats.get(session.getChatIndexLink());
+		return chat != null && chat.session == session ? chat : null;
+	}
+
+	/**
+	 * Шард подключений по расписанию - обслуживает один чат.
+	 * Хранит чат-сессию, предмет, который идет в этом чате, и
+	 * подключения по расписанию к этому чату.
+	 */
+	public static class ScheduledChat {
+		private final ScheduledConnectionsHandler handler;
+		private final String chatLink;
+		private final List<ScheduledConnection> connections = Lists.newArrayList();
+
+		/**
+		 * Индекс подключений по расписанию этого шарда по логину профиля.
+		 */
+		private final Map<String, ScheduledConnection> connectionsByUsername = Maps.newHashMap();
+
+		private Lesson lesson;
+		private ChatSession session;
+
+		/**
+		 * Версия списка профилей, по которой были назначены подключения.
+		 * Профили переназначаются только при смене предмета или изменении профилей,
+		 * а не при каждом обновлении.
+		 */
+		private int assignedProfilesVersion = -1;
+
+		private ScheduledChat(ScheduledConnectionsHandler handler, String chatLink) {
+			this.handler = handler;
+			this.chatLink = chatLink;
+		}
+
+		private void addConnection(ScheduledConnection sc) {
+			ScheduledConnection previous = connectionsByUsername.put(sc.username, sc);
+			if (previous != null) {
+				// дубликат в сохраненном состоянии - оставляем только последнее подключение
+				connections.remove(previous);
+				handler.scheduledConnections.remove(previous);
+				previous.destroy();
 			}
-			currentChatSession = context.createChatSession(chatLink);
-			currentChatSession.setMessageSendingDisabled(lesson.isSilentMode());
-			currentChatSession.addChatActionListener((connection, action) -> {
-				for (ScheduledConnection sc : scheduledConnections) {
-					if (sc.connection == connection) {
-						// выполняем onChatAction на чат-скрипте пользователя
-						Profile profile = sc.profile;
-						Script script = profile.getChatScript();
-						try {
-							script.invokeFunction("onChatAction", connection, action);
-						} catch (NoSuchMethodException ignored) {
-							// noop
-						} catch (Throwable t) {
-							t.printStackTrace();
-						}
+
+			sc.setChat(this);
+			connections.add(sc);
+			handler.scheduledConnections.add(sc);
+			handler.snapshotDirty = true;
+		}
+
+		private void removeConnection(ScheduledConnection sc) {
+			connectionsByUsername.remove(sc.username, sc);
+			handler.scheduledConnections.remove(sc);
+			handler.snapshotDirty = true;
+			sc.destroy();
+		}
+
+		@NotNull
+		private ScheduledConnection createAutomaticConnection(@NotNull Profile profile) {
+			ScheduledConnection acc = new ScheduledConnection();
+			acc.username = profile.getUsername();
+			acc.profile = profile;
+			acc.chatLink = chatLink;
+			long lessonStartTime = lesson.getStartTime();
+			acc.scheduledJoinTime = lessonStartTime + RandomUtils.nextLong(0, profile.getMaximumLateTime() + 1);
+			message("Created scheduled connection for %s. Planned time: %s", profile.getUsername(),
+					new SimpleDateFormat("dd.MM.YYYY HH:mm:ss").format(acc.scheduledJoinTime));
+			return acc;
+		}
+
+		private void createSession() {
+			BotContext context = handler.context;
+			session = context.createChatSession(chatLink);
+			// листенер регистрируется первым, чтобы листенеры интерфейса,
+			// добавленные в onSessionStartedCallback, уже видели новый снимок
+			session.addChatConnectionListener(new ChatConnectionListener() {
+				@Override
+				public void connected(ChatConnection connection) {
+					handler.publishSnapshot();
+				}
+
+				@Override
+				public void error(ChatConnection connection, Throwable error) {
+					handler.publishSnapshot();
+				}
+			});
+			session.addChatActionListener((connection, action) -> {
+				ScheduledConnection sc = handler.connectionIndex.get(connection);
+				if (sc != null && sc.chat == this) {
+					// выполняем onChatAction на чат-скрипте пользователя
+					Profile profile = sc.profile;
+					Script script = profile.getChatScript();
+					try {
+						script.invokeFunction("onChatAction", connection, action);
+					} catch (NoSuchMethodException ignored) {
+						// noop
+					} catch (Throwable t) {
+						t.printStackTrace();
 					}
 				}
 			});
-			currentChatSession.addChatConnectionCompletedListener(connection -> {
-				for (ScheduledConnection sc : scheduledConnections) {
-					if (sc.connection == connection && !sc.scriptExecuted) {
-						sc.scriptExecuted = true;
-						// выполняем onConnected на чат-скрипте пользователя
-						Profile profile = sc.profile;
-						Script script = profile.getChatScript();
+			session.addChatConnectionCompletedListener(connection -> {
+				ScheduledConnection sc = handler.connectionIndex.get(connection);
+				if (sc != null && sc.chat == this && !sc.scriptExecuted) {
+					sc.scriptExecuted = true;
+					// выполняем onConnected на чат-скрипте пользователя
+					Profile profile = sc.profile;
+					Script script = profile.getChatScript();
+					try {
+						script.clearBindings();
+						script.putBinding("_context", context);
+						script.putBinding("_chatConnection", connection);
+						script.recompile();
 						try {
-							script.clearBindings();
-							script.putBinding("_context", context);
-							script.putBinding("_chatConnection", connection);
-							script.recompile();
-							try {
-								script.invokeFunction("onConnected", connection);
-							} catch (Throwable t) {
-								DialogUtils.showError("Не могу выполнить скрипт-метод onConnected у "
-										+ profile, t, true);
-							}
+							script.invokeFunction("onConnected", connection);
 						} catch (Throwable t) {
-							DialogUtils.showError("Не могу выполнить скрипт у " + profile,
-									t, true);
+							DialogUtils.showError("Не могу выполнить скрипт-метод onConnected у "
+									+ profile, t, true);
 						}
-						save();
+					} catch (Throwable t) {
+						DialogUtils.showError("Не могу выполнить скрипт у " + profile,
+								t, true);
 					}
+					handler.save();
 				}
 			});
 
-			if (onSessionChangedCallback != null) {
-				onSessionChangedCallback.accept(currentChatSession);
+			if (handler.onSessionStartedCallback != null) {
+				handler.onSessionStartedCallback.accept(session);
 			}
 		}
-	}
 
-	@Override
-	public void update() {
-		ProfileManager profileManager = context.getProfileManager();
-		LessonsManager lessonsManager = context.getLessonsManager();
-		Lesson currentLesson = lessonsManager.getCurrentLesson();
-		if (currentLesson != null) {
-			setLesson(currentLesson);
-			List<Profile> profiles = profileManager.getProfiles();
-			for (Profile profile : profiles) {
-				boolean found = false;
-				for (ScheduledConnection sc : scheduledConnections) {
-					if (sc.username.equals(profile.getUsername())) {
-						found = true;
-						break;
-					}
+		/**
+		 * Создает подключения по расписанию для всех профилей, назначенных
+		 * на предмет этого шарда, у которых подключения еще нет.
+		 */
+		private void assignProfiles() {
+			ProfileManager profileManager = handler.context.getProfileManager();
+			for (Profile profile : profileManager.getAssignedProfiles(lesson)) {
+				if (!connectionsByUsername.containsKey(profile.getUsername())) {
+					addConnection(createAutomaticConnection(profile));
+					handler.save();
 				}
+			}
+		}
 
-				if (!found) {
-					scheduledConnections.add(createAutomaticConnection(currentLesson, profile));
-					save();
+		private void update(@NotNull Lesson lesson) {
+			boolean lessonChanged = this.lesson != lesson;
+			this.lesson = lesson;
+			if (session == null) {
+				createSession();
+			}
+			session.setMessageSendingDisabled(lesson.isSilentMode());
+
+			// подключения проверяются только при смене предмета или изменении профилей,
+			// а само подключение в запланированное время выполняется таймером
+			int profilesVersion = handler.context.getProfileManager().getVersion();
+			if (lessonChanged || assignedProfilesVersion != profilesVersion) {
+				assignedProfilesVersion = profilesVersion;
+				assignProfiles();
+				validateConnections();
+			}
+		}
+
+		/**
+		 * Удаляет подключения, которые больше не нужны, и
+		 * регистрирует таймеры входа для остальных.
+		 */
+		private void validateConnections() {
+			boolean removed = false;
+			Iterator<ScheduledConnection> iterator = connections.iterator();
+			while (iterator.hasNext()) {
+				ScheduledConnection sc = iterator.next();
+				if (sc.update()) {
+					iterator.remove();
+					removeConnection(sc);
+					removed = true;
+				} else {
+					sc.scheduleJoin();
 				}
 			}
 
-			if (scheduledConnections.removeIf(ScheduledConnection::update)) {
-				save();
+			if (removed) {
+				handler.save();
 			}
-		} else {
-			setLesson(null);
 		}
-	}
 
-	@Override
-	public void reconnect() {
-		// грубо обнуляем инстансы подключений, чтобы реконнектнуть всех ботов
-		scheduledConnections.forEach(sc -> sc.connection = null);
-	}
+		private void destroy() {
+			if (session != null) {
+				session.destroy();
+			}
 
-	public List<ScheduledConnection> getScheduledConnections() {
-		return scheduledConnections;
+			if (!connections.isEmpty()) {
+				connections.forEach(this::removeConnection);
+				connections.clear();
+				handler.save();
+			}
+
+			if (session != null) {
+				if (handler.onSessionEndedCallback != null) {
+					handler.onSessionEndedCallback.accept(session);
+				}
+				session = null;
+			}
+		}
+
+		public String getChatLink() {
+			return chatLink;
+		}
+
+		/**
+		 * @return предмет, который идет в этом чате, либо <code>null</code>,
+		 * если шард еще не был обновлен
+		 */
+		@Nullable
+		public Lesson getLesson() {
+			return lesson;
+		}
+
+		@Nullable
+		public ChatSession getSession() {
+			return session;
+		}
+
+		public List<ScheduledConnection> getConnections() {
+			return connections;
+		}
 	}
 
 	/**
@@ -261,7 +601,7 @@ public class ScheduledConnectionsHandler implements BotHandler {
 	 * профиль и сериализуемые переменные.
 	 */
 	public static class ScheduledConnection {
-		private transient ScheduledConnectionsHandler handler;
+		private transient ScheduledChat chat;
 		private transient ChatConnection connection;
 
 		private String username = "";
@@ -270,50 +610,127 @@ public class ScheduledConnectionsHandler implements BotHandler {
 		private String chatLink = "";
 		private boolean scriptExecuted = false;
 
-		public void setHandler(ScheduledConnectionsHandler handler) {
-			this.handler = handler;
+		/**
+		 * Таймер входа в чат в {@link #scheduledJoinTime}.
+		 */
+		private transient TimerWheel.Timeout joinTimeout;
+
+		/**
+		 * Таймер получения конфигурации чата перед входом (см. {@link #CONFIGURATION_PREFETCH_LEAD}).
+		 */
+		private transient TimerWheel.Timeout prefetchTimeout;
+
+		public void setChat(ScheduledChat chat) {
+			this.chat = chat;
+		}
+
+		/**
+		 * Устанавливает чат-подключение, поддерживая индекс подключений хандлера.
+		 */
+		private void setConnection(@Nullable ChatConnection connection) {
+			Map<ChatConnection, ScheduledConnection> connectionIndex = chat.handler.connectionIndex;
+			if (this.connection != null) {
+				connectionIndex.remove(this.connection, this);
+			}
+			this.connection = connection;
+			if (connection != null) {
+				connectionIndex.put(connection, this);
+			}
+			chat.handler.snapshotDirty = true;
 		}
 
 		private void connect() {
 			message("Connecting %s...", username);
-			connection = handler.currentChatSession.createConnection(profile);
+			setConnection(chat.session.createConnection(profile));
 		}
 
-		private boolean update() {
-			if (handler == null) {
-				return true;
+		/**
+		 * Регистрирует таймер входа в чат, если подключения еще нет
+		 * и таймер еще не зарегистрирован.
+		 */
+		private void scheduleJoin() {
+			if (chat == null || connection != null || (joinTimeout != null && !joinTimeout.isCancelled())) {
+				return;
 			}
 
-			BotContext context = handler.context;
-			ChatSession session = handler.currentChatSession;
+			TimerWheel timerWheel = chat.handler.context.getTimerWheel();
+			joinTimeout = timerWheel.scheduleAt(scheduledJoinTime, this::onJoinTime);
 
-			profile = context.getProfileManager().getProfile(username);
-			if (profile == null || chatLink.isEmpty() || (session != null &&
-					!session.getChatIndexLink().equals(chatLink))) {
-				destroy();
-				return true;
+			long prefetchTime = scheduledJoinTime - CONFIGURATION_PREFETCH_LEAD;
+			if (prefetchTime > System.currentTimeMillis() && prefetchTimeout == null) {
+				prefetchTimeout = timerWheel.scheduleAt(prefetchTime, this::onPrefetchTime);
+			}
+		}
+
+		/**
+		 * Срабатывает незадолго до входа в чат и заранее получает конфигурацию чата,
+		 * чтобы вход выполнился одним запросом action=init.
+		 */
+		private void onPrefetchTime() {
+			prefetchTimeout = null;
+			if (chat != null && connection == null && chat.session != null && profile != null && profile.isValid()) {
+				chat.session.prefetchConfiguration(profile);
+			}
+		}
+
+		/**
+		 * Срабатывает в запланированное время входа в чат. Если профиль еще недействителен
+		 * (или сессия еще не создана), то повторяет попытку через {@link #JOIN_RETRY_DELAY}.
+		 */
+		private void onJoinTime() {
+			joinTimeout = null;
+			if (chat == null || connection != null) {
+				return;
 			}
 
-			if (connection == null && System.currentTimeMillis() > scheduledJoinTime
-					&& session != null && profile.isValid()) {
+			if (chat.session != null && profile != null && profile.isValid()) {
 				connect();
+			} else {
+				joinTimeout = chat.handler.context.getTimerWheel().schedule(JOIN_RETRY_DELAY, this::onJoinTime);
+			}
+		}
+
+		/**
+		 * Обновляет профиль подключения. Вызывается только при смене предмета
+		 * или изменении профилей.
+		 * @return <code>true</code>, если это подключение по расписанию
+		 * больше не нужно и его следует удалить из шарда.
+		 */
+		private boolean update() {
+			if (chat == null) {
+				return true;
 			}
 
-			return false;
+			BotContext context = chat.handler.context;
+			profile = context.getProfileManager().getProfile(username);
+			return profile == null || chatLink.isEmpty() || !profile.isAssignedTo(chat.lesson);
 		}
 
 		private void destroy() {
 			message("Removed scheduled connection for %s", username);
 
-			handler = null;
-			profile = null;
-			username = "";
-			chatLink = "";
-			scheduledJoinTime = 0;
+			if (joinTimeout != null) {
+				joinTimeout.cancel();
+				joinTimeout = null;
+			}
+
+			if (prefetchTimeout != null) {
+				prefetchTimeout.cancel();
+				prefetchTimeout = null;
+			}
+
 			if (connection != null) {
 				connection.destroy();
+				if (chat != null) {
+					setConnection(null);
+				}
 				connection = null;
 			}
+			chat = null;
+			profile = null;
+			username = "";
+			chatLink = "";
+			scheduledJoinTime = 0;
 		}
 
 		public ChatConnection getConnection() {
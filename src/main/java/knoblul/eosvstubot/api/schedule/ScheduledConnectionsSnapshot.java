@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.schedule;
+
+import com.google.common.collect.ImmutableList;
+import knoblul.eosvstubot.api.chat.ChatConnection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Неизменяемый снимок подключений по расписанию и состояний их чат-подключений
+ * для потока свинга. {@link ScheduledConnectionsHandler} публикует новый снимок
+ * после каждого изменения подключений, поэтому модели интерфейса не читают
+ * изменяемые списки хандлера и получают элементы за O(1).
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 23:25
+ * @author Knoblul
+ */
+public class ScheduledConnectionsSnapshot {
+	static final ScheduledConnectionsSnapshot EMPTY = new ScheduledConnectionsSnapshot(0, ImmutableList.of());
+
+	/**
+	 * Состояние подключения по расписанию на момент снимка.
+	 */
+	public enum State {
+		/**
+		 * Чат-подключения еще нет, профиль ждет времени входа.
+		 */
+		SCHEDULED,
+
+		/**
+		 * Чат-подключение создано и работает (или подключается).
+		 */
+		CONNECTED,
+
+		/**
+		 * Чат-подключение создано, но недействительно.
+		 */
+		INVALID,
+	}
+
+	private final long version;
+	private final ImmutableList<Entry> entries;
+
+	/**
+	 * Подключения по расписанию, у которых есть чат-подключение.
+	 */
+	private final ImmutableList<Entry> joinedEntries;
+
+	private final boolean anyConnected;
+
+	ScheduledConnectionsSnapshot(long version, @NotNull List<Entry> entries) {
+		this.version = version;
+		this.entries = ImmutableList.copyOf(entries);
+
+		ImmutableList.Builder<Entry> joined = ImmutableList.builder();
+		boolean anyConnected = false;
+		for (Entry entry : entries) {
+			if (entry.getState() != State.SCHEDULED) {
+				joined.add(entry);
+			}
+			anyConnected |= entry.getState() == State.CONNECTED;
+		}
+		this.joinedEntries = joined.build();
+		this.anyConnected = anyConnected;
+	}
+
+	/**
+	 * @return порядковый номер снимка. У более нового снимка номер больше.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return все подключения по расписанию из всех шардов
+	 */
+	@NotNull
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return подключения по расписанию, у которых есть чат-подключение
+	 */
+	@NotNull
+	public List<Entry> getJoinedEntries() {
+		return joinedEntries;
+	}
+
+	/**
+	 * @return <code>true</code>, если хотя бы одно чат-подключение действительно
+	 */
+	public boolean isAnyConnected() {
+		return anyConnected;
+	}
+
+	/**
+	 * Находит в этом снимке подключение по расписанию, у которого есть чат-подключение.
+	 * @param scheduledConnection подключение по расписанию
+	 * @return данные подключения из этого снимка, либо <code>null</code>
+	 */
+	@Nullable
+	public Entry findJoinedEntry(@NotNull ScheduledConnectionsHandler.ScheduledConnection scheduledConnection) {
+		for (Entry entry : joinedEntries) {
+			if (entry.getScheduledConnection() == scheduledConnection) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Данные одного подключения по расписанию на момент снимка.
+	 */
+	public static class Entry {
+		private final ScheduledConnectionsHandler.ScheduledConnection scheduledConnection;
+		private final ChatConnection connection;
+		private final String username;
+		private final String displayName;
+		private final State state;
+
+		Entry(@NotNull ScheduledConnectionsHandler.ScheduledConnection scheduledConnection,
+			  @NotNull String username) {
+			this.scheduledConnection = scheduledConnection;
+			this.connection = scheduledConnection.getConnection();
+			this.username = username;
+			if (connection == null) {
+				this.displayName = username;
+				this.state = State.SCHEDULED;
+			} else {
+				this.displayName = connection.getProfile().toString();
+				this.state = connection.isInvalid() ? State.INVALID : State.CONNECTED;
+			}
+		}
+
+		@NotNull
+		public ScheduledConnectionsHandler.ScheduledConnection getScheduledConnection() {
+			return scheduledConnection;
+		}
+
+		/**
+		 * @return чат-подключение на момент снимка, либо <code>null</code>
+		 */
+		@Nullable
+		public ChatConnection getConnection() {
+			return connection;
+		}
+
+		@NotNull
+		public String getUsername() {
+			return username;
+		}
+
+		/**
+		 * @return имя профиля для отображения на момент снимка
+		 */
+		@NotNull
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		@NotNull
+		public State getState() {
+			return state;
+		}
+	}
+}
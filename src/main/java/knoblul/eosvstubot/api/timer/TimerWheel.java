@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.api.timer;
+
+import com.google.common.collect.Lists;
+import knoblul.eosvstubot.utils.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Хешированное колесо таймеров.
+ * Вместо того, чтобы на каждом обновлении проверять все дедлайны
+ * (время входа в чат, время пинга, время сброса подключения), дедлайны
+ * регистрируются в колесе как таймеры, и каждый таймер срабатывает ровно один раз.
+ *
+ * <p>Колесо разбито на {@link #WHEEL_SIZE} ячеек по {@link #TICK_DURATION} миллисекунд.
+ * Таймер кладется в ячейку первого тика, начинающегося не раньше его дедлайна, и при каждом вызове {@link #advance()}
+ * обходятся только ячейки, время которых прошло с предыдущего вызова. Таймеры, которые
+ * лежат в ячейке, но должны сработать на одном из следующих оборотов колеса, остаются в ячейке.</p>
+ *
+ * <p>Таймеры регистрируются и срабатывают только в потоке-владельце колеса.
+ * Отменять таймеры ({@link Timeout#cancel()}) можно из любого потока - отмененный
+ * таймер просто выбрасывается из ячейки при ее следующем обходе.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 13:05
+ * @author Knoblul
+ */
+public class TimerWheel {
+	/**
+	 * Продолжительность одного тика колеса, в миллисекундах.
+	 */
+	public static final long TICK_DURATION = 10;
+
+	/**
+	 * Количество ячеек колеса. Обязательно степень двойки.
+	 */
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	/**
+	 * Поток, в котором регистрируются и срабатывают таймеры.
+	 */
+	private final Thread ownerThread;
+
+	/**
+	 * Источник монотонного времени, в миллисекундах.
+	 */
+	private final LongSupplier clock;
+
+	private final List<Timeout>[] buckets;
+
+	/**
+	 * Время создания колеса, от которого отсчитываются тики.
+	 */
+	private final long startTime;
+
+	/**
+	 * Последний обработанный тик.
+	 */
+	private long lastTick;
+
+	/**
+	 * Количество зарегистрированных и еще не сработавших таймеров.
+	 */
+	private int pendingTimeouts;
+
+	public TimerWheel() {
+		this(Thread.currentThread(), () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimerWheel(@NotNull Thread ownerThread, @NotNull LongSupplier clock) {
+		this.ownerThread = ownerThread;
+		this.clock = clock;
+		this.startTime = clock.getAsLong();
+		this.buckets = new List[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			buckets[i] = Lists.newArrayList();
+		}
+	}
+
+	private void requireOwnerThread() {
+		if (Thread.currentThread() != ownerThread) {
+			throw new IllegalStateException("Timers can be scheduled only from the " + ownerThread.getName()
+					+ " thread");
+		}
+	}
+
+	/**
+	 * Регистрирует таймер, который сработает через указанное время.
+	 * @param delay задержка до срабатывания таймера, в миллисекундах.
+	 *              Отрицательная задержка равносильна нулевой.
+	 * @param task задача, которая выполнится при срабатывании таймера
+	 * @return таймер, который можно отменить
+	 */
+	@NotNull
+	public Timeout schedule(long delay, @NotNull Runnable task) {
+		requireOwnerThread();
+
+		long deadline = clock.getAsLong() - startTime + Math.max(delay, 0);
+		// дедлайн округляется вверх до тика: ячейка обходится, когда ее тик уже наступил,
+		// поэтому дедлайн в середине тика гарантированно прошел. При округлении вниз
+		// ячейку могли обойти раньше дедлайна, и таймер ждал бы полный оборот колеса.
+		// Таймер никогда не кладется в уже обработанную ячейку по той же причине.
+		long tick = Math.max((deadline + TICK_DURATION - 1) / TICK_DURATION, lastTick + 1);
+		Timeout timeout = new Timeout(deadline, task);
+		buckets[(int) (tick & WHEEL_MASK)].add(timeout);
+		pendingTimeouts++;
+		return timeout;
+	}
+
+	/**
+	 * Регистрирует таймер, который сработает в указанное время.
+	 * @param time время срабатывания таймера (как {@link System#currentTimeMillis()})
+	 * @param task задача, которая выполнится при срабатывании таймера
+	 * @return таймер, который можно отменить
+	 */
+	@NotNull
+	public Timeout scheduleAt(long time, @NotNull Runnable task) {
+		return schedule(time - System.currentTimeMillis(), task);
+	}
+
+	/**
+	 * Обрабатывает все ячейки колеса, время которых прошло с
+	 * предыдущего вызова, и выполняет сработавшие таймеры.
+	 * <p>Эта функция должна вызываться только из потока-владельца колеса.</p>
+	 */
+	public void advance() {
+		requireOwnerThread();
+
+		long now = clock.getAsLong() - startTime;
+		long currentTick = now / TICK_DURATION;
+		if (currentTick <= lastTick) {
+			return;
+		}
+
+		// если поток стоял дольше полного оборота колеса, достаточно
+		// обойти каждую ячейку по одному разу
+		long firstTick = Math.max(lastTick + 1, currentTick - WHEEL_MASK);
+		lastTick = currentTick;
+
+		List<Timeout> expired = null;
+		for (long tick = firstTick; tick <= currentTick; tick++) {
+			List<Timeout> bucket = buckets[(int) (tick & WHEEL_MASK)];
+			for (int i = 0; i < bucket.size(); ) {
+				Timeout timeout = bucket.get(i);
+				if (timeout.cancelled || timeout.deadline <= now) {
+					// быстрое удаление - на место удаляемого ставим последний таймер ячейки
+					int last = bucket.size() - 1;
+					bucket.set(i, bucket.get(last));
+					bucket.remove(last);
+					pendingTimeouts--;
+					if (!timeout.cancelled) {
+						if (expired == null) {
+							expired = Lists.newArrayList();
+						}
+						expired.add(timeout);
+					}
+				} else {
+					i++;
+				}
+			}
+		}
+
+		// задачи выполняются после обхода, так как они могут регистрировать новые таймеры
+		if (expired != null) {
+			for (Timeout timeout : expired) {
+				timeout.fire();
+			}
+		}
+	}
+
+	/**
+	 * @return количество зарегистрированных таймеров, которые еще не сработали
+	 * (включая отмененные, которые еще не выброшены из колеса).
+	 */
+	public int getPendingTimeouts() {
+		return pendingTimeouts;
+	}
+
+	/**
+	 * Таймер, зарегистрированный в колесе.
+	 */
+	public static class Timeout {
+		private final long deadline;
+		private final Runnable task;
+		private volatile boolean cancelled;
+
+		private Timeout(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		private void fire() {
+			if (cancelled) {
+				return;
+			}
+
+			cancelled = true;
+			try {
+				task.run();
+			} catch (Throwable t) {
+				Log.warn(t, "Failed to execute timer task");
+			}
+		}
+
+		/**
+		 * Отменяет таймер. Если таймер уже сработал, то ничего не происходит.
+		 * Можно вызывать из любого потока.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * @return <code>true</code>, если таймер отменен или уже сработал
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+}
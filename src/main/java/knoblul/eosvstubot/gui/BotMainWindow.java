@@ -19,7 +19,6 @@ import knoblul.eosvstubot.api.BotConstants;
 import knoblul.eosvstubot.api.BotContext;
 import knoblul.eosvstubot.api.BotHandler;
 import knoblul.eosvstubot.api.schedule.ScheduledConnectionsHandler;
-import knoblul.eosvstubot.api.profile.Profile;
 import knoblul.eosvstubot.gui.chat.ChatComponent;
 import knoblul.eosvstubot.gui.profile.ProfileTable;
 import knoblul.eosvstubot.gui.schedule.ScheduleManagerComponent;
@@ -75,7 +74,7 @@ public class BotMainWindow extends JFrame implements BotHandler {
 
 		// если в списке профилей хотя бы один не смог зайти на сайт,
 		// то выводим предупреждение
-		if (!context.getProfileManager().getProfiles().stream().allMatch(Profile::isValid)) {
+		if (!context.getProfileManager().getSnapshot().isAllValid()) {
 			DialogUtils.showWarning("Один или несколько пользователей не были загружены." +
 					" Смотрите консоль, чтобы узнать детали.");
 		}
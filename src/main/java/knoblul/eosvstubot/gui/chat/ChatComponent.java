@@ -21,7 +21,6 @@ import knoblul.eosvstubot.api.chat.ChatConnection;
 import knoblul.eosvstubot.api.chat.ChatSession;
 import knoblul.eosvstubot.api.chat.action.ChatMessage;
 import knoblul.eosvstubot.api.chat.listening.ChatConnectionListener;
-import knoblul.eosvstubot.api.profile.Profile;
 import knoblul.eosvstubot.api.profile.ProfileManager;
 import knoblul.eosvstubot.api.schedule.Lesson;
 import knoblul.eosvstubot.api.schedule.ScheduledConnectionsHandler;
@@ -38,7 +37,6 @@ import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
 import java.awt.*;
-import java.util.List;
 import java.util.Set;
 
 
@@ -63,30 +61,35 @@ public class ChatComponent extends JComponent {
 
 	public ChatComponent(@NotNull ScheduledConnectionsHandler scheduledConnectionsHandler) {
 		this.scheduledConnectionsHandler = scheduledConnectionsHandler;
-		scheduledConnectionsHandler.setOnSessionChangedCallback(this::onSessionChanged);
+		scheduledConnectionsHandler.setOnSessionStartedCallback(this::onSessionStarted);
+		scheduledConnectionsHandler.setOnSessionEndedCallback(this::onSessionEnded);
 		fill();
 	}
 
-	private void onSessionChanged(ChatSession session) {
-		receivedMessages.clear();
-
-		if (session == null) {
-			// при обнулении сессии закрываем чат и лог
-			CHAT_LOGGER.log(Level.INFO, "**** КОНЕЦ ЧАТА ****");
-			if (activeUsers != null) {
-				activeUsers.onUsersChanged(Lists.newArrayList());
-			}
+	private void onSessionEnded(ChatSession session) {
+		// при удалении сессии закрываем чат и лог
+		CHAT_LOGGER.log(Level.INFO, "**** КОНЕЦ ЧАТА ****");
+		if (scheduledConnectionsHandler.getScheduledChats().iterator().hasNext()) {
+			// другие чаты еще идут
+			return;
+		}
 
-			if (chatControls != null) {
-				chatControls.fireUsersUpdated();
-			}
+		receivedMessages.clear();
+		if (activeUsers != null) {
+			activeUsers.onUsersChanged(Lists.newArrayList());
+		}
 
-			setEnabled(false);
-			return;
+		if (chatControls != null) {
+			chatControls.fireUsersUpdated();
 		}
 
+		setEnabled(false);
+	}
+
+	private void onSessionStarted(ChatSession session) {
 		// при создании новой чат-сессии открываем лог
-		Lesson lesson = scheduledConnectionsHandler.getContext().getLessonsManager().getCurrentLesson();
+		ScheduledConnectionsHandler.ScheduledChat chat = scheduledConnectionsHandler.getScheduledChat(session);
+		Lesson lesson = chat != null ? chat.getLesson() : null;
 		String title = lesson != null ? lesson.getName() + " (" + lesson.getTeacher() + ")" : "???";
 		CHAT_LOGGER.log(Level.INFO, "**** НАЧАЛО ЧАТА, ПРЕДМЕТ: " + title + " ****");
 		session.addChatConnectionListener(new ChatConnectionListener() {
@@ -114,17 +117,7 @@ public class ChatComponent extends JComponent {
 						chatControls.fireUsersUpdated();
 					}
 
-					boolean stillConnected = false;
-					List<ScheduledConnectionsHandler.ScheduledConnection> connections
-							= scheduledConnectionsHandler.getScheduledConnections();
-					//noinspection ForLoopReplaceableByForEach
-					for (int i = 0; i < connections.size(); i++) {
-						ScheduledConnectionsHandler.ScheduledConnection sc = connections.get(i);
-						if (sc != null && sc.getConnection() != null && !sc.getConnection().isInvalid()) {
-							stillConnected = true;
-						}
-					}
-					setEnabled(stillConnected);
+					setEnabled(scheduledConnectionsHandler.getSnapshot().isAnyConnected());
 					BotMainWindow.instance.updateProfileTable();
 				});
 			}
@@ -159,13 +152,7 @@ public class ChatComponent extends JComponent {
 			Elements textElements = message.getMessageDocument().select(".chat-message .text");
 			String to = textElements.select("i").text();
 			ProfileManager profileManager = scheduledConnectionsHandler.getContext().getProfileManager();
-			List<Profile> profiles = profileManager.getProfiles();
-			for (int i = 0; i < profiles.size(); i++) {
-				Profile profile = profileManager.getProfile(i);
-				if (profile != null && profile.isValid() && profile.getProfileName().equalsIgnoreCase(to)) {
-					return true;
-				}
-			}
+			return profileManager.getSnapshot().hasValidProfileName(to);
 		}
 		return false;
 	}
@@ -15,7 +15,9 @@
  */
 package knoblul.eosvstubot.gui.chat.controls;
 
+import knoblul.eosvstubot.api.chat.ChatConnection;
 import knoblul.eosvstubot.api.schedule.ScheduledConnectionsHandler;
+import knoblul.eosvstubot.api.schedule.ScheduledConnectionsSnapshot;
 
 import javax.swing.*;
 import java.awt.*;
@@ -79,19 +81,20 @@ public class ChatControlsComponent extends JComponent {
 	}
 
 	private void sendChatMessage(ActionEvent actionEvent) {
-		ScheduledConnectionsHandler.ScheduledConnection sc
-				= (ScheduledConnectionsHandler.ScheduledConnection) userSelection.getSelectedItem();
-		if (sc != null && sc.getConnection() != null && !chatMessageField.getText().isEmpty()) {
+		ScheduledConnectionsSnapshot.Entry entry = (ScheduledConnectionsSnapshot.Entry) userSelection.getSelectedItem();
+		ChatConnection connection = entry != null ? entry.getConnection() : null;
+		if (connection != null && !chatMessageField.getText().isEmpty()) {
 			String msg = chatMessageField.getText();
-			sc.getConnection().sendMessage(msg);
+			connection.sendMessage(msg);
 			chatMessageField.setText("");
 		}
 	}
 
 	public void fireUsersUpdated() {
-		Object prevSelectedItem = userSelection.getSelectedItem();
+		// модель сама переносит выбранный элемент в новый снимок
 		userSelection.fireUpdate();
-		userSelection.setEnabled(!scheduledConnectionsHandler.getScheduledConnections().isEmpty());
+		Object prevSelectedItem = userSelection.getSelectedItem();
+		userSelection.setEnabled(!userSelection.getSnapshot().getEntries().isEmpty());
 		if (prevSelectedItem != null) {
 			userSelection.setSelectedItem(prevSelectedItem);
 		} else if (userSelection.getModel().getSize() > 0) {
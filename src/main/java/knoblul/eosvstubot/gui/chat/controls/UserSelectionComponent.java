@@ -15,8 +15,8 @@
  */
 package knoblul.eosvstubot.gui.chat.controls;
 
-import knoblul.eosvstubot.api.chat.ChatConnection;
 import knoblul.eosvstubot.api.schedule.ScheduledConnectionsHandler;
+import knoblul.eosvstubot.api.schedule.ScheduledConnectionsSnapshot;
 
 import javax.accessibility.Accessible;
 import javax.swing.*;
@@ -33,7 +33,7 @@ import java.awt.*;
  * <br>Created: 25.04.2020 20:15
  * @author Knoblul
  */
-public class UserSelectionComponent extends JComboBox<ScheduledConnectionsHandler.ScheduledConnection> {
+public class UserSelectionComponent extends JComboBox<ScheduledConnectionsSnapshot.Entry> {
 	private UserSelectionModel model;
 	private boolean expanded;
 
@@ -46,11 +46,7 @@ public class UserSelectionComponent extends JComboBox<ScheduledConnectionsHandle
 				JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
 				label.setText("N/A");
 				if (value != null) {
-					ChatConnection connection = ((ScheduledConnectionsHandler.ScheduledConnection) value)
-							.getConnection();
-					if (connection != null) {
-						label.setText(connection.getProfile().toString());
-					}
+					label.setText(((ScheduledConnectionsSnapshot.Entry) value).getDisplayName());
 				}
 				return label;
 			}
@@ -86,7 +82,7 @@ public class UserSelectionComponent extends JComboBox<ScheduledConnectionsHandle
 				Dimension dims = super.getSize();
 				BasicComboPopup popup = (BasicComboPopup) child;
 				@SuppressWarnings("unchecked")
-				JList<ScheduledConnectionsHandler.ScheduledConnection> list = popup.getList();
+				JList<ScheduledConnectionsSnapshot.Entry> list = popup.getList();
 				for (int i = 0; i < model.getSize(); i++) {
 					Component c =
 							renderer.getListCellRendererComponent(list, model.getElementAt(i), i,
@@ -99,6 +95,13 @@ public class UserSelectionComponent extends JComboBox<ScheduledConnectionsHandle
 		return super.getSize();
 	}
 
+	/**
+	 * @return снимок подключений, который отображает компонент
+	 */
+	ScheduledConnectionsSnapshot getSnapshot() {
+		return model.getSnapshot();
+	}
+
 	void fireUpdate() {
 		model.fireUpdate();
 		revalidate();
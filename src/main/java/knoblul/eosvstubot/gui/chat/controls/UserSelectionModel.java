@@ -16,66 +16,56 @@
 package knoblul.eosvstubot.gui.chat.controls;
 
 import knoblul.eosvstubot.api.schedule.ScheduledConnectionsHandler;
+import knoblul.eosvstubot.api.schedule.ScheduledConnectionsSnapshot;
 
 import javax.swing.*;
-import java.util.List;
 
 /**
  * Модель компонента выбора профиля, от которого
- * будет отправлено сообщение
+ * будет отправлено сообщение. Отображает подключения из последнего
+ * снимка {@link ScheduledConnectionsHandler#getSnapshot()}, который
+ * обновляется в {@link #fireUpdate()}.
  *
  * <br><br>Module: eos-vstu-bot
  * <br>Created: 25.04.2020 18:14
  * @author Knoblul
  */
-class UserSelectionModel extends AbstractListModel<ScheduledConnectionsHandler.ScheduledConnection>
-		implements ComboBoxModel<ScheduledConnectionsHandler.ScheduledConnection> {
+class UserSelectionModel extends AbstractListModel<ScheduledConnectionsSnapshot.Entry>
+		implements ComboBoxModel<ScheduledConnectionsSnapshot.Entry> {
 
 	private final ScheduledConnectionsHandler scheduledConnectionsHandler;
+	private ScheduledConnectionsSnapshot snapshot;
 	private Object selectedItem;
 
 	UserSelectionModel(ScheduledConnectionsHandler scheduledConnectionsHandler) {
 		this.scheduledConnectionsHandler = scheduledConnectionsHandler;
+		this.snapshot = scheduledConnectionsHandler.getSnapshot();
 	}
 
 	@Override
 	public int getSize() {
-		List<ScheduledConnectionsHandler.ScheduledConnection> connections
-				= scheduledConnectionsHandler.getScheduledConnections();
-
-		int size = 0;
-		//noinspection ForLoopReplaceableByForEach
-		for (int i = 0; i < connections.size(); i++) {
-			ScheduledConnectionsHandler.ScheduledConnection connection = connections.get(i);
-			if (connection != null && connection.getConnection() != null) {
-				size++;
-			}
-		}
-
-		return size;
+		return snapshot.getJoinedEntries().size();
 	}
 
 	@Override
-	public ScheduledConnectionsHandler.ScheduledConnection getElementAt(int index) {
-		List<ScheduledConnectionsHandler.ScheduledConnection> connections
-				= scheduledConnectionsHandler.getScheduledConnections();
-
-		int j = 0;
-		//noinspection ForLoopReplaceableByForEach
-		for (int i = 0; i < connections.size(); i++) {
-			ScheduledConnectionsHandler.ScheduledConnection connection = connections.get(i);
-			if (connection != null && connection.getConnection() != null) {
-				if (j == index) {
-					return connection;
-				}
-				j++;
-			}
-		}
+	public ScheduledConnectionsSnapshot.Entry getElementAt(int index) {
+		return index >= 0 && index < getSize() ? snapshot.getJoinedEntries().get(index) : null;
+	}
 
-		return null;
+	/**
+	 * @return снимок, который отображает модель
+	 */
+	ScheduledConnectionsSnapshot getSnapshot() {
+		return snapshot;
 	}
 
 	public void fireUpdate() {
+		snapshot = scheduledConnectionsHandler.getSnapshot();
+		// выбранный элемент из старого снимка заменяем элементом того же подключения из нового
+		if (selectedItem instanceof ScheduledConnectionsSnapshot.Entry) {
+			selectedItem = snapshot.findJoinedEntry(
+					((ScheduledConnectionsSnapshot.Entry) selectedItem).getScheduledConnection());
+		}
 		fireContentsChanged(this, 0, Math.max(getSize()-1, 0));
 	}
 
@@ -19,13 +19,13 @@ import knoblul.eosvstubot.api.profile.Profile;
 import knoblul.eosvstubot.api.profile.ProfileManager;
 import knoblul.eosvstubot.gui.BotMainWindow;
 import knoblul.eosvstubot.gui.scripting.ScriptEditorDialog;
+import knoblul.eosvstubot.utils.HttpCallbacks;
 import knoblul.eosvstubot.utils.swing.DialogUtils;
 import knoblul.eosvstubot.utils.swing.TimeChooser;
 
 import javax.script.ScriptException;
 import javax.swing.*;
 import java.awt.*;
-import java.io.IOException;
 
 /**
  * Диалог для редактирования данных {@link Profile}.
@@ -40,6 +40,7 @@ class ProfileEditDialog extends JComponent {
 	private JTextField usernameField;
 	private JPasswordField passwordField;
 	private TimeChooser lateTimeChooser;
+	private JTextField groupField;
 	private String chatJoinScriptContent;
 
 	ProfileEditDialog() {
@@ -102,6 +103,18 @@ class ProfileEditDialog extends JComponent {
 		lateTimeChooser.setToolTipText("Максимальное время, на которое может опоздать бот (от нуля до указанного)");
 		gbc.weightx = 0;
 		gbc.gridy++;
+
+		gbc.fill = GridBagConstraints.NONE;
+		gbc.anchor = GridBagConstraints.WEST;
+		add(new JLabel("Группа"), gbc);
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.fill = GridBagConstraints.HORIZONTAL;
+		gbc.weightx = 1;
+		add(groupField = new JTextField(20), gbc);
+		groupField.setToolTipText("Группа профиля. Бот заходит только в чаты предметов своей группы " +
+				"и в чаты общих предметов. Если не указана, то бот заходит в чаты всех предметов.");
+		gbc.weightx = 0;
+		gbc.gridy++;
 	}
 
 	void showDialog(ProfileManager profileManager, Profile editingProfile, Runnable swingUpdateCallback) {
@@ -110,11 +123,13 @@ class ProfileEditDialog extends JComponent {
 			passwordField.setText(editingProfile.getPassword());
 			chatJoinScriptContent = editingProfile.getChatScript().getContent();
 			lateTimeChooser.setTimeMillis(editingProfile.getMaximumLateTime());
+			groupField.setText(editingProfile.getGroup());
 		} else {
 			usernameField.setText("");
 			passwordField.setText("");
 			chatJoinScriptContent = ProfileTable.getDefaultChatJoinScriptContent();
 			lateTimeChooser.setTimeMillis(Profile.DEFAULT_MAXIMUM_LATE_TIME);
+			groupField.setText("");
 		}
 
 		String title = editingProfile == null ? "Создать пользователя" : "Изменить данные пользователя";
@@ -124,6 +139,7 @@ class ProfileEditDialog extends JComponent {
 			String username = usernameField.getText().trim();
 			String password = new String(passwordField.getPassword());
 			long lateTime = lateTimeChooser.getTimeMillis();
+			String group = groupField.getText().trim();
 			if (!username.isEmpty() && !password.isEmpty()) {
 				Profile listedProfile = profileManager.getProfile(username);
 				if (listedProfile != null && listedProfile != editingProfile) {
@@ -142,6 +158,8 @@ class ProfileEditDialog extends JComponent {
 						if (needsLogin) {
 							profileManager.logoutProfile(profile);
 							editingProfile.setCredentials(username, password);
+							// логин поменялся - индекс профилей нужно перестроить
+							profileManager.invalidate();
 						}
 					} else {
 						profile = profileManager.createProfile(username, password);
@@ -159,18 +177,22 @@ class ProfileEditDialog extends JComponent {
 					}
 
 					profile.setMaximumLateTime(lateTime);
+					profile.setGroup(group);
+
+					Runnable saveProfiles = () -> {
+						profileManager.save();
+						SwingUtilities.invokeLater(swingUpdateCallback);
+					};
 
 					if (needsLogin) {
-						try {
-							profileManager.loginProfile(profile);
-						} catch (IOException e) {
+						profileManager.loginProfileAsync(profile, HttpCallbacks.onEither(p -> saveProfiles.run(), e -> {
 							DialogUtils.showError("Ошибка входа. Пожалуйста, повторите попытку.",
 									e, true);
-						}
+							saveProfiles.run();
+						}));
+					} else {
+						saveProfiles.run();
 					}
-
-					profileManager.save();
-					SwingUtilities.invokeLater(swingUpdateCallback);
 				});
 
 				break;
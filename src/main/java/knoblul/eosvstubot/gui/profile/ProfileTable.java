@@ -19,6 +19,7 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import knoblul.eosvstubot.api.profile.Profile;
 import knoblul.eosvstubot.api.profile.ProfileManager;
+import knoblul.eosvstubot.api.profile.ProfilesSnapshot;
 import knoblul.eosvstubot.utils.swing.DialogUtils;
 import org.jetbrains.annotations.NotNull;
 
@@ -78,7 +79,7 @@ public class ProfileTable extends JComponent {
 	 * Открывает окно редактирования пользователя
 	 */
 	private void editProfile(ActionEvent event) {
-		Profile profile = profileManager.getProfile(table.convertRowIndexToModel(table.getSelectedRow()));
+		Profile profile = tableModel.getProfile(table.convertRowIndexToModel(table.getSelectedRow()));
 		if (profile == null) {
 			return;
 		}
@@ -101,14 +102,15 @@ public class ProfileTable extends JComponent {
 				"Они будут удалены НАВСЕГДА.")) {
 			// чтобы избежать десинхрона, нужно вызывать удаление в основном потоке.
 			int[] rows = Arrays.copyOf(table.getSelectedRows(), table.getSelectedRows().length);
-			profileManager.getContext().invokeMainThreadCommand(() -> {
-				List<Profile> toRemove = Lists.newArrayList();
-				for (int row : rows) {
-					Profile profile = profileManager.getProfile(table.convertRowIndexToModel(row));
-					if (profile != null) {
-						toRemove.add(profile);
-					}
+			// профили берем из отображаемого снимка в потоке свинга
+			List<Profile> toRemove = Lists.newArrayList();
+			for (int row : rows) {
+				Profile profile = tableModel.getProfile(table.convertRowIndexToModel(row));
+				if (profile != null) {
+					toRemove.add(profile);
 				}
+			}
+			profileManager.getContext().invokeMainThreadCommand(() -> {
 				toRemove.forEach(profileManager::removeProfile);
 				profileManager.save();
 				SwingUtilities.invokeLater(() -> {
@@ -144,9 +146,9 @@ public class ProfileTable extends JComponent {
 
 				// текст статуса, зеленый или черный
 				if (column == ProfileTableModel.COLUMN_STATUS) {
-					Profile profile = profileManager.getProfile(row);
-					if (profile != null) {
-						label.setForeground(profile.isValid() ? Color.GREEN.darker()
+					ProfilesSnapshot.Entry entry = tableModel.getEntry(table.convertRowIndexToModel(row));
+					if (entry != null) {
+						label.setForeground(entry.isValid() ? Color.GREEN.darker()
 								: Color.RED.darker());
 					}
 				} else {
@@ -17,11 +17,16 @@ package knoblul.eosvstubot.gui.profile;
 
 import knoblul.eosvstubot.api.profile.Profile;
 import knoblul.eosvstubot.api.profile.ProfileManager;
+import knoblul.eosvstubot.api.profile.ProfilesSnapshot;
+import org.jetbrains.annotations.Nullable;
 
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 
 /**
- * Модель компонента-таблицы менеджера профилей.
+ * Модель компонента-таблицы менеджера профилей. Отображает последний
+ * снимок {@link ProfileManager#getSnapshot()}, который берется при каждом
+ * оповещении таблицы об изменении данных.
  *
  * <br><br>Module: eos-vstu-bot
  * <br>Created: 21.04.2020 22:19
@@ -35,14 +40,41 @@ class ProfileTableModel extends AbstractTableModel {
 
 	private static final String[] COLUMNS = new String[] { "Логин", "Имя", "Ссылка на профиль", "Статус" };
 	private final ProfileManager profileManager;
+	private ProfilesSnapshot snapshot;
 
 	ProfileTableModel(ProfileManager profileManager) {
 		this.profileManager = profileManager;
+		this.snapshot = profileManager.getSnapshot();
+	}
+
+	@Override
+	public void fireTableChanged(TableModelEvent e) {
+		snapshot = profileManager.getSnapshot();
+		super.fireTableChanged(e);
+	}
+
+	/**
+	 * @param rowIndex индекс строки модели
+	 * @return данные профиля в строке, либо <code>null</code>
+	 */
+	@Nullable
+	ProfilesSnapshot.Entry getEntry(int rowIndex) {
+		return snapshot.get(rowIndex);
+	}
+
+	/**
+	 * @param rowIndex индекс строки модели
+	 * @return профиль в строке, либо <code>null</code>
+	 */
+	@Nullable
+	Profile getProfile(int rowIndex) {
+		ProfilesSnapshot.Entry entry = snapshot.get(rowIndex);
+		return entry != null ? entry.getProfile() : null;
 	}
 
 	@Override
 	public int getRowCount() {
-		return profileManager.getProfiles().size();
+		return snapshot.size();
 	}
 
 	@Override
@@ -63,17 +95,17 @@ class ProfileTableModel extends AbstractTableModel {
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
 		if (getColumnName(columnIndex) != null) {
-			Profile holder = profileManager.getProfile(rowIndex);
-			if (holder != null) {
+			ProfilesSnapshot.Entry entry = snapshot.get(rowIndex);
+			if (entry != null) {
 				switch (columnIndex) {
 					case COLUMN_USERNAME:
-						return holder.getUsername();
+						return entry.getUsername();
 					case COLUMN_PROFILE_NAME:
-						return holder.getProfileName();
+						return entry.getProfileName();
 					case COLUMN_PROFILE_LINK:
-						return holder.getProfileLink();
+						return entry.getProfileLink();
 					case COLUMN_STATUS:
-						return holder.isValid() ? "Действителен" : "Ошибка входа";
+						return entry.isValid() ? "Действителен" : "Ошибка входа";
 				}
 			}
 		}
@@ -51,6 +51,7 @@ class LessonEditDialog extends JComponent {
 	private TimeChooser timeSpinner;
 	private TimeChooser durationSpinner;
 	private JTextField chatIdField;
+	private JTextField groupField;
 	private JCheckBox silentModeCheckBox;
 
 	LessonEditDialog() {
@@ -133,6 +134,18 @@ class LessonEditDialog extends JComponent {
 		gbc.weightx = 0;
 		gbc.gridy++;
 
+		gbc.fill = GridBagConstraints.NONE;
+		gbc.anchor = GridBagConstraints.WEST;
+		add(new JLabel(COLUMNS[COLUMN_GROUP]), gbc);
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.fill = GridBagConstraints.HORIZONTAL;
+		gbc.weightx = 1;
+		add(groupField = new JTextField(20), gbc);
+		groupField.setToolTipText("Группа, у которой идет предмет. В чат заходят только профили этой группы " +
+				"и профили без группы. Если не указана, то в чат заходят все профили.");
+		gbc.weightx = 0;
+		gbc.gridy++;
+
 		gbc.fill = GridBagConstraints.NONE;
 		gbc.anchor = GridBagConstraints.WEST;
 		add(new JLabel("Тихий режим"), gbc);
@@ -157,6 +170,7 @@ class LessonEditDialog extends JComponent {
 		timeSpinner.set(calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND));
 		durationSpinner.setTimeMillis(editingLesson != null ? editingLesson.getDuration() : Lesson.DEFAULT_LESSON_DURATION);
 		chatIdField.setText(editingLesson != null ? editingLesson.getChatId() : "");
+		groupField.setText(editingLesson != null ? editingLesson.getGroup() : "");
 		silentModeCheckBox.setSelected(editingLesson != null && editingLesson.isSilentMode());
 
 		String title = editingLesson == null ? "Создать предмет" : "Изменить данные предмета";
@@ -173,6 +187,7 @@ class LessonEditDialog extends JComponent {
 		lesson.setWeekIndex(weekIndex);
 		lesson.setDuration(durationSpinner.getTimeMillis());
 		lesson.setChatId(chatIdField.getText().trim());
+		lesson.setGroup(groupField.getText().trim());
 		lesson.setSilentMode(silentModeCheckBox.isSelected());
 		lessonsManager.save();
 		return true;
@@ -35,6 +35,7 @@ class ScheduleTableModel extends AbstractTableModel {
 	static final int COLUMN_TIME = 3;
 	static final int COLUMN_DURATION = 4;
 	static final int COLUMN_CHAT_ID = 5;
+	static final int COLUMN_GROUP = 6;
 
 	static final String[] COLUMNS = new String[] {
 			"День недели",
@@ -42,7 +43,8 @@ class ScheduleTableModel extends AbstractTableModel {
 			"Препод",
 			"Время",
 			"Продолжительность",
-			"ID чата"
+			"ID чата",
+			"Группа"
 	};
 
 	private final ScheduleTable table;
@@ -103,6 +105,8 @@ class ScheduleTableModel extends AbstractTableModel {
 						);
 					case COLUMN_CHAT_ID:
 						return lesson.getChatId();
+					case COLUMN_GROUP:
+						return lesson.getGroup();
 				}
 			}
 		}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.utils;
+
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import knoblul.eosvstubot.api.BotContext;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кеш айди чатов предметов, который хранится на диске и используется
+ * между запусками генератора расписания и для разных групп.
+ * Ключ - название предмета (в нижнем регистре), значение - айди чата
+ * (пустая строка, если чат у предмета не найден).
+ *
+ * <p>Найденные айди считаются актуальными {@link #CHAT_ID_TTL}. После этого
+ * айди не ищется заново, а только проверяется: если ссылка на чат
+ * все еще открывается, то запись продлевается. Ненайденные айди ищутся заново
+ * через {@link #MISSING_CHAT_ID_TTL}, так как курсы на сайте могут появиться позже.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 16:15
+ * @author Knoblul
+ */
+public class ChatIdCache {
+	/**
+	 * Время, в течение которого найденный айди чата не проверяется.
+	 */
+	private static final long CHAT_ID_TTL = TimeUnit.DAYS.toMillis(14);
+
+	/**
+	 * Время, через которое предмет без чата ищется заново.
+	 */
+	private static final long MISSING_CHAT_ID_TTL = TimeUnit.DAYS.toMillis(1);
+
+	private final Path cacheFile;
+	private final Map<String, Entry> entries = Maps.newHashMap();
+	private boolean dirty;
+
+	public ChatIdCache(@NotNull Path cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Десериализует кеш из json-файла.
+	 */
+	public void load() {
+		entries.clear();
+		if (Files.exists(cacheFile)) {
+			try (BufferedReader reader = Files.newBufferedReader(cacheFile)) {
+				JsonObject object = BotContext.GSON.fromJson(reader, JsonObject.class);
+				if (object != null) {
+					for (Map.Entry<String, JsonElement> e : object.entrySet()) {
+						entries.put(e.getKey(), BotContext.GSON.fromJson(e.getValue(), Entry.class));
+					}
+				}
+			} catch (IOException | JsonParseException e) {
+				Log.warn(e, "Failed to load %s", cacheFile);
+			}
+		}
+		dirty = false;
+	}
+
+	/**
+	 * Сериализует кеш в json-файл, если он был изменен.
+	 */
+	public void save() {
+		if (!dirty) {
+			return;
+		}
+
+		try (BufferedWriter writer = Files.newBufferedWriter(cacheFile)) {
+			JsonObject object = new JsonObject();
+			entries.forEach((k, v) -> object.add(k, BotContext.GSON.toJsonTree(v)));
+			BotContext.GSON.toJson(object, writer);
+			dirty = false;
+		} catch (IOException | JsonParseException e) {
+			Log.warn(e, "Failed to save %s", cacheFile);
+		}
+	}
+
+	/**
+	 * @param lessonName название предмета
+	 * @return айди чата предмета (возможно, устаревший), пустая строка, если у предмета
+	 * нет чата, либо <code>null</code>, если предмета нет в кеше
+	 */
+	@Nullable
+	public String get(@NotNull String lessonName) {
+		Entry entry = entries.get(lessonName);
+		return entry != null ? entry.chatId : null;
+	}
+
+	/**
+	 * @param lessonName название предмета
+	 * @return <code>true</code>, если айди чата предмета есть в кеше и его не нужно проверять
+	 */
+	public boolean isFresh(@NotNull String lessonName) {
+		Entry entry = entries.get(lessonName);
+		if (entry == null) {
+			return false;
+		}
+
+		long ttl = entry.chatId.isEmpty() ? MISSING_CHAT_ID_TTL : CHAT_ID_TTL;
+		return System.currentTimeMillis() - entry.checkTime < ttl;
+	}
+
+	/**
+	 * Запоминает айди чата предмета.
+	 * @param lessonName название предмета
+	 * @param chatId айди чата, либо пустая строка
+	 */
+	public void put(@NotNull String lessonName, @NotNull String chatId) {
+		Entry entry = new Entry();
+		entry.chatId = chatId;
+		entry.checkTime = System.currentTimeMillis();
+		entries.put(lessonName, entry);
+		dirty = true;
+	}
+
+	/**
+	 * Продлевает запись предмета, айди чата которого был проверен.
+	 * @param lessonName название предмета
+	 */
+	public void touch(@NotNull String lessonName) {
+		Entry entry = entries.get(lessonName);
+		if (entry != null) {
+			entry.checkTime = System.currentTimeMillis();
+			dirty = true;
+		}
+	}
+
+	private static class Entry {
+		private String chatId = "";
+
+		/**
+		 * Время, когда айди чата был найден или последний раз проверен.
+		 */
+		private long checkTime;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.utils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Индекс названий курсов ЭИОСа для быстрого поиска курса по названию предмета.
+ * Названия нормализуются (нижний регистр, знаки препинания и лишние пробелы
+ * убираются) и разбиваются на слова, а для каждого слова хранится множество курсов,
+ * в названии которых оно встречается (обратный индекс).
+ *
+ * <p>Поиск курса - это пересечение множеств курсов для всех слов названия предмета.
+ * Из найденных курсов выбирается лучший: сначала курсы, в названии которых слова
+ * предмета идут подряд, затем курсы с наименьшим количеством лишних слов,
+ * затем курсы, которые идут раньше в списке. Если ни в одном курсе нет всех
+ * слов предмета, то ищется первый курс, название которого содержит название предмета
+ * как подстроку (как раньше).</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 17:10
+ * @author Knoblul
+ */
+public class CourseNameIndex {
+	private static final Pattern NON_WORD_PATTERN = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private final List<Course> courses = Lists.newArrayList();
+
+	/**
+	 * Обратный индекс - для каждого слова множество индексов курсов в {@link #courses}.
+	 */
+	private final Map<String, BitSet> postings = Maps.newHashMap();
+
+	/**
+	 * Нормализует название: нижний регистр, вместо всех знаков препинания
+	 * и пробельных символов - один пробел.
+	 * @param name название
+	 * @return нормализованное название
+	 */
+	@NotNull
+	public static String normalize(@NotNull String name) {
+		return NON_WORD_PATTERN.matcher(name.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+	}
+
+	private static String[] tokenize(String normalizedName) {
+		return normalizedName.isEmpty() ? new String[0] : normalizedName.split(" ");
+	}
+
+	/**
+	 * Добавляет курс в индекс. При поиске из равноценных курсов
+	 * побеждает тот, который был добавлен раньше.
+	 * @param name название курса
+	 * @param link ссылка на курс
+	 */
+	public void add(@NotNull String name, @NotNull String link) {
+		String normalizedName = normalize(name);
+		String[] tokens = tokenize(normalizedName);
+		int courseIndex = courses.size();
+		courses.add(new Course(normalizedName, tokens.length, link));
+		for (String token : tokens) {
+			postings.computeIfAbsent(token, k -> new BitSet()).set(courseIndex);
+		}
+	}
+
+	/**
+	 * Находит курс, который лучше всего подходит к названию предмета.
+	 * @param lessonName название предмета
+	 * @return ссылка на курс, либо <code>null</code>, если курс не найден
+	 */
+	@Nullable
+	public String find(@NotNull String lessonName) {
+		String normalizedName = normalize(lessonName);
+		String[] tokens = tokenize(normalizedName);
+		if (tokens.length == 0) {
+			return null;
+		}
+
+		// пересекаем множества курсов всех слов предмета
+		BitSet candidates = null;
+		for (String token : tokens) {
+			BitSet posting = postings.get(token);
+			if (posting == null) {
+				candidates = null;
+				break;
+			}
+
+			if (candidates == null) {
+				candidates = (BitSet) posting.clone();
+			} else {
+				candidates.and(posting);
+			}
+
+			if (candidates.isEmpty()) {
+				break;
+			}
+		}
+
+		if (candidates != null && !candidates.isEmpty()) {
+			Course best = null;
+			boolean bestIsPhrase = false;
+			for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+				Course course = courses.get(i);
+				boolean phrase = containsPhrase(course.normalizedName, normalizedName);
+				if (best == null || (phrase && !bestIsPhrase)
+						|| (phrase == bestIsPhrase && course.tokenCount < best.tokenCount)) {
+					best = course;
+					bestIsPhrase = phrase;
+				}
+			}
+			return best.link;
+		}
+
+		// слова предмета сокращены или склеены - ищем подстроку
+		for (Course course : courses) {
+			if (course.normalizedName.contains(normalizedName)) {
+				return course.link;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return <code>true</code>, если слова фразы идут в названии подряд
+	 */
+	private static boolean containsPhrase(String normalizedName, String normalizedPhrase) {
+		int index = normalizedName.indexOf(normalizedPhrase);
+		while (index >= 0) {
+			int end = index + normalizedPhrase.length();
+			if ((index == 0 || normalizedName.charAt(index - 1) == ' ')
+					&& (end == normalizedName.length() || normalizedName.charAt(end) == ' ')) {
+				return true;
+			}
+			index = normalizedName.indexOf(normalizedPhrase, index + 1);
+		}
+		return false;
+	}
+
+	/**
+	 * @return количество курсов в индексе
+	 */
+	public int size() {
+		return courses.size();
+	}
+
+	private static class Course {
+		private final String normalizedName;
+		private final int tokenCount;
+		private final String link;
+
+		private Course(String normalizedName, int tokenCount, String link) {
+			this.normalizedName = normalizedName;
+			this.tokenCount = tokenCount;
+			this.link = link;
+		}
+	}
+}
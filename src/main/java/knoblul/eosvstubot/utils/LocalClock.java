@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.utils;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.time.temporal.WeekFields;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Часы локального времени, которые кешируют все, что нужно для
+ * расчета расписания: UTC-смещение часового пояса и начало текущей недели.
+ * Смещение пересчитывается только при переходе на летнее/зимнее время
+ * (или раз в {@link #ZONE_RECHECK_PERIOD}, чтобы заметить смену часового пояса
+ * системы), а начало недели - только раз в неделю. В остальное время все
+ * функции этого класса - просто сравнение и арифметика над long, без создания объектов.
+ *
+ * <p>Функции этого класса потокобезопасны: кешированное состояние
+ * хранится в неизменяемых объектах и заменяется целиком.</p>
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 15:20
+ * @author Knoblul
+ */
+public class LocalClock {
+	/**
+	 * Как часто проверять смену часового пояса системы.
+	 */
+	private static final long ZONE_RECHECK_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+	private static volatile OffsetState offsetState = new OffsetState(ZoneId.systemDefault(), 0, 0, 0);
+	private static volatile WeekState weekState = new WeekState(0, 0, 0);
+
+	/**
+	 * @param time время (как {@link System#currentTimeMillis()})
+	 * @return UTC-смещение локального часового пояса в указанное время, в миллисекундах
+	 */
+	public static long getUtcOffset(long time) {
+		OffsetState state = offsetState;
+		if (time < state.validFrom || time >= state.validUntil) {
+			offsetState = state = OffsetState.compute(time);
+		}
+		return state.offset;
+	}
+
+	/**
+	 * @param time время (как {@link System#currentTimeMillis()})
+	 * @return время начала недели (полночь первого дня недели по локали),
+	 * в которую попадает указанное время
+	 */
+	public static long getWeekStart(long time) {
+		return getWeekState(time).start;
+	}
+
+	/**
+	 * @param time время (как {@link System#currentTimeMillis()})
+	 * @return номер недели в году (как {@link java.util.Calendar#WEEK_OF_YEAR}),
+	 * в которую попадает указанное время
+	 */
+	public static int getWeekOfYear(long time) {
+		return getWeekState(time).weekOfYear;
+	}
+
+	private static WeekState getWeekState(long time) {
+		WeekState state = weekState;
+		if (time < state.start || time >= state.end) {
+			weekState = state = WeekState.compute(time);
+		}
+		return state;
+	}
+
+	private static class OffsetState {
+		private final ZoneId zone;
+		private final long offset;
+		private final long validFrom;
+		private final long validUntil;
+
+		private OffsetState(ZoneId zone, long offset, long validFrom, long validUntil) {
+			this.zone = zone;
+			this.offset = offset;
+			this.validFrom = validFrom;
+			this.validUntil = validUntil;
+		}
+
+		private static OffsetState compute(long time) {
+			ZoneId zone = ZoneId.systemDefault();
+			ZoneRules rules = zone.getRules();
+			Instant instant = Instant.ofEpochMilli(time);
+			long offset = TimeUnit.SECONDS.toMillis(rules.getOffset(instant).getTotalSeconds());
+			// смещение не поменяется до следующего перехода на летнее/зимнее время
+			ZoneOffsetTransition transition = rules.nextTransition(instant);
+			long validUntil = time + ZONE_RECHECK_PERIOD;
+			if (transition != null) {
+				validUntil = Math.min(validUntil, transition.toEpochSecond() * 1000);
+			}
+			return new OffsetState(zone, offset, time, validUntil);
+		}
+	}
+
+	private static class WeekState {
+		private final long start;
+		private final long end;
+		private final int weekOfYear;
+
+		private WeekState(long start, long end, int weekOfYear) {
+			this.start = start;
+			this.end = end;
+			this.weekOfYear = weekOfYear;
+		}
+
+		private static WeekState compute(long time) {
+			// заодно обновляем часовой пояс
+			getUtcOffset(time);
+			ZoneId zone = offsetState.zone;
+			WeekFields weekFields = WeekFields.of(Locale.getDefault());
+			DayOfWeek firstDayOfWeek = weekFields.getFirstDayOfWeek();
+			LocalDate date = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+			LocalDate firstDay = date.with(TemporalAdjusters.previousOrSame(firstDayOfWeek));
+			long start = firstDay.atStartOfDay(zone).toInstant().toEpochMilli();
+			long end = firstDay.plusWeeks(1).atStartOfDay(zone).toInstant().toEpochMilli();
+			return new WeekState(start, end, date.get(weekFields.weekOfWeekBasedYear()));
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.utils;
+
+import org.apache.commons.net.ntp.NTPUDPClient;
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.apache.commons.net.ntp.TimeInfo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Источник времени, который запрашивает время у NTP-сервера.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 14:50
+ * @author Knoblul
+ */
+public class NtpTimeSource implements TimeSource {
+	/**
+	 * Таймаут ответа от NTP-сервера.
+	 */
+	private static final int NTP_TIMEOUT = 3000;
+
+	private final String host;
+
+	public NtpTimeSource(String host) {
+		this.host = host;
+	}
+
+	@Override
+	public long requestOffset() throws IOException {
+		NTPUDPClient ntpClient = new NTPUDPClient();
+		ntpClient.setDefaultTimeout(NTP_TIMEOUT);
+		try {
+			ntpClient.open();
+			TimeInfo info = ntpClient.getTime(InetAddress.getByName(host));
+			NtpV3Packet message = info.getMessage();
+			// среднее смещений на отправке и на получении пакета
+			return (message.getReceiveTimeStamp().getTime() - message.getOriginateTimeStamp().getTime()
+					+ message.getTransmitTimeStamp().getTime() - info.getReturnTime()) / 2;
+		} finally {
+			ntpClient.close();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.utils;
+
+import java.io.IOException;
+
+/**
+ * Источник "настоящего" времени для {@link TimeUtils}.
+ * По умолчанию используется {@link NtpTimeSource}, но его можно
+ * заменить через {@link TimeUtils#setTimeSource(TimeSource)}, например,
+ * чтобы тесты не ходили в интернет.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 14:45
+ * @author Knoblul
+ */
+public interface TimeSource {
+	/**
+	 * Источник, который считает локальное время настоящим.
+	 */
+	TimeSource LOCAL = new TimeSource() {
+		@Override
+		public long requestOffset() {
+			return 0;
+		}
+
+		@Override
+		public boolean isCacheable() {
+			return false;
+		}
+	};
+
+	/**
+	 * Запрашивает смещение локального времени относительно настоящего.
+	 * Может блокировать поток, поэтому вызывается только в фоновом потоке.
+	 * @return смещение, которое нужно прибавить к локальному времени,
+	 * чтобы получить настоящее время, в миллисекундах
+	 * @throws IOException если не удалось получить время
+	 */
+	long requestOffset() throws IOException;
+
+	/**
+	 * @return <code>true</code>, если смещение от этого источника
+	 * можно сохранить на диск и использовать при следующем запуске
+	 */
+	default boolean isCacheable() {
+		return true;
+	}
+}
@@ -15,20 +15,36 @@
  */
 package knoblul.eosvstubot.utils;
 
-import org.apache.commons.net.ntp.NTPUDPClient;
-import org.apache.commons.net.ntp.NtpV3Packet;
-import org.apache.commons.net.ntp.TimeInfo;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import knoblul.eosvstubot.api.BotContext;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.util.Calendar;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Простой класс-утилита, который помогает в синхронизации
  * с настоящим временем и временем на компьютере.
- * В ленивой инициализации поулчает смещение, которое
- * нужно отнять от локального времени чтобы получить
- * настоящее UTC время.
+ * Хранит смещение, которое нужно отнять от локального времени
+ * чтобы получить настоящее UTC время.
+ *
+ * <p>Смещение запрашивается у {@link TimeSource} в фоновом потоке: при старте
+ * сразу используется последнее известное смещение из {@link #CACHE_FILE}, а затем
+ * каждые {@link #REFRESH_PERIOD} смещение уточняется медианой из
+ * {@link #SAMPLES_PER_REFRESH} замеров, чтобы учесть дрейф часов компьютера.</p>
  *
  * <br><br>Module: eos-vstu-bot
  * <br>Created: 28.04.2020 16:48
@@ -36,27 +52,132 @@ import java.util.Calendar;
  */
 public class TimeUtils {
 	private static final String NTP_SERVER_HOST = "pool.ntp.org";
-	private static long ntpOffset;
+
+	/**
+	 * Файл, в котором хранится последнее известное смещение.
+	 */
+	private static final Path CACHE_FILE = Paths.get("time_offset.json");
+
+	/**
+	 * Период обновления смещения.
+	 */
+	private static final long REFRESH_PERIOD = TimeUnit.HOURS.toMillis(6);
+
+	/**
+	 * Через сколько повторить обновление, если ни один замер не удался.
+	 */
+	private static final long RETRY_PERIOD = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * Количество замеров за одно обновление. Из них берется медиана,
+	 * чтобы один замер с большой сетевой задержкой не испортил смещение.
+	 */
+	private static final int SAMPLES_PER_REFRESH = 5;
+
+	private static final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "Time Correction Refresher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Следующее запланированное обновление. Используется только в потоке {@link #refresher}.
+	 */
+	private static ScheduledFuture<?> scheduledRefresh;
+
+	private static volatile TimeSource timeSource = new NtpTimeSource(NTP_SERVER_HOST);
+	private static volatile long ntpOffset;
 
 	static {
-		requestNtpCorrection();
+		loadCachedOffset();
+		refresher.execute(TimeUtils::refreshNtpCorrection);
+	}
+
+	private static void loadCachedOffset() {
+		if (Files.exists(CACHE_FILE)) {
+			try (BufferedReader reader = Files.newBufferedReader(CACHE_FILE)) {
+				JsonObject object = BotContext.GSON.fromJson(reader, JsonObject.class);
+				if (object != null && object.has("offset")) {
+					ntpOffset = object.get("offset").getAsLong();
+					Log.trace("Using cached NTP time correction: %d ms", ntpOffset);
+				}
+			} catch (IOException | JsonParseException | IllegalStateException e) {
+				Log.warn(e, "Failed to load %s", CACHE_FILE);
+			}
+		}
 	}
 
-	private static void requestNtpCorrection() {
+	private static void saveCachedOffset(long offset) {
+		try (BufferedWriter writer = Files.newBufferedWriter(CACHE_FILE)) {
+			JsonObject object = new JsonObject();
+			object.add("offset", new JsonPrimitive(offset));
+			object.add("time", new JsonPrimitive(System.currentTimeMillis()));
+			BotContext.GSON.toJson(object, writer);
+		} catch (IOException | JsonParseException e) {
+			Log.warn(e, "Failed to save %s", CACHE_FILE);
+		}
+	}
+
+	/**
+	 * Делает несколько замеров смещения и применяет медиану.
+	 * Выполняется только в потоке {@link #refresher}.
+	 */
+	private static void refreshNtpCorrection() {
+		if (scheduledRefresh != null) {
+			scheduledRefresh.cancel(false);
+			scheduledRefresh = null;
+		}
+
 		Log.trace("Requesting NTP time correction...");
-		NTPUDPClient ntpClient = new NTPUDPClient();
-		try {
-			ntpClient.open();
-			TimeInfo info = ntpClient.getTime(InetAddress.getByName(NTP_SERVER_HOST));
-			NtpV3Packet message = info.getMessage();
-			ntpOffset = message.getReceiveTimeStamp().getTime() - message.getOriginateTimeStamp().getTime()
-					+ message.getTransmitTimeStamp().getTime() - info.getReturnTime();
-			Log.trace("NTP time correction request successfull. UTC offset generated.");
-		} catch (IOException e) {
-			Log.warn(e, "Failed to get NTP time correction");
-		} finally {
-			ntpClient.close();
+		TimeSource source = timeSource;
+		List<Long> samples = Lists.newArrayListWithCapacity(SAMPLES_PER_REFRESH);
+		IOException lastError = null;
+		for (int i = 0; i < SAMPLES_PER_REFRESH; i++) {
+			if (source != timeSource) {
+				// источник заменили - замеры старого источника уже не нужны
+				return;
+			}
+
+			try {
+				samples.add(source.requestOffset());
+			} catch (IOException e) {
+				lastError = e;
+			}
+		}
+
+		if (samples.isEmpty()) {
+			Log.warn(lastError, "Failed to get NTP time correction");
+			scheduledRefresh = refresher.schedule(TimeUtils::refreshNtpCorrection, RETRY_PERIOD, TimeUnit.MILLISECONDS);
+			return;
 		}
+
+		Collections.sort(samples);
+		long offset = samples.get(samples.size() / 2);
+		ntpOffset = offset;
+		if (source.isCacheable()) {
+			saveCachedOffset(offset);
+		}
+		Log.trace("NTP time correction request successfull (%d/%d samples). UTC offset generated.",
+				samples.size(), SAMPLES_PER_REFRESH);
+		scheduledRefresh = refresher.schedule(TimeUtils::refreshNtpCorrection, REFRESH_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Заменяет источник настоящего времени и сразу же запрашивает у него смещение.
+	 * Дальнейшие периодические обновления тоже будут использовать новый источник.
+	 * @param source новый источник времени
+	 * @return Future, который завершится, когда смещение от нового источника будет применено
+	 */
+	public static Future<?> setTimeSource(TimeSource source) {
+		timeSource = source;
+		return refresher.submit(TimeUtils::refreshNtpCorrection);
+	}
+
+	/**
+	 * @return смещение локального времени относительно настоящего, в миллисекундах
+	 */
+	public static long getNtpOffset() {
+		return ntpOffset;
 	}
 
 	/**
@@ -64,8 +185,7 @@ public class TimeUtils {
 	 * получить UTC-локальное время.
 	 */
 	public static long getUtcOffset() {
-		Calendar calendar = Calendar.getInstance();
-		return calendar.getTimeZone().getOffset(calendar.getTimeInMillis());
+		return LocalClock.getUtcOffset(System.currentTimeMillis());
 	}
 
 	/**
@@ -17,15 +17,19 @@ package knoblul.eosvstubot.utils;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import knoblul.eosvstubot.api.BotContext;
+import knoblul.eosvstubot.api.network.HttpStatusException;
+import knoblul.eosvstubot.api.network.RequestPriority;
 import knoblul.eosvstubot.api.profile.Profile;
 import knoblul.eosvstubot.api.schedule.Lesson;
+import knoblul.eosvstubot.api.schedule.ScheduledConnectionsHandler;
 import knoblul.eosvstubot.gui.schedule.ScheduleManagerComponent;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.jetbrains.annotations.NotNull;
 import org.jsoup.nodes.Document;
@@ -35,13 +39,21 @@ import org.jsoup.select.Elements;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DateFormatSymbols;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,75 +67,274 @@ import java.util.regex.Pattern;
  * @author Knoblul
  */
 public class VolgasuScheduleGenerator {
-	private static Map<String, String> cachedCourseLinks = Maps.newHashMap();
+	/**
+	 * Кеш айди чатов, общий для всех запусков генератора и всех групп.
+	 */
+	private static final ChatIdCache chatIdCache = new ChatIdCache(Paths.get("chat_id_cache.json"));
 	private static final Pattern CHAT_ID_PATTERN = Pattern.compile("(?s)\\?id=(.+?)$");
 
-	private static String fetchChatId(BotContext context, Document index, String lessonName) throws IOException {
-		if (cachedCourseLinks.containsKey(lessonName)) {
-			return cachedCourseLinks.get(lessonName);
-		}
-
-		// теперь самая сложная часть - парсинг айдишника чата.
-		// для этого бот переходит по нескольким ссылкам
+	/**
+	 * Максимальное количество предметов, айди чатов которых запрашиваются одновременно.
+	 */
+	private static final int MAX_CONCURRENT_RESOLUTIONS = 6;
 
-		// парсит список всех курсов, находит курс с нужным именем.
+	/**
+	 * Парсит список всех курсов с главной ЭИОСа и строит по нему индекс.
+	 * @return индекс названий курсов
+	 */
+	private static CourseNameIndex parseCourseIndex(Document index) {
+		CourseNameIndex courseIndex = new CourseNameIndex();
 		Elements courses = index.select("#frontpage-course-list .courses .coursebox .coursename a");
-		String targetCourseLink = null;
 		for (Element course : courses) {
-			String courseName = course.text();
-			String courseLink = course.attr("href");
-			if (StringUtils.containsIgnoreCase(courseName, lessonName)) {
-				targetCourseLink = courseLink;
-				break;
+			courseIndex.add(course.text(), course.attr("href"));
+		}
+		return courseIndex;
+	}
+
+	/**
+	 * Обрабатывает ответы на асинхронные запросы в текущем (основном) потоке,
+	 * пока не будет выполнено условие.
+	 */
+	private static void processUntil(BotContext context, BooleanSupplier condition) throws IOException {
+		while (!condition.getAsBoolean()) {
+			context.update();
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				throw new IOException("Schedule generation interrupted", e);
 			}
 		}
+	}
+
+	/**
+	 * Одновременно получает айди чатов для всех указанных предметов, которых еще нет в кеше.
+	 * Устаревшие айди из кеша не ищутся заново, а только проверяются - заново ищутся
+	 * только те айди, ссылка на чат которых отвечает 404. Запросы выполняются асинхронным
+	 * клиентом, не более {@link #MAX_CONCURRENT_RESOLUTIONS} предметов за раз, а текущий
+	 * (основной) поток обрабатывает ответы, пока все айди не будут получены.
+	 * @param lessonNames названия предметов
+	 * @throws IOException если не удалось загрузить страницу курса или консультации
+	 */
+	private static void fetchChatIds(BotContext context, Collection<String> lessonNames) throws IOException {
+		Set<String> unresolved = Sets.newLinkedHashSet();
+		for (String lessonName : lessonNames) {
+			if (!chatIdCache.isFresh(lessonName)) {
+				unresolved.add(lessonName);
+			}
+		}
+
+		if (unresolved.isEmpty()) {
+			return;
+		}
+
+		Log.info("Resolving/validating chat ids of %d lessons...", unresolved.size());
+		ChatIdResolver resolver = new ChatIdResolver(context, unresolved);
+		resolver.start();
+		processUntil(context, resolver::isDone);
+
+		// сохраняем то, что успели найти, даже если была ошибка
+		chatIdCache.save();
+		if (resolver.error != null) {
+			throw resolver.error;
+		}
+	}
+
+	/**
+	 * Получает айди чатов для набора предметов. Для каждого предмета выполняется
+	 * цепочка из двух запросов (страница курса, затем страница консультации),
+	 * но цепочки разных предметов выполняются одновременно. Если у предмета есть
+	 * устаревший айди в кеше, то сначала проверяется ссылка на его чат.
+	 * Все методы этого класса выполняются в основном потоке контекста.
+	 */
+	private static class ChatIdResolver {
+		private final BotContext context;
+		private final Iterator<String> pending;
+
+		/**
+		 * Список курсов с главной ЭИОСа. Загружается и парсится один раз
+		 * для всех предметов (и всех групп), и только тогда, когда хотя бы
+		 * один предмет нужно искать заново.
+		 */
+		private CourseNameIndex courseIndex;
+		private int inFlight;
+		private IOException error;
+
+		private ChatIdResolver(BotContext context, Set<String> lessonNames) {
+			this.context = context;
+			this.pending = lessonNames.iterator();
+		}
+
+		private boolean isDone() {
+			return inFlight == 0 && (error != null || !pending.hasNext());
+		}
+
+		/**
+		 * Запускает цепочки запросов, пока не будет достигнут лимит одновременных цепочек.
+		 */
+		private void start() {
+			while (error == null && inFlight < MAX_CONCURRENT_RESOLUTIONS && pending.hasNext()) {
+				String lessonName = pending.next();
+				String cachedChatId = chatIdCache.get(lessonName);
+				inFlight++;
+				if (cachedChatId != null && !cachedChatId.isEmpty()) {
+					validate(lessonName, cachedChatId);
+				} else {
+					resolve(lessonName);
+				}
+			}
+		}
+
+		private void complete(String lessonName, String chatId) {
+			chatIdCache.put(lessonName, chatId);
+			inFlight--;
+			start();
+		}
+
+		/**
+		 * Проверяет устаревший айди чата из кеша, открывая ссылку на чат.
+		 * Предмет ищется заново, только если чата больше нет (404).
+		 */
+		private void validate(String lessonName, String chatId) {
+			HttpUriRequest request = context.buildGetRequest(ScheduledConnectionsHandler.getChatLink(chatId), null);
+			context.executeRequestAsync(request, RequestPriority.BACKGROUND, String.class, HttpCallbacks.onEither(
+					page -> context.invokeMainThreadCommand(() -> {
+						chatIdCache.touch(lessonName);
+						inFlight--;
+						start();
+					}),
+					e -> context.invokeMainThreadCommand(() -> {
+						if (HttpStatusException.getStatusCode(e) == HttpStatus.SC_NOT_FOUND) {
+							Log.info("Chat %s of '%s' not found, resolving again...", chatId, lessonName);
+							resolve(lessonName);
+						} else {
+							// сеть или сайт недоступны - оставляем айди из кеша
+							Log.warn(e, "Failed to validate chat %s of '%s'", chatId, lessonName);
+							inFlight--;
+							start();
+						}
+					})));
+		}
+
+		private void fail(IOException e) {
+			if (error == null) {
+				error = e;
+			}
+			inFlight--;
+		}
+
+		private void resolve(String lessonName) {
+			if (courseIndex == null) {
+				try {
+					// получаем экземпляр главной эиоса
+					HttpUriRequest request = context.buildGetRequest("http://eos.vstu.ru/index.php", null);
+					courseIndex = parseCourseIndex(context.executeRequest(request, Document.class));
+				} catch (IOException e) {
+					fail(e);
+					return;
+				}
+			}
+
+			// теперь самая сложная часть - парсинг айдишника чата.
+			// для этого бот переходит по нескольким ссылкам
+			String targetCourseLink = courseIndex.find(lessonName);
+			if (targetCourseLink == null) {
+				complete(lessonName, "");
+				return;
+			}
 
-		if (targetCourseLink != null) {
 			// идем по ссылке на курс
 			HttpUriRequest request = context.buildGetRequest(targetCourseLink, null);
-			Document coursePage = context.executeRequest(request, Document.class);
+			context.executeRequestAsync(request, RequestPriority.BACKGROUND, Document.class, HttpCallbacks.onEither(
+					coursePage -> context.invokeMainThreadCommand(() -> onCoursePage(lessonName, coursePage)),
+					e -> context.invokeMainThreadCommand(() -> fail(new IOException(e)))));
+		}
+
+		private void onCoursePage(String lessonName, Document coursePage) {
 			// парсим ссылку на консультацию из страницы курса
 			Elements activityInstance = coursePage.select(".activity.chat.modtype_chat .activityinstance a");
 			String consultationLink = activityInstance.attr("href");
-			if (!consultationLink.isEmpty()) {
-				// идем по ссылке на консультацию в режиме онлайн
-				request = context.buildGetRequest(consultationLink, null);
-				Document consultationPage = context.executeRequest(request, Document.class);
-				// получаем ссылку на ajax чат.
-				String joinChatAjax = consultationPage.select("#enterlink [href*=/gui_ajax/]")
-						.attr("href");
-				// парсим id из ссылки на чат
-				if (!joinChatAjax.isEmpty()) {
-					Matcher m = CHAT_ID_PATTERN.matcher(joinChatAjax);
-					if (m.find()) {
-						String chatId = m.group(1);
-						cachedCourseLinks.put(lessonName, chatId);
-						return chatId;
-					}
-				}
+			if (consultationLink.isEmpty()) {
+				complete(lessonName, "");
+				return;
+			}
+
+			// идем по ссылке на консультацию в режиме онлайн
+			HttpUriRequest request = context.buildGetRequest(consultationLink, null);
+			context.executeRequestAsync(request, RequestPriority.BACKGROUND, Document.class, HttpCallbacks.onEither(
+					consultationPage -> context.invokeMainThreadCommand(() ->
+							complete(lessonName, parseChatId(consultationPage))),
+					e -> context.invokeMainThreadCommand(() -> fail(new IOException(e)))));
+		}
+	}
+
+	/**
+	 * Получает айди чата из страницы консультации.
+	 * @return айди чата, либо пустая строка
+	 */
+	private static String parseChatId(Document consultationPage) {
+		// получаем ссылку на ajax чат.
+		String joinChatAjax = consultationPage.select("#enterlink [href*=/gui_ajax/]")
+				.attr("href");
+		// парсим id из ссылки на чат
+		if (!joinChatAjax.isEmpty()) {
+			Matcher m = CHAT_ID_PATTERN.matcher(joinChatAjax);
+			if (m.find()) {
+				return m.group(1);
 			}
 		}
-		cachedCourseLinks.put(lessonName, "");
 		return "";
 	}
 
-	public static void generateScheduleJson(@NotNull BotContext context, @NotNull String scheduleParameter,
-											@NotNull BufferedWriter writer) throws IOException {
-		// получаем экземпляр главной эиоса
-		HttpUriRequest request = context.buildGetRequest("http://eos.vstu.ru/index.php", null);
-		Document eosIndex = context.executeRequest(request, Document.class);
-
-		// получаем экземпляр таблицы расписания
-		Map<String, String> params = Maps.newHashMap();
-		params.put("params", scheduleParameter);
-		request = context.buildPostRequest("http://vgasu.ru/contents/select.shedule.php", params);
-		Document document = context.executeRequest(request, Document.class);
+	/**
+	 * Одновременно загружает таблицы расписания для всех указанных айди.
+	 * @param scheduleParameters айди расписаний
+	 * @return мапа, где ключ - айди расписания, значение - страница с таблицей
+	 * @throws IOException если не удалось загрузить хотя бы одну таблицу
+	 */
+	private static Map<String, Document> fetchScheduleTables(BotContext context, Collection<String> scheduleParameters)
+			throws IOException {
+		Map<String, Document> documents = Maps.newConcurrentMap();
+		AtomicInteger remaining = new AtomicInteger(scheduleParameters.size());
+		AtomicReference<Exception> error = new AtomicReference<>();
+		for (String scheduleParameter : scheduleParameters) {
+			// получаем экземпляр таблицы расписания
+			Map<String, String> params = Maps.newHashMap();
+			params.put("params", scheduleParameter);
+			HttpUriRequest request = context.buildPostRequest("http://vgasu.ru/contents/select.shedule.php", params);
+			context.executeRequestAsync(request, RequestPriority.BACKGROUND, Document.class, HttpCallbacks.onEither(document -> {
+				documents.put(scheduleParameter, document);
+				remaining.decrementAndGet();
+			}, e -> {
+				error.compareAndSet(null, e);
+				remaining.decrementAndGet();
+			}));
+		}
+
+		processUntil(context, () -> remaining.get() == 0);
+		if (error.get() != null) {
+			throw new IOException("Failed to fetch schedule table", error.get());
+		}
+		return documents;
+	}
+
+	/**
+	 * Парсит таблицу с расписанием.
+	 * @param document страница с таблицей
+	 * @param lessonNames мапа, в которую для каждого урока записывается название предмета,
+	 *                    по которому ищется айди чата
+	 * @return список уроков (без айди чатов)
+	 */
+	private static List<Lesson> parseScheduleTable(Document document, Map<Lesson, String> lessonNames) {
 		Element table = document.select("body table tbody").first();
+		List<Lesson> lessons = Lists.newArrayList();
+		if (table == null) {
+			Log.warn("Schedule not generated. Table page content: %s", document.toString());
+			return lessons;
+		}
 
 		// парсим таблицу с расписанием
 		String currentWeek = null;
 		String currentDayOfWeek = null;
-		List<Lesson> lessons = Lists.newArrayList();
 		for (Element e : table.children()) {
 			if (e.tagName().equals("tr") && e.className().isEmpty()) {
 				if (!e.select("th").isEmpty()) {
@@ -148,8 +359,6 @@ public class VolgasuScheduleGenerator {
 							String title = elements.get(1).text();
 							String type = elements.get(2).text();
 							String teacher = elements.get(3).text();
-							// получаем и вычисляем айди чата
-							String chatId = fetchChatId(context, eosIndex, title.toLowerCase().trim());
 
 							String[] timeSplit = time.split(":");
 							long scheduleTime = TimeUnit.DAYS.toMillis(day)
@@ -163,8 +372,8 @@ public class VolgasuScheduleGenerator {
 							lesson.setScheduleTime(scheduleTime - TimeUtils.getUtcOffset());
 							lesson.setWeekIndex(currentWeek.contains("II") ? 1 : 0);
 							lesson.setDuration(Lesson.DEFAULT_LESSON_DURATION);
-							lesson.setChatId(chatId);
 							lessons.add(lesson);
+							lessonNames.put(lesson, title.toLowerCase().trim());
 						} else {
 							Log.warn("Wrong condition: day == -1 (%d)", day);
 						}
@@ -179,7 +388,43 @@ public class VolgasuScheduleGenerator {
 		if (lessons.isEmpty()) {
 			Log.warn("Schedule not generated. Table page content: %s", document.toString());
 		}
+		return lessons;
+	}
+
+	/**
+	 * Генерирует расписания сразу для нескольких групп. Таблицы расписания загружаются
+	 * одновременно, а айди чатов ищутся один раз для всех групп сразу, так что
+	 * общие предметы и список курсов ЭИОСа не загружаются по нескольку раз.
+	 * @param scheduleParameters айди расписаний
+	 * @return мапа, где ключ - айди расписания, значение - список уроков
+	 * @throws IOException при ошибке загрузки страниц
+	 */
+	@NotNull
+	public static Map<String, List<Lesson>> generateSchedules(@NotNull BotContext context,
+															  @NotNull Collection<String> scheduleParameters)
+			throws IOException {
+		chatIdCache.load();
+
+		Map<String, Document> documents = fetchScheduleTables(context, scheduleParameters);
+
+		// парсим таблицы с расписанием
+		Map<String, List<Lesson>> schedules = Maps.newLinkedHashMap();
+		// название предмета, по которому ищется айди чата, для каждого урока
+		Map<Lesson, String> lessonNames = Maps.newLinkedHashMap();
+		for (String scheduleParameter : scheduleParameters) {
+			schedules.put(scheduleParameter, parseScheduleTable(documents.get(scheduleParameter), lessonNames));
+		}
+
+		// получаем и вычисляем айди чатов сразу для всех предметов всех групп
+		fetchChatIds(context, lessonNames.values());
+		lessonNames.forEach((lesson, name) -> {
+			String chatId = chatIdCache.get(name);
+			lesson.setChatId(chatId != null ? chatId : "");
+		});
+		return schedules;
+	}
 
+	public static void writeScheduleJson(@NotNull List<Lesson> lessons, @NotNull BufferedWriter writer) {
 		Gson gson = new GsonBuilder().setPrettyPrinting().create();
 		JsonObject object = new JsonObject();
 		JsonArray array = new JsonArray();
@@ -188,27 +433,55 @@ public class VolgasuScheduleGenerator {
 		gson.toJson(object, writer);
 	}
 
+	public static void generateScheduleJson(@NotNull BotContext context, @NotNull String scheduleParameter,
+											@NotNull BufferedWriter writer) throws IOException {
+		List<Lesson> lessons = generateSchedules(context, Collections.singletonList(scheduleParameter))
+				.get(scheduleParameter);
+		writeScheduleJson(lessons, writer);
+	}
+
+	/**
+	 * @param scheduleParameter айди расписания
+	 * @param batch <code>true</code>, если генерируется несколько расписаний
+	 * @return файл, в который записывается сгенерированное расписание
+	 */
+	private static Path getOutputFile(String scheduleParameter, boolean batch) {
+		if (!batch) {
+			return Paths.get("schedule_generated.json");
+		}
+		return Paths.get("schedule_generated_" + scheduleParameter.replaceAll("[^\\w.-]", "_") + ".json");
+	}
+
 	/**
 	 * Запускается прямо из билд-скрипта
-	 * командой generateScheduleVolgasu
+	 * командой generateScheduleVolgasu.
+	 * Если передано несколько айди расписаний, то для каждого из них
+	 * создается отдельный файл schedule_generated_айди.json.
 	 */
 	public static void main(@NotNull String[] args) throws IOException {
 		if (args.length < 3) {
-			throw new RuntimeException("Missing program parameters [username, password, scheduleID]\npassed: " + Arrays.toString(args));
+			throw new RuntimeException("Missing program parameters [username, password, scheduleID...]\npassed: " + Arrays.toString(args));
 		}
 
 		BotContext context = new BotContext();
 		context.create();
-		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get("schedule_generated.json"))) {
+		try {
 			String username = args[0];
 			String password = args[1];
-			String scheduleId = args[2];
+			List<String> scheduleIds = Lists.newArrayList(Sets.newLinkedHashSet(Arrays.asList(args).subList(2, args.length)));
 
 			Log.info("Logging in...");
 			context.getProfileManager().loginProfile(new Profile(username, password));
-			Log.info("Starting schedule generation...");
-			VolgasuScheduleGenerator.generateScheduleJson(context, scheduleId, writer);
-			Log.info("Schedule successfuly generated");
+			Log.info("Starting schedule generation for %d schedule(s)...", scheduleIds.size());
+			Map<String, List<Lesson>> schedules = generateSchedules(context, scheduleIds);
+			boolean batch = scheduleIds.size() > 1;
+			for (Map.Entry<String, List<Lesson>> schedule : schedules.entrySet()) {
+				Path outputFile = getOutputFile(schedule.getKey(), batch);
+				try (BufferedWriter writer = Files.newBufferedWriter(outputFile)) {
+					writeScheduleJson(schedule.getValue(), writer);
+				}
+				Log.info("Schedule %s successfuly generated: %s", schedule.getKey(), outputFile);
+			}
 		} finally {
 			context.destroy();
 		}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.tests.passing;
+
+import com.google.gson.JsonObject;
+import knoblul.eosvstubot.api.chat.action.ChatAction;
+import knoblul.eosvstubot.api.chat.action.ChatAjaxResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static knoblul.eosvstubot.api.BotContext.GSON;
+
+/**
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 20:05
+ * @author Knoblul
+ */
+public class ChatAjaxResponseDecodingTest extends Assert {
+	public static final String UPDATE_RESPONSE = "{\"lasttime\":1588086000,\"lastrow\":null,\"msgs\":{"
+			+ "\"101\":{\"id\":\"101\",\"userid\":\"5\",\"system\":\"1\",\"message\":\"<div class=\\\"chat-event\\\">"
+			+ "<span class=\\\"time\\\">18:00<\\/span><span class=\\\"event\\\">\\u0418\\u0432\\u0430\\u043d "
+			+ "\\u0432\\u043e\\u0448\\u0435\\u043b \\u0432 \\u0447\\u0430\\u0442<\\/span><\\/div>\",\"mymessage\":false},"
+			+ "\"102\":{\"id\":102,\"userid\":\"7\",\"system\":\"0\",\"type\":\"message\",\"message\":"
+			+ "\"<div class=\\\"chat-message\\\"><div class=\\\"chat-message-meta\\\"><span class=\\\"time\\\">18:01<\\/span>"
+			+ "<span class=\\\"user\\\"><a href=\\\"#\\\">\\u041f\\u0435\\u0442\\u0440<\\/a><\\/span><\\/div>"
+			+ "<div class=\\\"text\\\">\\u0417\\u0434\\u0440\\u0430\\u0432\\u0441\\u0442\\u0432\\u0443\\u0439\\u0442\\u0435"
+			+ "<\\/div><\\/div>\",\"mymessage\":true}},"
+			+ "\"users\":[{\"name\":\"\\u0418\\u0432\\u0430\\u043d\",\"url\":\"http:\\/\\/eos.vstu.ru\\/user\\/view.php?id=5\","
+			+ "\"picture\":\"<img src=\\\"x.png\\\">\",\"id\":\"5\",\"firstaccess\":\"0\"},"
+			+ "{\"name\":\"\\u041f\\u0435\\u0442\\u0440\",\"url\":\"http:\\/\\/eos.vstu.ru\\/user\\/view.php?id=7\","
+			+ "\"picture\":\"<img src=\\\"y.png\\\">\",\"id\":7}]}";
+
+	@Test
+	public void testDecodingMatchesTreeParsing() throws IOException {
+		ChatAjaxResponse response = ChatAjaxResponse.decode(new StringReader(UPDATE_RESPONSE));
+		assertNotNull(response);
+		assertNull(response.getError());
+		assertEquals("1588086000", response.getLastTime());
+
+		ChatAction decoded = response.getAction();
+		ChatAction parsed = new ChatAction(GSON.fromJson(UPDATE_RESPONSE, JsonObject.class));
+		assertNotNull(decoded);
+		assertEquals(2, decoded.getNewMessages().size());
+		assertEquals(parsed.getNewMessages(), decoded.getNewMessages());
+		assertEquals(parsed.getUsers(), decoded.getUsers());
+	}
+
+	@Test
+	public void testErrorAndEmptyResponses() throws IOException {
+		ChatAjaxResponse error = ChatAjaxResponse.decode(new StringReader("{\"error\":\"Not logged in\",\"errorcode\":2}"));
+		assertNotNull(error);
+		assertEquals("Not logged in", error.getError());
+		assertEquals("2", error.getErrorCode());
+		assertNull(error.getAction());
+
+		ChatAjaxResponse empty = ChatAjaxResponse.decode(new StringReader("{\"lasttime\":\"1\",\"lastrow\":\"3\"}"));
+		assertNotNull(empty);
+		assertEquals("3", empty.getLastRow());
+		assertNull(empty.getAction());
+
+		assertNull(ChatAjaxResponse.decode(new StringReader("")));
+		assertNull(ChatAjaxResponse.decode(new StringReader("true")));
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.tests.passing;
+
+import com.google.common.collect.Lists;
+import knoblul.eosvstubot.api.chat.listening.ChatEventPublisher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 20:50
+ * @author Knoblul
+ */
+public class ChatEventPublisherTest extends Assert {
+	/**
+	 * Исполнитель, задачи которого выполняются только по вызову {@link #runAll()} -
+	 * имитирует медленного подписчика.
+	 */
+	private static class ManualExecutor implements Executor {
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+	}
+
+	@Test
+	public void testOverflowPolicies() {
+		ChatEventPublisher<String> publisher = new ChatEventPublisher<>((a, b) -> a + b);
+		ManualExecutor executor = new ManualExecutor();
+		List<String> dropping = Lists.newArrayList();
+		List<String> coalescing = Lists.newArrayList();
+		ChatEventPublisher<String>.Subscription droppingSubscription =
+				publisher.subscribe(dropping::add, executor, 2, ChatEventPublisher.OverflowPolicy.DROP_OLDEST);
+		publisher.subscribe(coalescing::add, executor, 2, ChatEventPublisher.OverflowPolicy.COALESCE);
+
+		for (String event : new String[] { "a", "b", "c", "d" }) {
+			publisher.publish(event);
+		}
+		executor.runAll();
+
+		assertEquals(Lists.newArrayList("c", "d"), dropping);
+		assertEquals(2, droppingSubscription.getDroppedEvents());
+		assertEquals(Lists.newArrayList("a", "bcd"), coalescing);
+
+		droppingSubscription.cancel();
+		publisher.publish("e");
+		executor.runAll();
+		assertEquals(Lists.newArrayList("c", "d"), dropping);
+		assertEquals(Lists.newArrayList("a", "bcd", "e"), coalescing);
+	}
+
+	@Test
+	public void testBlockingSubscriberReceivesEverythingInOrder() throws InterruptedException {
+		ChatEventPublisher<Integer> publisher = new ChatEventPublisher<>(null);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		List<Integer> received = Lists.newArrayList();
+		CountDownLatch done = new CountDownLatch(1);
+		publisher.subscribe(event -> {
+			received.add(event);
+			if (event == 999) {
+				done.countDown();
+			}
+		}, executor, 4, ChatEventPublisher.OverflowPolicy.BLOCK);
+
+		for (int i = 0; i < 1000; i++) {
+			publisher.publish(i);
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+
+		assertEquals(1000, received.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, (int) received.get(i));
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.tests.passing;
+
+import knoblul.eosvstubot.api.chat.ChatMessageQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 22:20
+ * @author Knoblul
+ */
+public class ChatMessageQueueTest extends Assert {
+	@Test
+	public void testRateLimitAndDeduplication() {
+		ChatMessageQueue queue = new ChatMessageQueue(2, 1000, 2, 0);
+		ChatMessageQueue.OutboundMessage a = new ChatMessageQueue.OutboundMessage("a", 0);
+		ChatMessageQueue.OutboundMessage duplicate = new ChatMessageQueue.OutboundMessage("a", 0);
+		assertTrue(queue.offer(a));
+		assertFalse(queue.offer(duplicate));
+		assertEquals(ChatMessageQueue.Status.DUPLICATE, duplicate.getStatus());
+		assertTrue(queue.offer(new ChatMessageQueue.OutboundMessage("b", 0)));
+		assertTrue(queue.offer(new ChatMessageQueue.OutboundMessage("c", 0)));
+		assertEquals(3, queue.getQueueDepth());
+
+		// два сообщения подряд, третье - после восстановления токена
+		assertSame(a, queue.poll(0));
+		assertEquals(ChatMessageQueue.Status.SENDING, a.getStatus());
+		assertNotNull(queue.poll(0));
+		assertNull(queue.poll(0));
+		assertEquals(500, queue.getSendDelay(500));
+		assertNotNull(queue.poll(1000));
+		assertEquals(-1, queue.getSendDelay(1000));
+
+		queue.delivered(a, 300);
+		assertEquals(ChatMessageQueue.Status.DELIVERED, a.getStatus());
+		assertEquals(300, queue.getAverageSendLatency());
+	}
+
+	@Test
+	public void testRetries() {
+		ChatMessageQueue queue = new ChatMessageQueue(10, 1000, 2, 0);
+		ChatMessageQueue.OutboundMessage message = new ChatMessageQueue.OutboundMessage("a", 0);
+		queue.offer(message);
+		queue.offer(new ChatMessageQueue.OutboundMessage("b", 0));
+
+		assertSame(message, queue.poll(0));
+		assertTrue(queue.failed(message));
+		// неотправленное сообщение возвращается в начало очереди
+		assertSame(message, queue.poll(0));
+		assertFalse(queue.failed(message));
+		assertEquals(ChatMessageQueue.Status.FAILED, message.getStatus());
+		assertEquals(1, queue.getFailedMessages());
+		assertEquals(1, queue.getQueueDepth());
+	}
+
+	@Test
+	public void testCancelledSend() {
+		ChatMessageQueue queue = new ChatMessageQueue(10, 1000, 1, 0);
+		ChatMessageQueue.OutboundMessage message = new ChatMessageQueue.OutboundMessage("a", 0);
+		queue.offer(message);
+
+		// отмененная попытка не считается
+		assertSame(message, queue.poll(0));
+		queue.requeue(message);
+		assertEquals(ChatMessageQueue.Status.QUEUED, message.getStatus());
+		assertEquals(0, message.getAttempts());
+
+		assertSame(message, queue.poll(0));
+		queue.abandon(message);
+		assertEquals(ChatMessageQueue.Status.FAILED, message.getStatus());
+		assertEquals(1, queue.getFailedMessages());
+		assertEquals(0, queue.getQueueDepth());
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.tests.passing;
+
+import knoblul.eosvstubot.utils.CourseNameIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 17:40
+ * @author Knoblul
+ */
+public class CourseNameIndexTest extends Assert {
+	@Test
+	public void testCourseLookup() {
+		CourseNameIndex index = new CourseNameIndex();
+		index.add("Прикладная математика и информатика (ИСТ-1)", "course/1");
+		index.add("Математика", "course/2");
+		index.add("Высшая   математика, часть 1", "course/3");
+		index.add("История России", "course/4");
+		index.add("Информатика и программирование", "course/5");
+
+		// курс без лишних слов лучше
+		assertEquals("course/2", index.find("математика"));
+		// регистр, пробелы и знаки препинания не важны
+		assertEquals("course/3", index.find("  ВЫСШАЯ математика "));
+		// слова подряд лучше, чем вразброс
+		assertEquals("course/5", index.find("информатика"));
+		assertEquals("course/1", index.find("математика и информатика"));
+		// подстрока, как при поиске перебором
+		assertEquals("course/4", index.find("истор"));
+		assertNull(index.find("физика"));
+		assertNull(index.find(" , "));
+	}
+}
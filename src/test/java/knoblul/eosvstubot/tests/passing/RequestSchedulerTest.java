@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.tests.passing;
+
+import com.google.common.collect.Lists;
+import knoblul.eosvstubot.api.network.RequestPriority;
+import knoblul.eosvstubot.api.network.RequestScheduler;
+import knoblul.eosvstubot.utils.HttpCallbacks;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 22:50
+ * @author Knoblul
+ */
+public class RequestSchedulerTest extends Assert {
+	@Test
+	public void testPriorityAndLimits() {
+		RequestScheduler scheduler = new RequestScheduler();
+		List<FutureCallback<HttpResponse>> backgroundCallbacks = Lists.newArrayList();
+		List<String> dispatched = Lists.newArrayList();
+
+		for (int i = 0; i < 10; i++) {
+			scheduler.submit(RequestPriority.BACKGROUND, callback -> {
+				dispatched.add("background");
+				backgroundCallbacks.add(callback);
+				return new BasicFuture<>(callback);
+			}, HttpCallbacks.onCompletion(response -> { }));
+		}
+
+		int backgroundLimit = RequestPriority.BACKGROUND.getConcurrencyLimit();
+		assertEquals(backgroundLimit, scheduler.getActiveRequests(RequestPriority.BACKGROUND));
+		assertEquals(10 - backgroundLimit, scheduler.getQueuedRequests(RequestPriority.BACKGROUND));
+
+		// пинг не ждет фоновые запросы
+		scheduler.submit(RequestPriority.PING, callback -> {
+			dispatched.add("ping");
+			return new BasicFuture<>(callback);
+		}, HttpCallbacks.onCompletion(response -> { }));
+		assertEquals("ping", dispatched.get(dispatched.size() - 1));
+
+		// завершение фонового запроса освобождает место следующему
+		backgroundCallbacks.get(0).completed(null);
+		assertEquals(backgroundLimit, scheduler.getActiveRequests(RequestPriority.BACKGROUND));
+		assertEquals(10 - backgroundLimit - 1, scheduler.getQueuedRequests(RequestPriority.BACKGROUND));
+	}
+
+	@Test
+	public void testCancelQueued() {
+		RequestScheduler scheduler = new RequestScheduler();
+		for (int i = 0; i < RequestPriority.SESSION.getConcurrencyLimit(); i++) {
+			scheduler.submit(RequestPriority.SESSION, BasicFuture::new, HttpCallbacks.onCompletion(response -> { }));
+		}
+
+		boolean[] cancelled = { false };
+		Future<HttpResponse> queued = scheduler.submit(RequestPriority.SESSION, callback -> {
+			fail("Cancelled request must not be dispatched");
+			return null;
+		}, HttpCallbacks.onFailure(HttpCallbacks.onCompletion(response -> { }), e -> cancelled[0] = true));
+
+		assertEquals(1, scheduler.getQueuedRequests(RequestPriority.SESSION));
+		assertTrue(queued.cancel(true));
+		assertTrue(cancelled[0]);
+		assertEquals(0, scheduler.getQueuedRequests(RequestPriority.SESSION));
+	}
+}
@@ -16,6 +16,7 @@
 package knoblul.eosvstubot.tests.passing;
 
 import knoblul.eosvstubot.utils.Log;
+import knoblul.eosvstubot.utils.TimeSource;
 import knoblul.eosvstubot.utils.TimeUtils;
 import org.junit.Assert;
 import org.junit.Test;
@@ -31,7 +32,10 @@ import java.util.concurrent.TimeUnit;
  */
 public class TimeZoneTest extends Assert {
 	@Test
-	public void testTimeUtils() {
+	public void testTimeUtils() throws Exception {
+		// чтобы смещение не поменялось посреди теста и тест работал без интернета
+		TimeUtils.setTimeSource(TimeSource.LOCAL).get();
+
 		long systemTime = System.currentTimeMillis();
 		Log.info(new SimpleDateFormat("dd.MM.YYYY HH:mm:ss").format(new Date(systemTime)));
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.tests.passing;
+
+import knoblul.eosvstubot.api.timer.TimerWheel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 13:40
+ * @author Knoblul
+ */
+public class TimerWheelTest extends Assert {
+	@Test
+	public void testTimersFireOnce() {
+		AtomicLong time = new AtomicLong();
+		TimerWheel wheel = new TimerWheel(Thread.currentThread(), time::get);
+		AtomicInteger fired = new AtomicInteger();
+		AtomicInteger farFired = new AtomicInteger();
+		wheel.schedule(100, fired::incrementAndGet);
+		// дедлайн дальше полного оборота колеса
+		wheel.schedule(60000, farFired::incrementAndGet);
+		TimerWheel.Timeout cancelled = wheel.schedule(100, fired::incrementAndGet);
+		cancelled.cancel();
+
+		time.set(50);
+		wheel.advance();
+		assertEquals(0, fired.get());
+
+		time.set(100);
+		wheel.advance();
+		assertEquals(1, fired.get());
+
+		for (long t = 100; t < 60000; t += 7) {
+			time.set(t);
+			wheel.advance();
+		}
+		assertEquals(1, fired.get());
+		assertEquals(0, farFired.get());
+
+		// поток "простоял" дольше оборота колеса
+		time.set(120000);
+		wheel.advance();
+		assertEquals(1, fired.get());
+		assertEquals(1, farFired.get());
+		assertEquals(0, wheel.getPendingTimeouts());
+	}
+
+	@Test
+	public void testDeadlineInsideTick() {
+		AtomicLong time = new AtomicLong();
+		TimerWheel wheel = new TimerWheel(Thread.currentThread(), time::get);
+		AtomicLong firedAt = new AtomicLong(-1);
+		wheel.schedule(105, () -> firedAt.set(time.get()));
+
+		// колесо обновляется каждую миллисекунду, в том числе в начале тика дедлайна
+		for (long t = 1; t <= 200 && firedAt.get() < 0; t++) {
+			time.set(t);
+			wheel.advance();
+		}
+		assertTrue("Timer fired too early: " + firedAt.get(), firedAt.get() >= 105);
+		assertTrue("Timer fired too late: " + firedAt.get(), firedAt.get() <= 105 + TimerWheel.TICK_DURATION);
+	}
+
+	@Test
+	public void testRescheduleFromTask() {
+		AtomicLong time = new AtomicLong();
+		TimerWheel wheel = new TimerWheel(Thread.currentThread(), time::get);
+		AtomicInteger fired = new AtomicInteger();
+		Runnable[] task = new Runnable[1];
+		task[0] = () -> {
+			fired.incrementAndGet();
+			wheel.schedule(0, task[0]);
+		};
+		wheel.schedule(0, task[0]);
+
+		for (int i = 1; i <= 5; i++) {
+			time.set(i * TimerWheel.TICK_DURATION);
+			wheel.advance();
+			assertEquals(i, fired.get());
+		}
+	}
+}
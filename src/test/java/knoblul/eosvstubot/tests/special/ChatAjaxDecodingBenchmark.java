@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Knoblul
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package knoblul.eosvstubot.tests.special;
+
+import com.google.common.base.Stopwatch;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import knoblul.eosvstubot.api.chat.action.ChatAction;
+import knoblul.eosvstubot.api.chat.action.ChatAjaxResponse;
+import knoblul.eosvstubot.tests.passing.ChatAjaxResponseDecodingTest;
+import knoblul.eosvstubot.utils.Log;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import static knoblul.eosvstubot.api.BotContext.GSON;
+
+/**
+ * Сравнивает потоковый разбор ответов chat_ajax.php ({@link ChatAjaxResponse})
+ * с разбором через дерево {@link JsonObject} и {@link ChatAction#ChatAction(JsonObject)}.
+ *
+ * <br><br>Module: eos-vstu-bot
+ * <br>Created: 19.10.2026 20:15
+ * @author Knoblul
+ */
+public class ChatAjaxDecodingBenchmark extends Assert {
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int ITERATIONS = 100000;
+
+	private static int treeParse(String response) {
+		JsonElement json = GSON.fromJson(response, JsonElement.class);
+		JsonObject jsonObject = json.getAsJsonObject();
+		ChatAction action = new ChatAction(jsonObject);
+		return action.getNewMessages().size() + (action.getUsers() != null ? action.getUsers().size() : 0)
+				+ jsonObject.get("lasttime").getAsString().length();
+	}
+
+	private static int streamDecode(String response) throws IOException {
+		ChatAjaxResponse decoded = ChatAjaxResponse.decode(new StringReader(response));
+		assert decoded != null && decoded.getAction() != null;
+		ChatAction action = decoded.getAction();
+		return action.getNewMessages().size() + (action.getUsers() != null ? action.getUsers().size() : 0)
+				+ decoded.getLastTime().length();
+	}
+
+	private static void benchmark(String name, String response) throws IOException {
+		int blackhole = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			blackhole += treeParse(response);
+			blackhole += streamDecode(response);
+		}
+
+		Stopwatch sw = Stopwatch.createStarted();
+		for (int i = 0; i < ITERATIONS; i++) {
+			blackhole += treeParse(response);
+		}
+		long treeTime = sw.elapsed(TimeUnit.NANOSECONDS);
+
+		sw.reset().start();
+		for (int i = 0; i < ITERATIONS; i++) {
+			blackhole += streamDecode(response);
+		}
+		long streamTime = sw.elapsed(TimeUnit.NANOSECONDS);
+
+		Log.info("[%s] JsonObject tree + ChatAction: %.2f us/response", name, treeTime / 1000.0 / ITERATIONS);
+		Log.info("[%s] ChatAjaxResponse stream:      %.2f us/response (%d)", name,
+				streamTime / 1000.0 / ITERATIONS, blackhole);
+	}
+
+	@Test
+	public void benchmarkChatAjaxDecoding() throws IOException {
+		String response = ChatAjaxResponseDecodingTest.UPDATE_RESPONSE;
+		benchmark("messages + users", response);
+
+		// обычный ответ на пинг - без новых сообщений, только список пользователей
+		JsonObject usersOnly = GSON.fromJson(response, JsonObject.class);
+		usersOnly.remove("msgs");
+		benchmark("users", usersOnly.toString());
+	}
+}